@@ -65,7 +65,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
@@ -78,6 +79,7 @@ import javax.crypto.SecretKey;
 import javax.crypto.spec.DHParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.mail.internet.InternetAddress;
+import javax.sql.DataSource;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -106,6 +108,7 @@ import org.apache.commons.mail.EmailAttachment;
 import org.apache.commons.mail.HtmlEmail;
 import org.apache.log4j.PropertyConfigurator;
 import org.semanticwb.base.db.DBConnectionManager;
+import org.semanticwb.base.db.DatabaseDescriptor;
 import org.semanticwb.base.db.DBConnectionPool;
 import org.semanticwb.base.db.PoolConnectionTimeLock;
 //import org.apache.poi.POITextExtractor;
@@ -212,7 +215,14 @@ public class SWBUtils
      * Contiene los elementos de error a mostrar en el visor de errores del
      * sitio de administraci&oacute;n.</p>
      */
-    private static Vector errorElement = new Vector();
+    private static final ConcurrentLinkedDeque<ErrorElement> errorElement = new ConcurrentLinkedDeque<ErrorElement>();
+    /**
+     * Counts the error elements, since the deque's size is not constant-time.
+     * <p>
+     * Cuenta los elementos de error, ya que el tama&ntilde;o de la cola no se
+     * calcula en tiempo constante.</p>
+     */
+    private static final AtomicInteger errorElementCount = new AtomicInteger();
     /**
      * Specifies the number of error elements to show in the administration
      * site's error viewer.
@@ -410,10 +420,11 @@ public class SWBUtils
         public static void addError(String msg, Throwable e, Class cls, String level)
         {
             //MAPS74 try removed, shoudn't be an error here
-            SWBUtils.errorElement.add(0, new ErrorElement(e, msg, cls, level));
-            if (SWBUtils.errorElement.size() > SWBUtils.errorElementSize)
+            SWBUtils.errorElement.addFirst(new ErrorElement(e, msg, cls, level));
+            if (SWBUtils.errorElementCount.incrementAndGet() > SWBUtils.errorElementSize
+                    && SWBUtils.errorElement.pollLast() != null)
             {
-                SWBUtils.errorElement.remove(SWBUtils.errorElementSize);
+                SWBUtils.errorElementCount.decrementAndGet();
             }
         }
 
@@ -429,7 +440,7 @@ public class SWBUtils
          */
         public static Iterator getErrorElements()
         {
-            return new Vector(SWBUtils.errorElement).iterator();
+            return new ArrayList<ErrorElement>(SWBUtils.errorElement).iterator();
         }
 
         /**
@@ -5453,7 +5464,7 @@ public class SWBUtils
          */
         public static DBConnectionPool getPool(String name)
         {
-            return (DBConnectionPool) getConnectionManager().getPools().get(name);
+            return getConnectionManager().getPool(name);
         }
 
         /**
@@ -5470,7 +5481,7 @@ public class SWBUtils
          */
         public static DBConnectionPool getDefaultPool()
         {
-            return (DBConnectionPool) getConnectionManager().getPools().get(SWBUtils.DB.defaultPoolName);
+            return getConnectionManager().getPool(SWBUtils.DB.defaultPoolName);
         }
 
         /**
@@ -5590,6 +5601,42 @@ public class SWBUtils
             return getConnectionManager().getConnection(name);
         }
 
+        /**
+         * Gets a database connection for read-only work from the connection
+         * pool specified. If the pool defines replicas, the connection comes
+         * from the replica with the fewest connections in use.
+         * <p>
+         * Obtiene una conexi&oacute;n a base de datos para lecturas del pool de
+         * conexiones especificado. Si el pool define r&eacute;plicas, la
+         * conexi&oacute;n se obtiene de la r&eacute;plica con menos conexiones
+         * en uso.</p>
+         *
+         * @param name a string representing the name of a registered connection
+         * pool
+         * @return a database connection for reads.
+         */
+        public static Connection getReadConnection(String name)
+        {
+            return getConnectionManager().getReadConnection(name);
+        }
+
+        /**
+         * Gets a data source backed by the connection pool specified.
+         * <p>
+         * Obtiene un DataSource que entrega conexiones del pool de conexiones
+         * especificado, para las librer&iacute;as que requieren un
+         * DataSource.</p>
+         *
+         * @param poolName a string representing the name of a registered
+         * connection pool
+         * @return a data source for the connection pool specified, or
+         * {@code null} if it does not exist.
+         */
+        public static DataSource getDataSource(String poolName)
+        {
+            return getConnectionManager().getDataSource(poolName);
+        }
+
         /**
          * Gets the database name used by the default database connection pool.
          * <p>
@@ -5621,20 +5668,31 @@ public class SWBUtils
          */
         public static String getDatabaseName(String poolName)
         {
-            String ret = null;
-            try
-            {
-                Connection con = getConnectionManager().getConnection(poolName);
-                if (con != null)
-                {
-                    java.sql.DatabaseMetaData md = con.getMetaData();
-                    ret = md.getDatabaseProductName();
-                    con.close();
-                }
-            }
-            catch (Exception e)
+            DatabaseDescriptor db = getDatabaseDescriptor(poolName);
+            return db != null ? db.getProductName() : null;
+        }
+
+        /**
+         * Gets the description of the database used by the connection pool
+         * specified: product, version, driver and capabilities. It is read
+         * once per pool, later calls don't use a connection.
+         * <p>
+         * Obtiene la descripci&oacute;n de la base de datos utilizada por el
+         * pool de conexiones especificado: producto, versi&oacute;n, manejador
+         * y capacidades. Se obtiene una sola vez por pool, las llamadas
+         * posteriores no utilizan una conexi&oacute;n.</p>
+         *
+         * @param poolName a string representing a registered connection pool
+         * name
+         * @return the database description, or {@code null} if it could not
+         * be read.
+         */
+        public static DatabaseDescriptor getDatabaseDescriptor(String poolName)
+        {
+            DatabaseDescriptor ret = getConnectionManager().getDatabaseDescriptor(poolName);
+            if (ret == null)
             {
-                SWBUtils.log.error("Not Database Found...", e);
+                SWBUtils.log.error("Not Database Found...");
             }
             return ret;
         }
@@ -5694,33 +5752,8 @@ public class SWBUtils
          */
         public static String getDatabaseType(String poolName)
         {
-
-            String ret = getDatabaseName(poolName);
-            if (ret.toLowerCase().indexOf("hsql") > - 1)
-            {
-                ret = SWBUtils.DB.DBTYPE_HSQLDB;
-            }
-            else if (ret.toLowerCase().indexOf("mysql") > - 1)
-            {
-                ret = SWBUtils.DB.DBTYPE_MySQL;
-            }
-            else if (ret.toLowerCase().indexOf("mssql") > - 1)
-            {
-                ret = SWBUtils.DB.DBTYPE_MsSQL;
-            }
-            else if (ret.toLowerCase().indexOf("oracle") > - 1)
-            {
-                ret = SWBUtils.DB.DBTYPE_Oracle;
-            }
-            else if (ret.toLowerCase().indexOf("postgresql") > - 1)
-            {
-                ret = SWBUtils.DB.DBTYPE_PostgreSQL;
-            }
-            else if (ret.toLowerCase().indexOf("derby") > - 1)
-            {
-                ret = SWBUtils.DB.DBTYPE_Derby;
-            }
-            return ret;
+            DatabaseDescriptor db = getDatabaseDescriptor(poolName);
+            return db != null ? db.getType() : null;
         }
 
         /**
@@ -25,6 +25,9 @@ package org.semanticwb.base.db;
 import java.sql.*;
 import java.util.Properties;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import org.semanticwb.Logger;
 import org.semanticwb.SWBUtils;
 
@@ -41,7 +44,7 @@ public class AutoConnection implements Connection
     private static Logger log=SWBUtils.getLogger(AutoConnection.class);
 
     /** The con. */
-    private java.sql.Connection con = null;
+    private volatile java.sql.Connection con = null;
     
     /** The pool. */
     private DBConnectionPool pool;
@@ -58,6 +61,15 @@ public class AutoConnection implements Connection
     /** The debug. */
     private boolean debug=false;
 
+    /** Evita que varios hilos reconecten la misma conexión al mismo tiempo. */
+    private final ReentrantLock reconnectLock = new ReentrantLock();
+
+    /** El número de intentos de reconexión fallidos consecutivos. */
+    private int failedReconnects = 0;
+
+    /** El valor de System.nanoTime() a partir del cual se puede intentar reconectar de nuevo. */
+    private long nextReconnect = 0;
+
     /**
      * Instantiates a new auto connection.
      * 
@@ -68,7 +80,7 @@ public class AutoConnection implements Connection
     {
         this.con = con;
         this.pool = pool;
-        log.trace("AutoConnection("+getId()+","+pool.getName()+"):"+pool.checkedOut);
+        log.trace("AutoConnection("+getId()+","+pool.getName()+"):"+pool.getTotalConnections());
     }
 
     /**
@@ -85,25 +97,24 @@ public class AutoConnection implements Connection
         boolean ret=false;
         if(!isclosed)
         {
-            if(con!=null)
+            Connection current=con;
+            if(current!=null)
             {
                 try
                 {
-                    boolean closed=con.isClosed();
+                    boolean closed=current.isClosed();
                     if(closed)
                     {
-                        changeConnection();
-                        ret=true;
+                        ret=reconnect(current);
                     }
                 }catch(SQLException e)
                 {
                     log.error("SQLException:"+e.getMessage());
-                    changeConnection();
-                    ret=true;
+                    ret=reconnect(current);
                 }
             }else
             {
-                changeConnection();
+                reconnect(null);
             }
         }
         return ret;
@@ -118,8 +129,74 @@ public class AutoConnection implements Connection
         {
             System.out.println("changeConnection");
         }
-        log.error("Error checking connection, Auto Reconnect...");
-        con=pool.newNoPoolConnection();
+        reconnect(con);
+    }
+
+    /**
+     * Reemplaza la conexión física fallida por una nueva. Solo un hilo reconecta a la vez, los
+     * demás esperan su resultado en lugar de abrir otra conexión. Tras un intento fallido, los
+     * siguientes intentos se retrasan con una espera exponencial con variación aleatoria, para
+     * que las AutoConnections no saturen la base de datos al reconectar todas al mismo tiempo.
+     * La conexión no lleva registro de sus PreparedStatements; cada AutoPreparedStatement se vuelve
+     * a preparar por sí mismo en checkStatement(), la siguiente vez que se usa y encuentra una
+     * conexión física nueva.
+     *
+     * @param failed la conexión física que falló
+     * @return true, si la conexión física cambió
+     */
+    private boolean reconnect(Connection failed)
+    {
+        if (!reconnectLock.tryLock())
+        {
+            // Otro hilo está reconectando, se utiliza su resultado
+            reconnectLock.lock();
+            reconnectLock.unlock();
+            return con != failed;
+        }
+        try
+        {
+            if (con != failed)
+            {
+                return true;
+            }
+            long start = System.nanoTime();
+            if (start - nextReconnect < 0)
+            {
+                log.debug("Reconnect of connection " + id + " in pool " + pool.getName() + " delayed by backoff");
+                return false;
+            }
+            log.error("Error checking connection, Auto Reconnect...");
+            Connection ncon = pool.newNoPoolConnection();
+            if (ncon == null)
+            {
+                failedReconnects++;
+                long delay = Math.min(pool.getMaxReconnectDelay(), pool.getReconnectDelay() << Math.min(failedReconnects - 1, 20));
+                delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+                nextReconnect = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+                pool.getMetrics().reconnectFailed();
+                log.warn("Reconnect of connection " + id + " in pool " + pool.getName() + " failed, next attempt in " + delay + "ms");
+                return false;
+            }
+            con = ncon;
+            failedReconnects = 0;
+            nextReconnect = 0;
+            pool.getMetrics().reconnected(start);
+            log.info("Connection " + id + " in pool " + pool.getName() + " reconnected, prepared statements will be prepared again");
+            if (failed != null)
+            {
+                try
+                {
+                    failed.close();
+                } catch (SQLException e)
+                {
+                    log.debug("Error closing failed connection " + id + " in pool " + pool.getName(), e);
+                }
+            }
+            return true;
+        } finally
+        {
+            reconnectLock.unlock();
+        }
     }
 
     /** Getter for property id.
@@ -195,7 +272,7 @@ public class AutoConnection implements Connection
         }
         isclosed=true;
         con.close();
-        log.trace("close:("+getId()+","+pool.getName()+"):"+pool.checkedOut);
+        log.trace("close:("+getId()+","+pool.getName()+"):"+pool.getTotalConnections());
     }
 
     /**
@@ -31,6 +31,8 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Iterator;
+import org.semanticwb.Logger;
+import org.semanticwb.SWBUtils;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -39,6 +41,9 @@ import java.util.Iterator;
  */
 public class AutoPreparedStatement implements java.sql.PreparedStatement {
 
+    /** The log. */
+    private static Logger log = SWBUtils.getLogger(AutoPreparedStatement.class);
+
     /** The st. */
     private PreparedStatement st;
     
@@ -48,8 +53,8 @@ public class AutoPreparedStatement implements java.sql.PreparedStatement {
     /** The query. */
     private String query = null;
     
-    /** The args. */
-    private String args = "";
+    /** Los parámetros asignados, nulo si el pool no los registra. */
+    private ParameterTrace params = null;
     
     /** The debug. */
     private boolean debug = false;
@@ -76,9 +81,36 @@ public class AutoPreparedStatement implements java.sql.PreparedStatement {
         batchs = new ArrayList();
         this.aconn = aconn;
         this.query = query;
+        if (aconn.getPool() != null && aconn.getPool().isTraceParameters())
+        {
+            params = new ParameterTrace();
+        }
         checkStatement();
     }
 
+    /**
+     * Gets the parameters.
+     *
+     * @return los parámetros asignados, o nulo si el pool no los registra
+     */
+    public ParameterTrace getParameters()
+    {
+        return params;
+    }
+
+    /**
+     * Registra en la bitácora la consulta y sus parámetros cuando la ejecución falla.
+     *
+     * @param e the e
+     */
+    private void logError(SQLException e)
+    {
+        if (params != null)
+        {
+            log.error("Error executing " + query + ", parameters: " + params, e);
+        }
+    }
+
     /**
      * Check statement.
      * 
@@ -91,12 +123,14 @@ public class AutoPreparedStatement implements java.sql.PreparedStatement {
             //MAPS74 if redundante
 //            if (aconn.getNativeConnection() != conn)
 //            {
+                Connection ncon = aconn.getNativeConnection();
                 if (conn != null)
                 {
-                    System.out.println("Recreating PreparedStatement...");
+                    log.debug("Recreating PreparedStatement: " + query);
                 }
-                conn = aconn.getNativeConnection();
-                st = conn.prepareStatement(query);
+                // La conexión se asigna despues de preparar, para reintentar si falla
+                st = ncon.prepareStatement(query);
+                conn = ncon;
                 Iterator it = batchs.iterator();
                 while (it.hasNext())
                 {
@@ -518,7 +552,14 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
             System.out.println("executeQuery():" + query);
         }
         checkStatement();
-        return st.executeQuery();
+        try
+        {
+            return st.executeQuery();
+        } catch (SQLException e)
+        {
+            logError(e);
+            throw e;
+        }
     }
 
     /* (non-Javadoc)
@@ -535,15 +576,21 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
             //time=System.currentTimeMillis();
             System.out.println("----------------------------------------------");
             System.out.println("--> execute():" + query);
-            System.out.println("--> args:" + args);
-            args = "";
+            System.out.println("--> args:" + params);
 //            if (query.contains("Delete"))
 //            {
 //                new Exception().printStackTrace();
 //            }
         }
         checkStatement();
-        return st.executeUpdate();
+        try
+        {
+            return st.executeUpdate();
+        } catch (SQLException e)
+        {
+            logError(e);
+            throw e;
+        }
     }
 
     /* (non-Javadoc)
@@ -551,9 +598,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setNull(int parameterIndex, int sqlType) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + sqlType;
+            params.setNull(parameterIndex, sqlType);
         }
         checkStatement();
         st.setNull(parameterIndex, sqlType);
@@ -564,9 +611,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setBoolean(int parameterIndex, boolean x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         checkStatement();
         st.setBoolean(parameterIndex, x);
@@ -577,9 +624,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setByte(int parameterIndex, byte x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         checkStatement();
         st.setByte(parameterIndex, x);
@@ -590,9 +637,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setShort(int parameterIndex, short x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         checkStatement();
         st.setShort(parameterIndex, x);
@@ -603,9 +650,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setInt(int parameterIndex, int x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         checkStatement();
         st.setInt(parameterIndex, x);
@@ -616,9 +663,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setLong(int parameterIndex, long x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         checkStatement();
         st.setLong(parameterIndex, x);
@@ -629,9 +676,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setFloat(int parameterIndex, float x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         checkStatement();
         st.setFloat(parameterIndex, x);
@@ -642,9 +689,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setDouble(int parameterIndex, double x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         checkStatement();
         st.setDouble(parameterIndex, x);
@@ -655,9 +702,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         checkStatement();
         st.setBigDecimal(parameterIndex, x);
@@ -673,9 +720,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
 //            new Exception().printStackTrace();
 //            //Thread.dumpStack();
 //        }
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         checkStatement();
         st.setString(parameterIndex, x);
@@ -686,9 +733,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setBytes(int parameterIndex, byte[] x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         checkStatement();
         st.setBytes(parameterIndex, x);
@@ -699,9 +746,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setDate(int parameterIndex, Date x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         checkStatement();
         st.setDate(parameterIndex, x);
@@ -712,9 +759,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setTime(int parameterIndex, Time x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         checkStatement();
         st.setTime(parameterIndex, x);
@@ -725,9 +772,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         checkStatement();
         st.setTimestamp(parameterIndex, x);
@@ -765,6 +812,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void clearParameters() throws SQLException
     {
+        if (params != null)
+        {
+            params.clear();
+        }
         checkStatement();
         st.clearParameters();
     }
@@ -774,6 +825,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setObject(int parameterIndex, Object x, int targetSqlType, int scale) throws SQLException
     {
+        if (params != null)
+        {
+            params.set(parameterIndex, x);
+        }
         checkStatement();
         st.setObject(parameterIndex, x, targetSqlType, scale);
     }
@@ -783,6 +838,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException
     {
+        if (params != null)
+        {
+            params.set(parameterIndex, x);
+        }
         checkStatement();
         st.setObject(parameterIndex, x, targetSqlType);
     }
@@ -792,6 +851,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setObject(int parameterIndex, Object x) throws SQLException
     {
+        if (params != null)
+        {
+            params.set(parameterIndex, x);
+        }
         checkStatement();
         st.setObject(parameterIndex, x);
     }
@@ -809,8 +872,7 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
             time = System.currentTimeMillis();
             System.out.println("----------------------------------------------");
             System.out.println("--> execute():" + query);
-            System.out.println("--> args:" + args);
-            args = "";
+            System.out.println("--> args:" + params);
             //new Exception().printStackTrace();
         }
 
@@ -822,18 +884,16 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
             //System.out.println("SQLEx:"+se.getMessage());
             if (aconn.checkConnection())
             {
-                System.out.println("P1");
                 checkStatement();
                 ret = st.execute();
             } else if (se.getMessage().indexOf("SocketException") > -1)
             {
-                System.out.println("P2");
                 aconn.changeConnection();
                 checkStatement();
                 ret = st.execute();
             } else
             {
-                System.out.println("P3");
+                logError(se);
                 throw se;
             }
         }
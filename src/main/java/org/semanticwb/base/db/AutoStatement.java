@@ -100,7 +100,7 @@ public class AutoStatement implements java.sql.Statement {
         {
             if (conn != null)
             {
-                System.out.println("Recreating Statement...");
+                log.debug("Recreating Statement...");
             }
             conn = aconn.getNativeConnection();
             try
@@ -238,7 +238,7 @@ public class AutoStatement implements java.sql.Statement {
             return st.executeQuery(str);
         } catch (SQLException se)
         {
-            System.out.println("Error conexion dañada..., "+se);
+            log.warn("Error executing statement, checking connection: " + se.getMessage());
             if(se.getMessage().toLowerCase().contains("socket"))
             {
                 aconn.changeConnection();
@@ -0,0 +1,742 @@
+/*
+ * SemanticWebBuilder es una plataforma para el desarrollo de portales y aplicaciones de integración,
+ * colaboración y conocimiento, que gracias al uso de tecnología semántica puede generar contextos de
+ * información alrededor de algún tema de interés o bien integrar información y aplicaciones de diferentes
+ * fuentes, donde a la información se le asigna un significado, de forma que pueda ser interpretada y
+ * procesada por personas y/o sistemas, es una creación original del Fondo de Información y Documentación
+ * para la Industria INFOTEC, cuyo registro se encuentra actualmente en trámite.
+ *
+ * INFOTEC pone a su disposición la herramienta SemanticWebBuilder a través de su licenciamiento abierto al público (‘open source’),
+ * en virtud del cual, usted podrá usarlo en las mismas condiciones con que INFOTEC lo ha diseñado y puesto a su disposición;
+ * aprender de él; distribuirlo a terceros; acceder a su código fuente y modificarlo, y combinarlo o enlazarlo con otro software,
+ * todo ello de conformidad con los términos y condiciones de la LICENCIA ABIERTA AL PÚBLICO que otorga INFOTEC para la utilización
+ * del SemanticWebBuilder 4.0.
+ *
+ * INFOTEC no otorga garantía sobre SemanticWebBuilder, de ninguna especie y naturaleza, ni implícita ni explícita,
+ * siendo usted completamente responsable de la utilización que le dé y asumiendo la totalidad de los riesgos que puedan derivar
+ * de la misma.
+ *
+ * Si usted tiene cualquier duda o comentario sobre SemanticWebBuilder, INFOTEC pone a su disposición la siguiente
+ * dirección electrónica:
+ *  http://www.semanticwebbuilder.org
+ */
+package org.semanticwb.base.db;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import org.semanticwb.Logger;
+import org.semanticwb.SWBUtils;
+
+/**
+ * Escritor por lotes sobre un {@link DBConnectionPool}. Acumula renglones para una sentencia SQL
+ * y los envía con executeBatch cuando se alcanza el número de renglones, el tamaño estimado en
+ * bytes o el intervalo de tiempo configurados. Cada envío se ejecuta en su propia transacción y
+ * se reintenta si falla por un error transitorio.
+ * <PRE>
+ * BatchWriter writer = new BatchWriter(pool, "insert into log (id, msg) values (?, ?)");
+ * try
+ * {
+ *     writer.add(1, "uno");
+ *     writer.add(2, "dos");
+ * } finally
+ * {
+ *     writer.close();
+ * }
+ * </PRE>
+ */
+public class BatchWriter
+{
+
+    /** The log. */
+    private static Logger log = SWBUtils.getLogger(BatchWriter.class);
+
+    /** The pool. */
+    private final DBConnectionPool pool;
+
+    /** The sql. */
+    private final String sql;
+
+    /** Protege el buffer de renglones, se comparte con la tarea de envío periódico. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Los renglones pendientes de enviar. */
+    private List<Object[]> rows = new ArrayList<Object[]>();
+
+    /** El tamaño estimado en bytes de los renglones pendientes. */
+    private long bytes = 0;
+
+    /** Número de renglones que provoca un envío. */
+    private int maxRows = 1000;
+
+    /** Tamaño estimado en bytes que provoca un envío. */
+    private long maxBytes = 4L * 1024 * 1024;
+
+    /** Intervalo en milisegundos tras el cual se envían los renglones pendientes, 0 para no enviarlos por tiempo. */
+    private long flushInterval = 0;
+
+    /** Número de reintentos de un envío que falla por un error transitorio. */
+    private int maxRetries = 3;
+
+    /** Tiempo en milisegundos antes del primer reintento, se duplica en cada reintento. */
+    private long retryDelay = 100;
+
+    /** El momento en nanosegundos del último envío. */
+    private long lastFlush = System.nanoTime();
+
+    /** La tarea de envío periódico. */
+    private ScheduledFuture<?> flusher = null;
+
+    /**
+     * Ejecuta los envíos periódicos. El hilo de mantenimiento del DBConnectionManager solo los
+     * solicita, para no bloquearse esperando una conexión o entre reintentos. El hilo termina
+     * cuando no hay envíos.
+     */
+    private ThreadPoolExecutor flushExecutor = null;
+
+    /** Si ya hay un envío periódico solicitado o en curso. */
+    private final AtomicBoolean flushPending = new AtomicBoolean(false);
+
+    /** The closed. */
+    private boolean closed = false;
+
+    /** El número de renglones escritos. */
+    private long rowsWritten = 0;
+
+    /** El número de envíos exitosos. */
+    private long flushes = 0;
+
+    /** El número de reintentos. */
+    private long retries = 0;
+
+    /** El tiempo en nanosegundos dedicado a los envíos exitosos. */
+    private long flushTime = 0;
+
+    /**
+     * Indica si el último envío falló al confirmar la transacción; en ese caso no se sabe si los
+     * renglones quedaron escritos.
+     */
+    private boolean commitFailed = false;
+
+    /**
+     * Crea un escritor por lotes.
+     *
+     * @param pool el pool del que se obtienen las conexiones
+     * @param sql la sentencia con parámetros, por ejemplo un insert
+     */
+    public BatchWriter(DBConnectionPool pool, String sql)
+    {
+        this.pool = pool;
+        this.sql = sql;
+    }
+
+    /**
+     * Agrega un renglón con los valores de los parámetros de la sentencia, en orden. Si se alcanza
+     * el número de renglones, el tamaño o el intervalo configurados, se envían los renglones
+     * pendientes.
+     *
+     * @param values los valores de los parámetros
+     * @throws SQLException si el envío falla
+     */
+    public void add(Object... values) throws SQLException
+    {
+        lock.lock();
+        try
+        {
+            if (closed)
+            {
+                throw new SQLException("BatchWriter is closed");
+            }
+            rows.add(values.clone());
+            bytes += estimateSize(values);
+            if (rows.size() >= maxRows || bytes >= maxBytes
+                    || (flushInterval > 0 && System.nanoTime() - lastFlush >= TimeUnit.MILLISECONDS.toNanos(flushInterval)))
+            {
+                flush();
+            }
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Estima el tamaño en bytes de un renglón.
+     *
+     * @param values the values
+     * @return the long
+     */
+    private static long estimateSize(Object[] values)
+    {
+        long size = 16;
+        for (Object value : values)
+        {
+            if (value == null)
+            {
+                size += 1;
+            } else if (value instanceof String)
+            {
+                size += ((String) value).length() * 2L;
+            } else if (value instanceof byte[])
+            {
+                size += ((byte[]) value).length;
+            } else if (value instanceof Number || value instanceof Boolean)
+            {
+                size += 8;
+            } else
+            {
+                size += 32;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Envía los renglones pendientes en una transacción. Si falla por un error transitorio se
+     * reintenta, si falla definitivamente los renglones se conservan para que se puedan reintentar
+     * o descartar con {@link #clear()}. Un error de conexión al confirmar la transacción no se
+     * reintenta porque no se sabe si los renglones quedaron escritos.
+     *
+     * @throws SQLException si el envío falla
+     */
+    public void flush() throws SQLException
+    {
+        lock.lock();
+        try
+        {
+            if (rows.isEmpty())
+            {
+                lastFlush = System.nanoTime();
+                return;
+            }
+            int attempt = 0;
+            while (true)
+            {
+                long start = System.nanoTime();
+                try
+                {
+                    execute();
+                    long time = System.nanoTime() - start;
+                    rowsWritten += rows.size();
+                    flushes++;
+                    flushTime += time;
+                    if (log.isTraceEnabled())
+                    {
+                        log.trace("Flushed " + rows.size() + " rows to pool " + pool.getName() + " in "
+                                + (time / 1000000) + "ms");
+                    }
+                    rows = new ArrayList<Object[]>();
+                    bytes = 0;
+                    lastFlush = System.nanoTime();
+                    return;
+                } catch (SQLException e)
+                {
+                    if (attempt >= maxRetries || !isTransient(e, commitFailed))
+                    {
+                        log.error("Error flushing " + rows.size() + " rows of " + sql + " to pool " + pool.getName(), e);
+                        throw e;
+                    }
+                    long delay = retryDelay << attempt;
+                    attempt++;
+                    retries++;
+                    log.warn("Transient error flushing rows to pool " + pool.getName() + ", retry " + attempt
+                            + " in " + delay + "ms: " + e.getMessage());
+                    try
+                    {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ie)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw e;
+                    }
+                }
+            }
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ejecuta el lote de renglones pendientes en una transacción.
+     *
+     * @throws SQLException the SQL exception
+     */
+    private void execute() throws SQLException
+    {
+        commitFailed = false;
+        Connection con = pool.getDataSource().getConnection();
+        try
+        {
+            con.setAutoCommit(false);
+            PreparedStatement ps = con.prepareStatement(sql);
+            try
+            {
+                int[] nullTypes = null;
+                for (Object[] row : rows)
+                {
+                    for (int i = 0; i < row.length; i++)
+                    {
+                        if (row[i] == null)
+                        {
+                            if (nullTypes == null)
+                            {
+                                nullTypes = getParameterTypes(ps, row.length);
+                            }
+                            if (i < nullTypes.length && nullTypes[i] != Types.NULL)
+                            {
+                                ps.setNull(i + 1, nullTypes[i]);
+                            } else
+                            {
+                                ps.setObject(i + 1, null);
+                            }
+                        } else
+                        {
+                            ps.setObject(i + 1, row[i]);
+                        }
+                    }
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                commitFailed = true;
+                con.commit();
+                commitFailed = false;
+            } catch (SQLException e)
+            {
+                try
+                {
+                    con.rollback();
+                } catch (SQLException re)
+                {
+                    log.debug("Error rolling back batch", re);
+                }
+                throw e;
+            } finally
+            {
+                ps.close();
+            }
+        } finally
+        {
+            con.close();
+        }
+    }
+
+    /**
+     * Obtiene el tipo SQL de cada parámetro de la sentencia para asignar valores nulos, algunos
+     * manejadores como el de Oracle rechazan {@link Types#NULL}. Los parámetros cuyo tipo no se
+     * puede obtener quedan como {@link Types#NULL} y se asignan con setObject.
+     *
+     * @param ps la sentencia preparada
+     * @param count el número de parámetros
+     * @return los tipos SQL de los parámetros
+     */
+    private int[] getParameterTypes(PreparedStatement ps, int count)
+    {
+        int[] types = new int[count];
+        Arrays.fill(types, Types.NULL);
+        try
+        {
+            ParameterMetaData md = ps.getParameterMetaData();
+            if (md != null)
+            {
+                for (int i = 0; i < count; i++)
+                {
+                    try
+                    {
+                        types[i] = md.getParameterType(i + 1);
+                    } catch (SQLException e)
+                    {
+                        types[i] = Types.NULL;
+                    }
+                }
+            }
+        } catch (SQLException e)
+        {
+            log.debug("Parameter metadata not available for " + sql, e);
+        }
+        return types;
+    }
+
+    /**
+     * Indica si el error es transitorio y vale la pena reintentar: errores de conexión (SQLState
+     * 08), de transacción como deadlocks o serialización (SQLState 40) y las excepciones
+     * transitorias o recuperables de JDBC.
+     *
+     * @param e the e
+     * @return true, si el error es transitorio
+     */
+    static boolean isTransient(SQLException e)
+    {
+        return isTransient(e, false);
+    }
+
+    /**
+     * Indica si el error es transitorio y vale la pena reintentar. Si el error ocurrió al
+     * confirmar la transacción solo se reintenta cuando la base de datos la deshizo (SQLState
+     * 40); un error de conexión durante el commit deja en duda si los renglones se escribieron
+     * y reintentar podría duplicarlos.
+     *
+     * @param e the e
+     * @param commit true si el error ocurrió al confirmar la transacción
+     * @return true, si el error es transitorio
+     */
+    static boolean isTransient(SQLException e, boolean commit)
+    {
+        SQLException ex = e;
+        while (ex != null)
+        {
+            String state = ex.getSQLState();
+            if (ex instanceof SQLTransactionRollbackException || (state != null && state.startsWith("40")))
+            {
+                return true;
+            }
+            if (!commit && (ex instanceof SQLTransientException || ex instanceof SQLRecoverableException
+                    || (state != null && state.startsWith("08"))))
+            {
+                return true;
+            }
+            SQLException next = ex.getNextException();
+            if (next == null && ex instanceof BatchUpdateException && ex.getCause() instanceof SQLException)
+            {
+                next = (SQLException) ex.getCause();
+            }
+            ex = next != ex ? next : null;
+        }
+        return false;
+    }
+
+    /**
+     * Envía los renglones pendientes si ya transcurrió el intervalo configurado. Si el escritor
+     * está ocupado no espera, el siguiente add realizará el envío.
+     */
+    private void flushIfDue()
+    {
+        if (lock.tryLock())
+        {
+            try
+            {
+                if (!closed && !rows.isEmpty()
+                        && System.nanoTime() - lastFlush >= TimeUnit.MILLISECONDS.toNanos(flushInterval))
+                {
+                    flush();
+                }
+            } catch (SQLException e)
+            {
+                log.debug("Error in scheduled flush", e);
+            } finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Descarta los renglones pendientes.
+     */
+    public void clear()
+    {
+        lock.lock();
+        try
+        {
+            rows = new ArrayList<Object[]>();
+            bytes = 0;
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Envía los renglones pendientes y cierra el escritor.
+     *
+     * @throws SQLException si el envío falla
+     */
+    public void close() throws SQLException
+    {
+        lock.lock();
+        try
+        {
+            if (closed)
+            {
+                return;
+            }
+            if (flusher != null)
+            {
+                flusher.cancel(false);
+                flusher = null;
+            }
+            if (flushExecutor != null)
+            {
+                flushExecutor.shutdown();
+                flushExecutor = null;
+            }
+            flush();
+            closed = true;
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the pending rows.
+     *
+     * @return el número de renglones pendientes de enviar
+     */
+    public int getPendingRows()
+    {
+        lock.lock();
+        try
+        {
+            return rows.size();
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the rows written.
+     *
+     * @return el número de renglones escritos
+     */
+    public long getRowsWritten()
+    {
+        lock.lock();
+        try
+        {
+            return rowsWritten;
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the flushes.
+     *
+     * @return el número de envíos exitosos
+     */
+    public long getFlushes()
+    {
+        lock.lock();
+        try
+        {
+            return flushes;
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the retries.
+     *
+     * @return el número de reintentos por errores transitorios
+     */
+    public long getRetries()
+    {
+        lock.lock();
+        try
+        {
+            return retries;
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Regresa la velocidad de escritura, considerando solo el tiempo dedicado a los envíos.
+     *
+     * @return los renglones escritos por segundo
+     */
+    public double getRowsPerSecond()
+    {
+        lock.lock();
+        try
+        {
+            return flushTime > 0 ? rowsWritten * 1e9 / flushTime : 0;
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the max rows.
+     *
+     * @return el número de renglones que provoca un envío
+     */
+    public int getMaxRows()
+    {
+        return maxRows;
+    }
+
+    /**
+     * Sets the max rows.
+     *
+     * @param maxRows el número de renglones que provoca un envío
+     */
+    public void setMaxRows(int maxRows)
+    {
+        this.maxRows = Math.max(1, maxRows);
+    }
+
+    /**
+     * Gets the max bytes.
+     *
+     * @return el tamaño estimado en bytes que provoca un envío
+     */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the max bytes.
+     *
+     * @param maxBytes el tamaño estimado en bytes que provoca un envío
+     */
+    public void setMaxBytes(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the flush interval.
+     *
+     * @return el intervalo en milisegundos tras el cual se envían los renglones pendientes
+     */
+    public long getFlushInterval()
+    {
+        return flushInterval;
+    }
+
+    /**
+     * Sets the flush interval. Los renglones pendientes se envían en segundo plano aunque no se
+     * agreguen más renglones.
+     *
+     * @param flushInterval el intervalo en milisegundos, 0 para no enviar por tiempo
+     */
+    public void setFlushInterval(long flushInterval)
+    {
+        lock.lock();
+        try
+        {
+            this.flushInterval = flushInterval;
+            if (flusher != null)
+            {
+                flusher.cancel(false);
+                flusher = null;
+            }
+            if (flushInterval > 0 && !closed)
+            {
+                if (flushExecutor == null)
+                {
+                    flushExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                            new ThreadFactory()
+                            {
+                                public Thread newThread(Runnable r)
+                                {
+                                    Thread t = new Thread(r, "BatchWriter-flush");
+                                    t.setDaemon(true);
+                                    return t;
+                                }
+                            });
+                    flushExecutor.allowCoreThreadTimeOut(true);
+                }
+                final ThreadPoolExecutor executor = flushExecutor;
+                final Runnable task = new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            flushIfDue();
+                        } finally
+                        {
+                            flushPending.set(false);
+                        }
+                    }
+                };
+                flusher = pool.getConnectionManager().getScheduler().scheduleWithFixedDelay(new Runnable()
+                {
+                    public void run()
+                    {
+                        if (flushPending.compareAndSet(false, true))
+                        {
+                            try
+                            {
+                                executor.execute(task);
+                            } catch (RejectedExecutionException e)
+                            {
+                                flushPending.set(false);
+                            }
+                        }
+                    }
+                }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+            }
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the max retries.
+     *
+     * @return el número de reintentos de un envío que falla por un error transitorio
+     */
+    public int getMaxRetries()
+    {
+        return maxRetries;
+    }
+
+    /**
+     * Sets the max retries.
+     *
+     * @param maxRetries el número de reintentos de un envío que falla por un error transitorio
+     */
+    public void setMaxRetries(int maxRetries)
+    {
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * Gets the retry delay.
+     *
+     * @return el tiempo en milisegundos antes del primer reintento
+     */
+    public long getRetryDelay()
+    {
+        return retryDelay;
+    }
+
+    /**
+     * Sets the retry delay.
+     *
+     * @param retryDelay el tiempo en milisegundos antes del primer reintento, se duplica en cada reintento
+     */
+    public void setRetryDelay(long retryDelay)
+    {
+        this.retryDelay = Math.max(0, retryDelay);
+    }
+}
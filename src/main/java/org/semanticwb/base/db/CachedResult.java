@@ -0,0 +1,239 @@
+/*
+ * SemanticWebBuilder es una plataforma para el desarrollo de portales y aplicaciones de integración,
+ * colaboración y conocimiento, que gracias al uso de tecnología semántica puede generar contextos de
+ * información alrededor de algún tema de interés o bien integrar información y aplicaciones de diferentes
+ * fuentes, donde a la información se le asigna un significado, de forma que pueda ser interpretada y
+ * procesada por personas y/o sistemas, es una creación original del Fondo de Información y Documentación
+ * para la Industria INFOTEC, cuyo registro se encuentra actualmente en trámite.
+ *
+ * INFOTEC pone a su disposición la herramienta SemanticWebBuilder a través de su licenciamiento abierto al público (‘open source’),
+ * en virtud del cual, usted podrá usarlo en las mismas condiciones con que INFOTEC lo ha diseñado y puesto a su disposición;
+ * aprender de él; distribuirlo a terceros; acceder a su código fuente y modificarlo, y combinarlo o enlazarlo con otro software,
+ * todo ello de conformidad con los términos y condiciones de la LICENCIA ABIERTA AL PÚBLICO que otorga INFOTEC para la utilización
+ * del SemanticWebBuilder 4.0.
+ *
+ * INFOTEC no otorga garantía sobre SemanticWebBuilder, de ninguna especie y naturaleza, ni implícita ni explícita,
+ * siendo usted completamente responsable de la utilización que le dé y asumiendo la totalidad de los riesgos que puedan derivar
+ * de la misma.
+ *
+ * Si usted tiene cualquier duda o comentario sobre SemanticWebBuilder, INFOTEC pone a su disposición la siguiente
+ * dirección electrónica:
+ *  http://www.semanticwebbuilder.org
+ */
+package org.semanticwb.base.db;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Copia inmutable y desconectada del resultado de una consulta. Los valores se leen con
+ * getObject, los Clob se convierten a String y los Blob a byte[] para no depender de la conexión.
+ */
+public final class CachedResult
+{
+
+    /** Los nombres de las columnas. */
+    private final String[] labels;
+
+    /** Los renglones. */
+    private final List<Object[]> rows;
+
+    /** El tamaño estimado en bytes. */
+    private final long size;
+
+    /**
+     * Instantiates a new cached result.
+     *
+     * @param labels the labels
+     * @param rows the rows
+     * @param size the size
+     */
+    private CachedResult(String[] labels, List<Object[]> rows, long size)
+    {
+        this.labels = labels;
+        this.rows = rows;
+        this.size = size;
+    }
+
+    /**
+     * Lee todos los renglones del ResultSet.
+     *
+     * @param rs the rs
+     * @return el resultado
+     * @throws SQLException the SQL exception
+     */
+    static CachedResult read(ResultSet rs) throws SQLException
+    {
+        ResultSetMetaData md = rs.getMetaData();
+        int cols = md.getColumnCount();
+        String[] labels = new String[cols];
+        long size = 64;
+        for (int i = 0; i < cols; i++)
+        {
+            labels[i] = md.getColumnLabel(i + 1);
+            size += 16 + (labels[i] != null ? labels[i].length() * 2 : 0);
+        }
+        List<Object[]> rows = new ArrayList<Object[]>();
+        while (rs.next())
+        {
+            Object[] row = new Object[cols];
+            size += 16 + cols * 8L;
+            for (int i = 0; i < cols; i++)
+            {
+                Object value = rs.getObject(i + 1);
+                if (value instanceof Clob)
+                {
+                    Clob clob = (Clob) value;
+                    value = clob.getSubString(1, (int) clob.length());
+                } else if (value instanceof Blob)
+                {
+                    Blob blob = (Blob) value;
+                    value = blob.getBytes(1, (int) blob.length());
+                }
+                row[i] = value;
+                size += sizeOf(value);
+            }
+            rows.add(row);
+        }
+        return new CachedResult(labels, Collections.unmodifiableList(rows), size);
+    }
+
+    /**
+     * Estima el tamaño en bytes de un valor.
+     *
+     * @param value the value
+     * @return the long
+     */
+    private static long sizeOf(Object value)
+    {
+        if (value == null)
+        {
+            return 0;
+        } else if (value instanceof String)
+        {
+            return 40 + ((String) value).length() * 2L;
+        } else if (value instanceof byte[])
+        {
+            return 16 + ((byte[]) value).length;
+        }
+        return 24;
+    }
+
+    /**
+     * Gets the column count.
+     *
+     * @return el número de columnas
+     */
+    public int getColumnCount()
+    {
+        return labels.length;
+    }
+
+    /**
+     * Gets the column label.
+     *
+     * @param column el número de columna, empezando en 1
+     * @return el nombre de la columna
+     */
+    public String getColumnLabel(int column)
+    {
+        return labels[column - 1];
+    }
+
+    /**
+     * Regresa el número de columna con el nombre indicado, sin distinguir mayúsculas.
+     *
+     * @param label el nombre de la columna
+     * @return el número de columna, empezando en 1, o -1 si no existe
+     */
+    public int findColumn(String label)
+    {
+        for (int i = 0; i < labels.length; i++)
+        {
+            if (labels[i] != null && labels[i].equalsIgnoreCase(label))
+            {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the row count.
+     *
+     * @return el número de renglones
+     */
+    public int getRowCount()
+    {
+        return rows.size();
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @param row el número de renglón, empezando en 0
+     * @param column el número de columna, empezando en 1
+     * @return el valor, los arreglos de bytes y las fechas se regresan copiados
+     */
+    public Object getValue(int row, int column)
+    {
+        Object value = rows.get(row)[column - 1];
+        if (value instanceof byte[])
+        {
+            return ((byte[]) value).clone();
+        } else if (value instanceof java.util.Date)
+        {
+            return ((java.util.Date) value).clone();
+        }
+        return value;
+    }
+
+    /**
+     * Gets the value.
+     *
+     * @param row el número de renglón, empezando en 0
+     * @param label el nombre de la columna
+     * @return el valor
+     */
+    public Object getValue(int row, String label)
+    {
+        int column = findColumn(label);
+        if (column < 0)
+        {
+            throw new IllegalArgumentException("Column not found: " + label);
+        }
+        return getValue(row, column);
+    }
+
+    /**
+     * Gets the row.
+     *
+     * @param row el número de renglón, empezando en 0
+     * @return una copia de los valores del renglón
+     */
+    public Object[] getRow(int row)
+    {
+        Object[] ret = new Object[labels.length];
+        for (int i = 0; i < ret.length; i++)
+        {
+            ret[i] = getValue(row, i + 1);
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the size.
+     *
+     * @return el tamaño estimado en bytes
+     */
+    public long getSize()
+    {
+        return size;
+    }
+}
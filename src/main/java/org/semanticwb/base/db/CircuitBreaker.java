@@ -0,0 +1,302 @@
+/*
+ * SemanticWebBuilder es una plataforma para el desarrollo de portales y aplicaciones de integración,
+ * colaboración y conocimiento, que gracias al uso de tecnología semántica puede generar contextos de
+ * información alrededor de algún tema de interés o bien integrar información y aplicaciones de diferentes
+ * fuentes, donde a la información se le asigna un significado, de forma que pueda ser interpretada y
+ * procesada por personas y/o sistemas, es una creación original del Fondo de Información y Documentación
+ * para la Industria INFOTEC, cuyo registro se encuentra actualmente en trámite.
+ *
+ * INFOTEC pone a su disposición la herramienta SemanticWebBuilder a través de su licenciamiento abierto al público (‘open source’),
+ * en virtud del cual, usted podrá usarlo en las mismas condiciones con que INFOTEC lo ha diseñado y puesto a su disposición;
+ * aprender de él; distribuirlo a terceros; acceder a su código fuente y modificarlo, y combinarlo o enlazarlo con otro software,
+ * todo ello de conformidad con los términos y condiciones de la LICENCIA ABIERTA AL PÚBLICO que otorga INFOTEC para la utilización
+ * del SemanticWebBuilder 4.0.
+ *
+ * INFOTEC no otorga garantía sobre SemanticWebBuilder, de ninguna especie y naturaleza, ni implícita ni explícita,
+ * siendo usted completamente responsable de la utilización que le dé y asumiendo la totalidad de los riesgos que puedan derivar
+ * de la misma.
+ *
+ * Si usted tiene cualquier duda o comentario sobre SemanticWebBuilder, INFOTEC pone a su disposición la siguiente
+ * dirección electrónica:
+ *  http://www.semanticwebbuilder.org
+ */
+package org.semanticwb.base.db;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.semanticwb.Logger;
+import org.semanticwb.SWBUtils;
+
+/**
+ * Interruptor de un {@link DBConnectionPool} para cuando la base de datos no está disponible.
+ * Tras un número de fallos seguidos al crear conexiones el interruptor se abre y el pool deja de
+ * intentar conectarse durante un tiempo, las solicitudes que no encuentran una conexión libre
+ * fallan de inmediato en vez de esperar el timeout de conexión. Al terminar ese tiempo una sola
+ * solicitud prueba la conexión: si tiene éxito el interruptor se cierra, en otro caso se vuelve a
+ * abrir.
+ * <p>
+ * Los cambios de estado se registran en la bitácora, en las métricas del pool y se notifican a
+ * los {@link Listener} registrados.
+ */
+public class CircuitBreaker
+{
+
+    /**
+     * Estados del interruptor.
+     */
+    public enum State
+    {
+        /** Las conexiones se crean normalmente. */
+        CLOSED,
+        /** No se intenta crear conexiones hasta que termine el tiempo de espera. */
+        OPEN,
+        /** Una sola solicitud está probando si la base de datos se recuperó. */
+        HALF_OPEN
+    }
+
+    /**
+     * Recibe los cambios de estado del interruptor de un pool.
+     */
+    public interface Listener
+    {
+        /**
+         * Se invoca cada vez que el interruptor cambia de estado.
+         *
+         * @param pool el pool del interruptor
+         * @param state el nuevo estado
+         */
+        void stateChanged(DBConnectionPool pool, State state);
+    }
+
+    /** The log. */
+    private static Logger log = SWBUtils.getLogger(CircuitBreaker.class);
+
+    /** The pool. */
+    private final DBConnectionPool pool;
+
+    /** The state. */
+    private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+
+    /** Los fallos seguidos al crear conexiones. */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /** El valor de System.nanoTime() cuando se abrió el interruptor. */
+    private volatile long openedAt;
+
+    /** Los fallos seguidos tras los cuales se abre el interruptor, 0 para desactivarlo. */
+    private volatile int failureThreshold = 5;
+
+    /** Tiempo en milisegundos que el interruptor permanece abierto antes de probar la conexión. */
+    private volatile long openTime = 10000L;
+
+    /** The listeners. */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    /**
+     * Instantiates a new circuit breaker.
+     *
+     * @param pool the pool
+     */
+    CircuitBreaker(DBConnectionPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * Indica si se puede intentar crear una conexión. Con el interruptor abierto, solo la primera
+     * solicitud tras el tiempo de espera obtiene permiso, y pasa a probar la conexión.
+     *
+     * @return true, si se puede intentar crear la conexión
+     */
+    boolean allowRequest()
+    {
+        State current = state.get();
+        if (current == State.CLOSED)
+        {
+            return true;
+        }
+        if (current == State.OPEN && System.nanoTime() - openedAt >= TimeUnit.MILLISECONDS.toNanos(openTime)
+                && state.compareAndSet(State.OPEN, State.HALF_OPEN))
+        {
+            changed(State.HALF_OPEN);
+            return true;
+        }
+        pool.getMetrics().circuitRejected();
+        return false;
+    }
+
+    /**
+     * Registra que se creó una conexión, lo que cierra el interruptor.
+     */
+    void success()
+    {
+        if (failures.get() != 0)
+        {
+            failures.set(0);
+        }
+        State current = state.get();
+        if (current != State.CLOSED && state.compareAndSet(current, State.CLOSED))
+        {
+            changed(State.CLOSED);
+        }
+    }
+
+    /**
+     * Registra un fallo al crear una conexión. Abre el interruptor si falló la prueba o si se
+     * alcanzó el número de fallos seguidos.
+     */
+    void failure()
+    {
+        State current = state.get();
+        if (current == State.HALF_OPEN)
+        {
+            failures.incrementAndGet();
+            openedAt = System.nanoTime();
+            if (state.compareAndSet(State.HALF_OPEN, State.OPEN))
+            {
+                changed(State.OPEN);
+            }
+        } else if (current == State.CLOSED)
+        {
+            int threshold = failureThreshold;
+            if (threshold > 0 && failures.incrementAndGet() >= threshold)
+            {
+                openedAt = System.nanoTime();
+                if (state.compareAndSet(State.CLOSED, State.OPEN))
+                {
+                    changed(State.OPEN);
+                }
+            }
+        }
+    }
+
+    /**
+     * Registra el cambio de estado en la bitácora y las métricas, y lo notifica a los observadores.
+     *
+     * @param newState el nuevo estado
+     */
+    private void changed(State newState)
+    {
+        if (newState == State.OPEN)
+        {
+            pool.getMetrics().circuitOpened();
+            log.error("Circuit breaker of pool " + pool.getName() + " opened after " + failures.get()
+                    + " consecutive connection failures, failing fast for " + openTime / 1000 + "s");
+        } else
+        {
+            log.event("Circuit breaker of pool " + pool.getName() + " is " + newState);
+        }
+        for (Listener listener : listeners)
+        {
+            try
+            {
+                listener.stateChanged(pool, newState);
+            } catch (Exception e)
+            {
+                log.error("Error notifying circuit breaker state of pool " + pool.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Cierra el interruptor y reinicia el conteo de fallos, sin esperar a que se pruebe la conexión.
+     */
+    public void reset()
+    {
+        failures.set(0);
+        State current = state.getAndSet(State.CLOSED);
+        if (current != State.CLOSED)
+        {
+            changed(State.CLOSED);
+        }
+    }
+
+    /**
+     * Gets the state.
+     *
+     * @return el estado actual del interruptor
+     */
+    public State getState()
+    {
+        return state.get();
+    }
+
+    /**
+     * Indica si el pool está fallando de inmediato, con el interruptor abierto o probando la conexión.
+     *
+     * @return true, si el interruptor no está cerrado
+     */
+    public boolean isOpen()
+    {
+        return state.get() != State.CLOSED;
+    }
+
+    /**
+     * Gets the failure threshold.
+     *
+     * @return los fallos seguidos tras los cuales se abre el interruptor, 0 si está desactivado
+     */
+    public int getFailureThreshold()
+    {
+        return failureThreshold;
+    }
+
+    /**
+     * Sets the failure threshold.
+     *
+     * @param failureThreshold los fallos seguidos tras los cuales se abre el interruptor, 0 para
+     * desactivarlo
+     */
+    public void setFailureThreshold(int failureThreshold)
+    {
+        this.failureThreshold = failureThreshold;
+        if (failureThreshold <= 0)
+        {
+            reset();
+        }
+    }
+
+    /**
+     * Gets the open time.
+     *
+     * @return el tiempo en segundos que el interruptor permanece abierto
+     */
+    public long getOpenTime()
+    {
+        return openTime / 1000;
+    }
+
+    /**
+     * Sets the open time.
+     *
+     * @param openTime el tiempo en segundos que el interruptor permanece abierto antes de probar
+     * la conexión
+     */
+    public void setOpenTime(long openTime)
+    {
+        this.openTime = openTime * 1000;
+    }
+
+    /**
+     * Registra un receptor de los cambios de estado.
+     *
+     * @param listener el receptor
+     */
+    public void addListener(Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Retira un receptor de los cambios de estado.
+     *
+     * @param listener el receptor
+     */
+    public void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+}
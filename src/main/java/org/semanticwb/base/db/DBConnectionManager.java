@@ -23,12 +23,24 @@
 package org.semanticwb.base.db;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.sql.*;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Locale;
 import java.util.Properties;
 import java.util.StringTokenizer;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 import javax.naming.InitialContext;
 import javax.naming.Context;
@@ -40,6 +52,10 @@ import org.semanticwb.SWBUtils;
 /**
  * Esta clase proporciona acceso a uno o más connection pools
  * definidos en el archivo de propiedades db.properties. 
+ * <p>
+ * Los pools pueden agregarse, reconfigurarse y retirarse en tiempo de ejecución con
+ * {@link #addPool(String, Properties)}, {@link #reconfigurePool(String, Properties)} y
+ * {@link #removePool(String)}; las conexiones afectadas se cierran al regresar al pool.
  *
  * @author  Javier Solis Gonzalez (jsolis@infotec.com.mx)
  */
@@ -49,10 +65,17 @@ public class DBConnectionManager {
     private static Logger log = SWBUtils.getLogger(DBConnectionManager.class);
     
     /** The drivers. */
-    private Vector drivers = new Vector();
+    private final List<Driver> drivers = new CopyOnWriteArrayList<Driver>();
     
-    /** The pools. */
-    private Hashtable pools = new Hashtable();
+    /**
+     * Los pools y DataSources JNDI por nombre, se consultan sin bloqueo en cada solicitud de
+     * conexión. Cada pool tiene sus propios contadores y cola de espera, por lo que las
+     * solicitudes a un pool no compiten con las de otro.
+     */
+    private final ConcurrentHashMap<String, Object> pools = new ConcurrentHashMap<String, Object>();
+
+    /** La descripción de la base de datos de los DataSources JNDI. */
+    private final ConcurrentHashMap<String, DatabaseDescriptor> descriptors = new ConcurrentHashMap<String, DatabaseDescriptor>();
     
     /** The is jndi. */
     private boolean isJNDI;
@@ -63,8 +86,19 @@ public class DBConnectionManager {
     /** The init ctx. */
     private Context initCtx;
     
+    /** Ejecuta las tareas periódicas de mantenimiento de los pools. */
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "DBConnectionManager-housekeeper");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     /** The time lock. */
-    private PoolConnectionTimeLock timeLock = new PoolConnectionTimeLock();
+    private PoolConnectionTimeLock timeLock = new PoolConnectionTimeLock(scheduler);
 
     /**
      * Instantiates a new dB connection manager.
@@ -90,7 +124,7 @@ public class DBConnectionManager {
             while (allPools.hasMoreElements())
             {
                 DBConnectionPool pool = (DBConnectionPool) allPools.nextElement();
-                cl += pool.freeConnections.size();
+                cl += pool.getIdleConnections();
             }
         }
         return cl;
@@ -111,12 +145,51 @@ public class DBConnectionManager {
             DBConnectionPool pool = (DBConnectionPool) pools.get(name);
             if (pool != null)
             {
-                cl = pool.checkedOut;
+                cl = pool.getTotalConnections();
             }
         }
         return cl;
     }
 
+    /**
+     * Gets the active connections.
+     * 
+     * @param name the name
+     * @return el número de conexiones del pool asignadas a algún cliente
+     */
+    public int getActiveConnections(String name)
+    {
+        int cl = 0;
+        if (!isJNDI)
+        {
+            DBConnectionPool pool = (DBConnectionPool) pools.get(name);
+            if (pool != null)
+            {
+                cl = pool.getActiveConnections();
+            }
+        }
+        return cl;
+    }
+
+    /**
+     * Regresa una copia de las métricas del pool.
+     *
+     * @param name el nombre del pool
+     * @return las métricas del pool, o nulo si no existe o se utiliza JNDI
+     */
+    public PoolMetrics.Snapshot getPoolMetrics(String name)
+    {
+        if (!isJNDI)
+        {
+            DBConnectionPool pool = (DBConnectionPool) pools.get(name);
+            if (pool != null)
+            {
+                return pool.getMetrics().snapshot();
+            }
+        }
+        return null;
+    }
+
     /**
      * Gets the free connections.
      * 
@@ -132,7 +205,7 @@ public class DBConnectionManager {
             DBConnectionPool pool = (DBConnectionPool) pools.get(name);
             if (pool != null)
             {
-                cl = pool.freeConnections.size();
+                cl = pool.getIdleConnections();
             }
         }
         return cl;
@@ -202,6 +275,78 @@ public class DBConnectionManager {
         return ret;
     }
 
+    /**
+     * Regresa la descripción de la base de datos del pool especificado. Se obtiene una sola vez
+     * por pool y después no requiere una conexión.
+     *
+     * @param name el nombre del pool
+     * @return la descripción, o nulo si el pool no existe o no se pudo obtener una conexión
+     */
+    public DatabaseDescriptor getDatabaseDescriptor(String name)
+    {
+        Object pool = pools.get(name);
+        if (pool instanceof DBConnectionPool)
+        {
+            return ((DBConnectionPool) pool).getDatabaseDescriptor();
+        }
+        DatabaseDescriptor ret = descriptors.get(name);
+        if (ret == null)
+        {
+            Connection con = getConnection(name);
+            if (con != null)
+            {
+                try
+                {
+                    ret = new DatabaseDescriptor(con.getMetaData());
+                    descriptors.put(name, ret);
+                } catch (SQLException e)
+                {
+                    log.error("Can't read database metadata of pool " + name, e);
+                } finally
+                {
+                    try
+                    {
+                        con.close();
+                    } catch (SQLException e)
+                    {
+                        log.error("Can't close connection of pool " + name, e);
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Regresa un DataSource que entrega conexiones del pool especificado, o el DataSource JNDI
+     * si se utiliza un pool JNDI.
+     *
+     * @param name el nombre del pool
+     * @return el DataSource o nulo si el pool no existe
+     */
+    public DataSource getDataSource(String name)
+    {
+        if (!isJNDI)
+        {
+            DBConnectionPool pool = (DBConnectionPool) pools.get(name);
+            return pool != null ? pool.getDataSource() : null;
+        }
+        DataSource ds = (DataSource) pools.get(name);
+        if (ds == null)
+        {
+            try
+            {
+                ds = (DataSource) initCtx.lookup(JNDIPatern + name);
+                pools.put(name, ds);
+                log.info("Initialized JNDI Connection Pool " + name);
+            } catch (Exception ex)
+            {
+                log.error("Error to get DataSource of Context...", ex);
+            }
+        }
+        return ds;
+    }
+
     /**
      * Regresa una conexi�n abierta. Si ninguna otra conexi�n est� disponible y el n�mero m�ximo
      * de conexiones no se ha alcanzado, una nueva conexi�n es creada.
@@ -285,6 +430,48 @@ public class DBConnectionManager {
         return ret;
     }
 
+    /**
+     * Regresa una conexión para lecturas. Si el pool tiene réplicas la conexión se obtiene de la
+     * réplica con menos conexiones en uso, en otro caso del propio pool.
+     *
+     * @param name el nombre del pool
+     * @return  Connection  La conexión o nulo.
+     */
+    public Connection getReadConnection(String name)
+    {
+        if (!isJNDI)
+        {
+            Object pool = pools.get(name);
+            if (pool instanceof DBRoutingPool)
+            {
+                return ((DBRoutingPool) pool).getReadConnection();
+            }
+        }
+        return getConnection(name);
+    }
+
+    /**
+     * Regresa una conexión para lecturas, esperando el tiempo especificado si no hay conexiones
+     * disponibles. Si el pool tiene réplicas la conexión se obtiene de la réplica con menos
+     * conexiones en uso, en otro caso del propio pool.
+     *
+     * @param name el nombre del pool
+     * @param time el tiempo de espera en milisegundos
+     * @return  Connection  La conexión o nulo.
+     */
+    public Connection getReadConnection(String name, long time)
+    {
+        if (!isJNDI)
+        {
+            Object pool = pools.get(name);
+            if (pool instanceof DBRoutingPool)
+            {
+                return ((DBRoutingPool) pool).getReadConnection(time);
+            }
+        }
+        return getConnection(name, time);
+    }
+
     /**
      * Regresa una conexi�n abierta. Si ninguna otra conexi�n est� disponible y el n�mero m�ximo
      * de conexiones no se ha alcanzado, una nueva conexi�n es creada. Si el n�mero m�ximo ha sido
@@ -350,6 +537,29 @@ public class DBConnectionManager {
         }
     }
 
+    /**
+     * Detiene el administrador de forma definitiva. Cierra y elimina todos los pools, detiene la
+     * revisión de conexiones prestadas y el planificador de tareas de mantenimiento. Después
+     * de llamarlo el administrador ya no entrega conexiones ni acepta nuevos pools; las conexiones
+     * en uso se cierran al regresar a su pool.
+     */
+    public void shutdown()
+    {
+        if (!isJNDI)
+        {
+            Iterator<Object> it = pools.values().iterator();
+            while (it.hasNext())
+            {
+                DBConnectionPool pool = (DBConnectionPool) it.next();
+                it.remove();
+                unregisterMBean(pool);
+                pool.close();
+            }
+        }
+        timeLock.stop();
+        scheduler.shutdown();
+    }
+
     /**
      * Crea instancias del DBConnectionPool bas�ndose en el archivo de propiedades.
      * Un DBConnectionPool puede ser definido con las siguientes propiedades:
@@ -358,6 +568,35 @@ public class DBConnectionManager {
      * &lt;poolname&gt;.user        Un usuario de la base de datos (opcional)
      * &lt;poolname&gt;.password    El password del usuario de la base de datos. (Si el usuario se especifica)
      * &lt;poolname&gt;.maxconn     El n�mero m�ximo de conexiones (opcional)
+     * &lt;poolname&gt;.idle_time   Segundos que una conexión puede estar libre antes de cerrarse (opcional)
+     * &lt;poolname&gt;.housekeeping_time     Segundos entre cada revisión de las conexiones libres (opcional)
+     * &lt;poolname&gt;.validation_idle_time  Segundos libre tras los cuales se valida una conexión al asignarla,
+     *                                   por omisión el valor de housekeeping_time (opcional)
+     * &lt;poolname&gt;.validation_timeout    Segundos para validar con isValid, 0 solo crea un Statement (opcional)
+     * &lt;poolname&gt;.test_query  Consulta para validar las conexiones (opcional)
+     * &lt;poolname&gt;.max_lifetime  Segundos de vida máximos de una conexión (opcional)
+     * &lt;poolname&gt;.min_idle    El número mínimo de conexiones libres, se reponen en segundo plano (opcional)
+     * &lt;poolname&gt;.initial_connections  El número de conexiones que se abren al iniciar (opcional)
+     * &lt;poolname&gt;.statement_cache_size  PreparedStatements en cache por conexión, 0 sin cache (opcional)
+     * &lt;poolname&gt;.trace_parameters  true para mostrar los parámetros de las consultas que fallan (opcional)
+     * &lt;poolname&gt;.stream_fetch_size  Renglones por viaje en las consultas por flujo, por omisión 500 (opcional)
+     * &lt;poolname&gt;.reconnect_delay  Milisegundos de espera tras el primer intento fallido de reconexión de una AutoConnection, por omisión 100 (opcional)
+     * &lt;poolname&gt;.max_reconnect_delay  Milisegundos máximos de espera entre intentos de reconexión, por omisión 30000 (opcional)
+     * &lt;poolname&gt;.slow_query_time  Milisegundos a partir de los cuales una sentencia se reporta como lenta (opcional)
+     * &lt;poolname&gt;.query_stats_size  Sentencias distintas con estadísticas de ejecución, por omisión 500, 0 sin estadísticas (opcional)
+     * &lt;poolname&gt;.query_cache_size  Resultados en el cache de consultas, 0 sin cache (opcional)
+     * &lt;poolname&gt;.query_cache_ttl   Segundos de vida de un resultado en el cache, por omisión 60 (opcional)
+     * &lt;poolname&gt;.query_cache_max_rows  Renglones máximos de un resultado en el cache, por omisión 1000 (opcional)
+     * &lt;poolname&gt;.query_cache_max_memory  Kilobytes estimados máximos de los resultados en el cache, 0 sin límite (opcional)
+     * &lt;poolname&gt;.leak_detection  off, sampled o threshold, por omisión threshold (opcional)
+     * &lt;poolname&gt;.leak_sample_rate  En modo sampled, cada cuantas conexiones se captura el stack (opcional)
+     * &lt;poolname&gt;.leak_threshold  Segundos que se puede retener una conexión antes de reportarla (opcional)
+     * &lt;poolname&gt;.max_lease   Segundos tras los cuales una conexión retenida se cierra, 0 nunca (opcional)
+     * &lt;poolname&gt;.replicas    Pools separados por comas que reciben las lecturas de getReadConnection (opcional)
+     * &lt;poolname&gt;.replica_max_failures  Fallos seguidos tras los cuales se excluye una réplica (opcional)
+     * &lt;poolname&gt;.replica_eject_time    Segundos que una réplica permanece excluida (opcional)
+     * &lt;poolname&gt;.circuit_failure_threshold  Fallos seguidos al conectar tras los cuales el pool falla de inmediato, por omisión 5, 0 para desactivarlo (opcional)
+     * &lt;poolname&gt;.circuit_open_time  Segundos que el pool falla de inmediato antes de probar la conexión, por omisión 10 (opcional)
      * </PRE>
      * 
      * @param props the props
@@ -371,48 +610,378 @@ public class DBConnectionManager {
             if (name.endsWith(".url"))
             {
                 String poolName = name.substring(0, name.lastIndexOf("."));
-                String url = props.getProperty(poolName + ".url");
-                if (url == null)
-                {
-                    log.error("No URL specified for " + poolName);
-                    continue;
-                }
-                String user = props.getProperty(poolName + ".user");
-                String password = props.getProperty(poolName + ".password");
-                String maxconn = props.getProperty(poolName + ".maxconn", "0");
-                String sidle_time = props.getProperty(poolName + ".idle_time", "0");
-                if (user != null)
-                {
-                    user = user.trim();
-                }
-                if (password != null)
+                DBConnectionPool pool = createPool(props, poolName);
+                if (pool != null)
                 {
-                    password = password.trim();
+                    registerPool(pool);
                 }
-                int max;
-                try
-                {
-                    max = Integer.parseInt(maxconn.trim());
-                } catch (NumberFormatException e)
+            }
+        }
+        // Las réplicas se asignan al final porque pueden definirse despues del pool que las usa
+        for (Object pool : pools.values())
+        {
+            if (pool instanceof DBRoutingPool)
+            {
+                setReplicas((DBRoutingPool) pool, props);
+            }
+        }
+    }
+
+    /**
+     * Crea y configura un pool a partir de sus propiedades, sin registrarlo.
+     *
+     * @param props las propiedades, con el formato de db.properties
+     * @param poolName el nombre del pool
+     * @return el pool o nulo si no se definió su URL
+     */
+    private DBConnectionPool createPool(Properties props, String poolName)
+    {
+        String url = props.getProperty(poolName + ".url");
+        if (url == null)
+        {
+            log.error("No URL specified for " + poolName);
+            return null;
+        }
+        String user = getTrimmedProperty(props, poolName, "user");
+        String password = getTrimmedProperty(props, poolName, "password");
+        int max = (int) getLongProperty(props, poolName, "maxconn", 0);
+        long idle_time = getLongProperty(props, poolName, "idle_time", 0);
+        DBConnectionPool pool;
+        if (props.getProperty(poolName + ".replicas") != null)
+        {
+            pool = new DBRoutingPool(this, poolName, url, user, password, max, idle_time);
+        } else
+        {
+            pool = new DBConnectionPool(this, poolName, url, user, password, max, idle_time);
+        }
+        configurePool(pool, props, poolName);
+        return pool;
+    }
+
+    /**
+     * Asigna al pool los valores de sus propiedades opcionales.
+     *
+     * @param pool el pool
+     * @param props las propiedades, con el formato de db.properties
+     * @param poolName el nombre del pool
+     */
+    private void configurePool(DBConnectionPool pool, Properties props, String poolName)
+    {
+        if (pool instanceof DBRoutingPool)
+        {
+            DBRoutingPool routing = (DBRoutingPool) pool;
+            routing.setMaxReplicaFailures((int) getLongProperty(props, poolName, "replica_max_failures", 3));
+            routing.setReplicaEjectTime(getLongProperty(props, poolName, "replica_eject_time", 30));
+        }
+        long housekeeping = getLongProperty(props, poolName, "housekeeping_time", 0);
+        pool.setHousekeepingTime(housekeeping);
+        pool.setValidationIdleTime(getLongProperty(props, poolName, "validation_idle_time", housekeeping));
+        pool.setValidationTimeout((int) getLongProperty(props, poolName, "validation_timeout", 0));
+        pool.setTestQuery(props.getProperty(poolName + ".test_query"));
+        pool.setMaxLifetime(getLongProperty(props, poolName, "max_lifetime", 0));
+        pool.setMinIdle((int) getLongProperty(props, poolName, "min_idle", 0));
+        pool.setInitialConnections((int) getLongProperty(props, poolName, "initial_connections", 0));
+        pool.setStatementCacheSize((int) getLongProperty(props, poolName, "statement_cache_size", 0));
+        pool.setTraceParameters(Boolean.parseBoolean(props.getProperty(poolName + ".trace_parameters", "false").trim()));
+        pool.setStreamFetchSize((int) getLongProperty(props, poolName, "stream_fetch_size", 500));
+        pool.setReconnectDelay(getLongProperty(props, poolName, "reconnect_delay", 100));
+        pool.setMaxReconnectDelay(getLongProperty(props, poolName, "max_reconnect_delay", 30000));
+        pool.setSlowQueryTime(getLongProperty(props, poolName, "slow_query_time", 0));
+        pool.getQueryStats().setMaxSize((int) getLongProperty(props, poolName, "query_stats_size", 500));
+        int queryCacheSize = (int) getLongProperty(props, poolName, "query_cache_size", 0);
+        if (queryCacheSize > 0)
+        {
+            QueryCache queryCache = new QueryCache(pool, queryCacheSize, getLongProperty(props, poolName, "query_cache_ttl", 60));
+            queryCache.setMaxRows((int) getLongProperty(props, poolName, "query_cache_max_rows", 1000));
+            queryCache.setMaxMemory(getLongProperty(props, poolName, "query_cache_max_memory", 0) * 1024);
+            pool.setQueryCache(queryCache);
+        } else
+        {
+            pool.setQueryCache(null);
+        }
+        String leak = props.getProperty(poolName + ".leak_detection", "threshold").trim();
+        try
+        {
+            pool.setLeakDetection(DBConnectionPool.LeakDetection.valueOf(leak.toUpperCase(Locale.ENGLISH)));
+        } catch (IllegalArgumentException e)
+        {
+            log.warn("Invalid leak_detection value " + leak + " for " + poolName);
+        }
+        pool.setLeakSampleRate((int) getLongProperty(props, poolName, "leak_sample_rate", 100));
+        pool.setLeakThreshold(getLongProperty(props, poolName, "leak_threshold", 300));
+        pool.setMaxLease(getLongProperty(props, poolName, "max_lease", 0));
+        pool.getCircuitBreaker().setFailureThreshold((int) getLongProperty(props, poolName, "circuit_failure_threshold", 5));
+        pool.getCircuitBreaker().setOpenTime(getLongProperty(props, poolName, "circuit_open_time", 10));
+    }
+
+    /**
+     * Registra el pool para que reciba solicitudes de conexión, publica sus métricas e inicia
+     * su revisión periódica.
+     *
+     * @param pool el pool
+     * @return true, si se registró; false si ya existía un pool con el mismo nombre
+     */
+    private boolean registerPool(DBConnectionPool pool)
+    {
+        if (pools.putIfAbsent(pool.getName(), pool) != null)
+        {
+            log.error("Connection Pool [" + pool.getName() + "] already exists");
+            return false;
+        }
+        registerMBean(pool);
+        pool.startHousekeeper();
+        log.info("Initialized Connection Pool [" + pool.getName() + "]");
+        return true;
+    }
+
+    /**
+     * Asigna a un pool con separación de lecturas las réplicas de su propiedad replicas, y
+     * retira las que ya no están en la lista.
+     *
+     * @param routing el pool con separación de lecturas
+     * @param props las propiedades, con el formato de db.properties
+     */
+    private void setReplicas(DBRoutingPool routing, Properties props)
+    {
+        String value = props.getProperty(routing.getName() + ".replicas");
+        if (value == null)
+        {
+            return;
+        }
+        List<DBConnectionPool> current = routing.getReplicas();
+        List<DBConnectionPool> replicas = new ArrayList<DBConnectionPool>();
+        StringTokenizer st = new StringTokenizer(value, ", ");
+        while (st.hasMoreTokens())
+        {
+            String replicaName = st.nextToken();
+            Object replica = pools.get(replicaName);
+            if (!(replica instanceof DBConnectionPool))
+            {
+                log.error("Replica pool " + replicaName + " of " + routing.getName() + " not found");
+            } else
+            {
+                replicas.add((DBConnectionPool) replica);
+                if (!current.contains(replica))
                 {
-                    log.warn("Invalid maxconn value " + maxconn + " for " + poolName);
-                    max = 0;
+                    routing.addReplica((DBConnectionPool) replica);
                 }
-                long idle_time = 0;
-                try
-                {
-                    idle_time = Long.parseLong(sidle_time.trim());
-                } catch (NumberFormatException e)
+            }
+        }
+        for (DBConnectionPool replica : current)
+        {
+            if (!replicas.contains(replica))
+            {
+                routing.removeReplica(replica);
+            }
+        }
+    }
+
+    /**
+     * Agrega un pool sin reiniciar la aplicación. Las propiedades tienen el mismo formato que
+     * db.properties, con el nombre del pool como prefijo. Las conexiones iniciales se abren en
+     * segundo plano.
+     *
+     * @param name el nombre del pool
+     * @param props las propiedades del pool
+     * @return el pool o nulo si ya existe un pool con el mismo nombre o no se definió su URL
+     */
+    public DBConnectionPool addPool(String name, Properties props)
+    {
+        if (isJNDI)
+        {
+            log.error("Can't add pool " + name + ", connections are provided by JNDI");
+            return null;
+        }
+        if (pools.containsKey(name))
+        {
+            log.error("Connection Pool [" + name + "] already exists");
+            return null;
+        }
+        final DBConnectionPool pool = createPool(props, name);
+        if (pool == null || !registerPool(pool))
+        {
+            return null;
+        }
+        if (pool instanceof DBRoutingPool)
+        {
+            setReplicas((DBRoutingPool) pool, props);
+        }
+        if (pool.getWarmUpConnections() > 0)
+        {
+            scheduler.execute(new Runnable()
+            {
+                public void run()
                 {
-                    log.warn("Invalid idle_time value " + sidle_time + " for " + poolName);
-                    idle_time = 0;
+                    int count = pool.getWarmUpConnections();
+                    for (int i = 0; i < count && pool.addIdleConnection(); i++)
+                    {
+                    }
                 }
-                DBConnectionPool pool =
-                        new DBConnectionPool(this, poolName, url, user, password, max, idle_time);
-                pools.put(poolName, pool);
-                log.info("Initialized Connection Pool [" + poolName + "]");
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * Cambia la configuración de un pool sin detenerlo. Si cambia el URL, el usuario o el password,
+     * las conexiones abiertas con la configuración anterior se cierran al quedar libres; si se
+     * reduce maxconn, las conexiones que excedan el nuevo máximo se cierran al quedar libres. Los
+     * hilos que usan el pool no se interrumpen.
+     *
+     * @param name el nombre del pool
+     * @param props las propiedades del pool, con el formato de db.properties
+     * @return true, si el pool existe y se reconfiguró
+     */
+    public boolean reconfigurePool(String name, Properties props)
+    {
+        Object obj = pools.get(name);
+        if (!(obj instanceof DBConnectionPool))
+        {
+            log.error("Connection Pool [" + name + "] not found");
+            return false;
+        }
+        String url = props.getProperty(name + ".url");
+        if (url == null)
+        {
+            log.error("No URL specified for " + name);
+            return false;
+        }
+        DBConnectionPool pool = (DBConnectionPool) obj;
+        configurePool(pool, props, name);
+        pool.reconfigure(url, getTrimmedProperty(props, name, "user"), getTrimmedProperty(props, name, "password"),
+                (int) getLongProperty(props, name, "maxconn", 0), getLongProperty(props, name, "idle_time", 0));
+        pool.startHousekeeper();
+        if (pool instanceof DBRoutingPool)
+        {
+            setReplicas((DBRoutingPool) pool, props);
+        }
+        log.info("Reconfigured Connection Pool [" + name + "]");
+        return true;
+    }
+
+    /**
+     * Retira un pool sin reiniciar la aplicación. Deja de entregar conexiones, cierra las
+     * conexiones libres y las que están en uso se cierran al regresar. También se retira de los
+     * pools que lo usan como réplica.
+     *
+     * @param name el nombre del pool
+     * @return true, si el pool existía
+     */
+    public boolean removePool(String name)
+    {
+        Object obj = pools.get(name);
+        if (!(obj instanceof DBConnectionPool) || !pools.remove(name, obj))
+        {
+            return false;
+        }
+        DBConnectionPool pool = (DBConnectionPool) obj;
+        for (Object other : pools.values())
+        {
+            if (other instanceof DBRoutingPool)
+            {
+                ((DBRoutingPool) other).removeReplica(pool);
             }
         }
+        unregisterMBean(pool);
+        pool.close();
+        log.info("Removed Connection Pool [" + name + "], " + pool.getActiveConnections() + " connections in use will be closed when returned");
+        return true;
+    }
+
+    /**
+     * Regresa el nombre JMX de las métricas del pool.
+     *
+     * @param pool the pool
+     * @return the object name
+     * @throws Exception si el nombre es inválido
+     */
+    private ObjectName getObjectName(DBConnectionPool pool) throws Exception
+    {
+        return new ObjectName("org.semanticwb.base.db:type=DBConnectionPool,name=" + ObjectName.quote(pool.getName()));
+    }
+
+    /**
+     * Publica las métricas del pool en el servidor JMX de la plataforma. Si ya existe un registro
+     * con el mismo nombre, por ejemplo de una instancia anterior de la aplicación, se reemplaza.
+     *
+     * @param pool the pool
+     */
+    void registerMBean(DBConnectionPool pool)
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName oname = getObjectName(pool);
+            if (server.isRegistered(oname))
+            {
+                server.unregisterMBean(oname);
+            }
+            server.registerMBean(pool.getMetrics(), oname);
+        } catch (Exception e)
+        {
+            log.warn("Can't register JMX metrics of pool " + pool.getName(), e);
+        }
+    }
+
+    /**
+     * Retira las métricas del pool del servidor JMX de la plataforma.
+     *
+     * @param pool the pool
+     */
+    void unregisterMBean(DBConnectionPool pool)
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName oname = getObjectName(pool);
+            if (server.isRegistered(oname))
+            {
+                server.unregisterMBean(oname);
+            }
+        } catch (Exception e)
+        {
+            log.warn("Can't unregister JMX metrics of pool " + pool.getName(), e);
+        }
+    }
+
+    /**
+     * Lee una propiedad numérica de un pool.
+     *
+     * @param props the props
+     * @param poolName el nombre del pool
+     * @param key el nombre de la propiedad sin el prefijo del pool
+     * @param def el valor por omisión
+     * @return el valor de la propiedad o el valor por omisión si no existe o es inválida
+     */
+    private long getLongProperty(Properties props, String poolName, String key, long def)
+    {
+        String value = props.getProperty(poolName + "." + key);
+        if (value == null)
+        {
+            return def;
+        }
+        try
+        {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e)
+        {
+            log.warn("Invalid " + key + " value " + value + " for " + poolName);
+            return def;
+        }
+    }
+
+    /**
+     * Lee una propiedad de texto de un pool sin espacios al inicio y al final.
+     *
+     * @param props the props
+     * @param poolName el nombre del pool
+     * @param key el nombre de la propiedad sin el prefijo del pool
+     * @return el valor de la propiedad o nulo si no existe
+     */
+    private String getTrimmedProperty(Properties props, String poolName, String key)
+    {
+        String value = props.getProperty(poolName + "." + key);
+        return value != null ? value.trim() : null;
     }
 
     /**
@@ -456,6 +1025,81 @@ public class DBConnectionManager {
         {
             loadDrivers(dbProps);
             createPools(dbProps);
+            long timeout = 30;
+            try
+            {
+                timeout = Long.parseLong(dbProps.getProperty("warmup_timeout", "30").trim());
+            } catch (NumberFormatException e)
+            {
+                log.warn("Invalid warmup_timeout value " + dbProps.getProperty("warmup_timeout"));
+            }
+            warmUpPools(timeout);
+        }
+    }
+
+    /**
+     * Abre en paralelo las conexiones iniciales de todos los pools, para que las primeras
+     * solicitudes no esperen a que se establezcan. Espera a que terminen a lo más el tiempo
+     * indicado, las conexiones pendientes se siguen abriendo en segundo plano.
+     *
+     * @param timeout el tiempo máximo de espera en segundos
+     */
+    private void warmUpPools(long timeout)
+    {
+        int tasks = 0;
+        Enumeration allPools = pools.elements();
+        while (allPools.hasMoreElements())
+        {
+            tasks += ((DBConnectionPool) allPools.nextElement()).getWarmUpConnections();
+        }
+        if (tasks == 0)
+        {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks, 8), new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "DBConnectionManager-warmup");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        allPools = pools.elements();
+        while (allPools.hasMoreElements())
+        {
+            final DBConnectionPool pool = (DBConnectionPool) allPools.nextElement();
+            int count = pool.getWarmUpConnections();
+            for (int i = 0; i < count; i++)
+            {
+                executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        pool.addIdleConnection();
+                    }
+                });
+            }
+        }
+        executor.shutdown();
+        try
+        {
+            if (!executor.awaitTermination(timeout, TimeUnit.SECONDS))
+            {
+                log.warn("Connection pools warm up did not finish in " + timeout + "s");
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        allPools = pools.elements();
+        while (allPools.hasMoreElements())
+        {
+            DBConnectionPool pool = (DBConnectionPool) allPools.nextElement();
+            if (pool.getIdleConnections() > 0)
+            {
+                log.info("Connection Pool [" + pool.getName() + "] warmed up with " + pool.getIdleConnections() + " connections");
+            }
         }
     }
 
@@ -476,7 +1120,7 @@ public class DBConnectionManager {
             {
                 Driver driver = (Driver) Class.forName(driverClassName).newInstance();
                 DriverManager.registerDriver(driver);
-                drivers.addElement(driver);
+                drivers.add(driver);
                 log.info("Registered JDBC driver " + driverClassName);
             } catch (Exception e)
             {
@@ -485,6 +1129,16 @@ public class DBConnectionManager {
         }
     }
 
+    /**
+     * Gets the scheduler.
+     *
+     * @return el ejecutor de las tareas periódicas de mantenimiento de los pools
+     */
+    ScheduledExecutorService getScheduler()
+    {
+        return scheduler;
+    }
+
     /** Getter for property timeLock.
      * @return Value of property timeLock.
      *
@@ -494,7 +1148,25 @@ public class DBConnectionManager {
         return timeLock;
     }
 
+    /**
+     * Regresa el pool con el nombre indicado, sin copiar el registro de pools.
+     *
+     * @param name el nombre del pool
+     * @return el pool o nulo si no existe o las conexiones se obtienen por JNDI
+     */
+    public DBConnectionPool getPool(String name)
+    {
+        Object obj = pools.get(name);
+        if (obj instanceof DBConnectionPool)
+        {
+            return (DBConnectionPool) obj;
+        }
+        return null;
+    }
+
     /** Getter for property pools.
+     * Regresa una copia de los pools registrados; para buscar un pool por nombre use
+     * {@link #getPool(String)}.
      * @return Value of property pools.
      *
      */
@@ -23,7 +23,19 @@
 package org.semanticwb.base.db;
 
 import java.sql.*;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.semanticwb.Logger;
 import org.semanticwb.SWBUtils;
 import org.semanticwb.base.util.SFBase64;
@@ -33,36 +45,74 @@ import org.semanticwb.base.util.SFBase64;
  * Esta clase interna representa un connection pool. Crea nuevas conexiones con base en la demanda,
  * hasta un numero máximo si esta especificado. Tambien se cerciora de que una conexión todavia
  * esté abierta antes de que se regrese a un cliente.
+ * <p>
+ * La asignación y devolución de conexiones no utiliza monitores (synchronized): los contadores son
+ * atómicos y los hilos en espera se suspenden con {@link LockSupport} en una cola FIFO, por lo que
+ * el pool puede ser compartido por miles de hilos virtuales sin fijarlos a su hilo portador.
  * @author  Javier Solis Gonzalez (jsolis@infotec.com.mx) 
  */
 public class DBConnectionPool {
 
+    /**
+     * Modos de detección de conexiones no liberadas.
+     */
+    public enum LeakDetection
+    {
+        /** No se registra el stack ni se reportan las conexiones retenidas. */
+        OFF,
+        /** Se captura el stack al asignar una de cada leak_sample_rate conexiones. */
+        SAMPLED,
+        /** Se captura el stack del hilo solo cuando retiene la conexión más del tiempo límite. */
+        THRESHOLD
+    }
+
     /** The log. */
     private static Logger log = SWBUtils.getLogger(DBConnectionPool.class);
     
-    /** The checked out. */
-    protected int checkedOut;
+    /** El número de conexiones físicas abiertas por el pool. */
+    private final AtomicInteger totalConnections = new AtomicInteger();
+
+    /** El número de conexiones asignadas a algún cliente. */
+    private final AtomicInteger activeConnections = new AtomicInteger();
+
+    /** El número de conexiones en la lista de conexiones libres. */
+    private final AtomicInteger idleConnections = new AtomicInteger();
     
     /** The free connections. */
     protected ConcurrentLinkedQueue freeConnections = new ConcurrentLinkedQueue();
+
+    /** Los hilos que esperan una conexión, en orden de llegada. */
+    private final ConcurrentLinkedQueue<ConnectionWaiter> waiters = new ConcurrentLinkedQueue<ConnectionWaiter>();
+
+    /** El número de hilos esperando una conexión. */
+    private final AtomicInteger waiting = new AtomicInteger();
     
     /** The max conn. */
-    private int maxConn;
+    private volatile int maxConn;
     
     /** The name. */
     private String name;
     
     /** The password. */
-    private String password = "";
+    private volatile String password = "";
     
     /** The URL. */
-    private String URL;
+    private volatile String URL;
     
     /** The user. */
-    private String user;
+    private volatile String user;
     
     /** The idle_time. */
-    private long idle_time = 0;
+    private volatile long idle_time = 0;
+
+    /**
+     * La generación de la configuración de conexión (URL, usuario y password). Las conexiones de
+     * una generación anterior se cierran al regresar al pool en vez de reutilizarse.
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /** Si el pool fue retirado del DBConnectionManager y ya no entrega conexiones. */
+    private volatile boolean closed = false;
     
     /** The manager. */
     private DBConnectionManager manager;
@@ -75,6 +125,84 @@ public class DBConnectionPool {
 
     private static final String KEY="akdhfyehe38";
 
+    /** Intervalo en milisegundos entre cada revisión de las conexiones libres, 0 para no revisarlas. */
+    private long housekeepingTime = 0;
+
+    /** Tiempo en milisegundos que una conexión debe estar libre para validarla al asignarla. */
+    private long validationIdleTime = 0;
+
+    /** Tiempo máximo en segundos para validar una conexión con isValid, 0 para solo crear un Statement. */
+    private int validationTimeout = 0;
+
+    /** Consulta SQL para validar las conexiones. */
+    private String testQuery = null;
+
+    /** Tiempo de vida máximo en milisegundos de una conexión física, 0 para no limitarlo. */
+    private long maxLifetime = 0;
+
+    /** Número mínimo de conexiones libres que se mantienen abiertas. */
+    private int minIdle = 0;
+
+    /** Número de conexiones que se abren al iniciar el pool. */
+    private int initialConnections = 0;
+
+    /** Indica si hay una tarea abriendo conexiones para alcanzar el mínimo de conexiones libres. */
+    private final AtomicBoolean replenishing = new AtomicBoolean(false);
+
+    /** El número máximo de PreparedStatements en el cache de cada conexión, 0 para no usar cache. */
+    private int statementCacheSize = 0;
+
+    /** Indica si los PreparedStatements registran sus parámetros para mostrarlos en la bitácora. */
+    private volatile boolean traceParameters = false;
+
+    /** Número de renglones que se leen en cada viaje a la base de datos en las consultas por flujo. */
+    private int streamFetchSize = 500;
+
+    /** El cache de resultados de consultas, nulo si no se utiliza. */
+    private volatile QueryCache queryCache;
+
+    /** La tarea de revisión de conexiones libres. */
+    private volatile ScheduledFuture<?> housekeeper;
+
+    /** La tarea que retira los resultados vencidos del cache de consultas. */
+    private ScheduledFuture<?> queryCacheCleaner;
+
+    /** Las métricas del pool. */
+    private final PoolMetrics metrics = new PoolMetrics(this);
+
+    /** El interruptor que evita intentar conexiones mientras la base de datos no está disponible. */
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(this);
+
+    /** Las estadísticas de ejecución por sentencia. */
+    private final QueryStats queryStats = new QueryStats(500);
+
+    /** Milisegundos a partir de los cuales una sentencia se reporta como lenta, 0 para no reportarlas. */
+    private volatile long slowQueryTime = 0;
+
+    /** Milisegundos de espera tras el primer intento fallido de reconexión de una AutoConnection. */
+    private long reconnectDelay = 100;
+
+    /** Milisegundos máximos de espera entre intentos de reconexión de una AutoConnection. */
+    private long maxReconnectDelay = 30000;
+
+    /** La descripción de la base de datos, se obtiene de la primera conexión creada. */
+    private volatile DatabaseDescriptor databaseDescriptor;
+
+    /** El DataSource que entrega conexiones de este pool. */
+    private final PoolDataSource dataSource = new PoolDataSource(this);
+
+    /** El modo de detección de conexiones no liberadas. */
+    private volatile LeakDetection leakDetection = LeakDetection.THRESHOLD;
+
+    /** En modo SAMPLED, se captura el stack de una de cada leakSampleRate conexiones asignadas. */
+    private int leakSampleRate = 100;
+
+    /** Tiempo en milisegundos que un cliente puede retener una conexión antes de reportarla. */
+    private long leakThreshold = 300000L;
+
+    /** Tiempo en milisegundos tras el cual una conexión retenida se cierra, 0 para nunca cerrarla. */
+    private long maxLease = 0;
+
     /**
      * Crea un nuevo objeto connection pool.
      * 
@@ -115,14 +243,24 @@ public class DBConnectionPool {
                 ((PoolConnection) con).destroyConnection();
                 add = false;
             }
-            if (((PoolConnection) con).getNativeConnection().isClosed())
+            if (add && isExpired((PoolConnection) con, System.currentTimeMillis()))
+            {
+                ((PoolConnection) con).destroyConnection();
+                add = false;
+            }
+            if (add && ((PoolConnection) con).getNativeConnection().isClosed())
+            {
+                ((PoolConnection) con).destroyConnection();
+                add = false;
+            }
+            if (add && (isRetired((PoolConnection) con) || isOverLimit()))
             {
                 ((PoolConnection) con).destroyConnection();
                 add = false;
             }
             if (add)
             {
-                freeConnections.add(con);
+                offerConnection((PoolConnection) con);
             }
         } catch (Exception e)
         {
@@ -131,386 +269,1768 @@ public class DBConnectionPool {
     }
 
     /**
-     * Obtiene una conexión del pool. Si ninguna conexión esté disponible, una nueva conexión es
-     * creada al menos que el número máximo de conexiones haya sido alcanzado. Si una conexión
-     * libre ha sido cerrada por la base de datos, se elimina del pool y este método es llamado
-     * otra vez recursivamente.
-     * 
-     * @return the connection
-     * @return
+     * Entrega la conexión directamente al primer hilo en espera, o la regresa a la lista de
+     * conexiones libres si no hay hilos esperando.
+     *
+     * @param con La conexión a entregar.
      */
-    public Connection getConnection()
+    private void offerConnection(PoolConnection con)
     {
-        // Escoje la primera conexi�n en el vector o utiliza round-robin.
-        PoolConnection con = (PoolConnection) freeConnections.poll();
-
-        if (con != null)
+        for (ConnectionWaiter waiter : waiters)
         {
-            try
-            {
-                if (idle_time > 0 && (System.currentTimeMillis() - con.getIdleTime()) > idle_time)
-                {
-                    log.warn("Removed bad connection " + con.getId() + " (idle_time) from " + name + ", " + con.getDescription());
-                    //con.printTrackTrace(System.out);
-                    con.destroyConnection();
-                    con = null;
-                    return getConnection();
-                }
-                if (con.getNativeConnection().isClosed())
-                {
-                    log.warn("Removed bad connection " + con.getId() + " (isClosed) from " + name + ", " + con.getDescription());
-                    //con.printTrackTrace(System.out);
-                    con.destroyConnection();
-                    con = null;
-                    return getConnection();
-                }
-                
-                try
-                {
-                    Statement st=con.getNativeConnection().createStatement();
-                    st.close();
-                }catch(Exception e)
-                {
-                    log.warn("Removed bad connection "+con.getId()+" (desc) from " + name + ", " + con.getDescription());
-                    //con.printTrackTrace(System.out);
-                    con.destroyConnection();
-                    con=null;
-                    return getConnection();
-                }                                
-                /*
-                try
-                {
-                con.getMetaData();
-                //                        Statement st=con.createStatement();
-                //                        ResultSet rs=st.executeQuery("desc swb_admlog");
-                //                        rs.close();
-                //                        st.close();
-                }catch(Exception e)
-                {
-                log.warn("Removed bad connection "+con.getId()+" (desc) from " + name + ", " + con.getDescription());
-                //con.printTrackTrace(System.out);
-                con.destroyConnection();
-                con=null;
-                return getConnection();
-                }
-                 */
-            } catch (SQLException e)
+            if (waiter.handOff(con))
             {
-                log.error("Removed bad connection " + con.getId() + " from " + name + ", " + con.getDescription(), e);
-                //con.printTrackTrace(System.out);
-                con.destroyConnection();
-                con = null;
-                return getConnection();
+                return;
             }
-            con.init();
-        } else if (maxConn == 0 || checkedOut < maxConn)
+        }
+        addFreeConnection(con);
+        // Un hilo pudo encolarse despues de revisar la cola y antes de agregar la conexión
+        if (!waiters.isEmpty())
         {
-            con = (PoolConnection) newConnection();
+            signalWaiter();
         }
+    }
+
+    /**
+     * Agrega la conexión a la lista de conexiones libres.
+     *
+     * @param con the con
+     */
+    private void addFreeConnection(PoolConnection con)
+    {
+        idleConnections.incrementAndGet();
+        freeConnections.add(con);
+    }
 
+    /**
+     * Toma una conexión de la lista de conexiones libres.
+     *
+     * @return la conexión o nulo si no hay conexiones libres
+     */
+    private PoolConnection pollFreeConnection()
+    {
+        PoolConnection con = (PoolConnection) freeConnections.poll();
         if (con != null)
         {
-            manager.getTimeLock().addConnection(con);
+            idleConnections.decrementAndGet();
         }
-        log.trace("getConnection():" + con.getId() + " " + con.getPool().getName() + " " + freeConnections.size());
         return con;
     }
 
     /**
-     * Obtiene una conexión del pool. Si ninguna conexión está disponible, una nueva conexión es
-     * creada al menos que el número máximo de conexiones haya sido alcanzado. Si una conexión
-     * libre ha sido cerrada por la base de datos, se elimina del pool y este métdo es llamado
-     * otra vez recursivamente.
-     * <P>
-     * Si ninguna conexión está disponible y el número máximo ha sido alcanzado, este método espera
-     * por una conexión liberada el tiempo especificado.
-     * 
-     * @param timeout El valor del timeout en milisegundos.
-     * @return the connection
-     * @return
+     * Indica si la conexión pertenece a una configuración anterior del pool o si el pool fue
+     * retirado, en cuyo caso debe cerrarse en vez de reutilizarse.
+     *
+     * @param con la conexión
+     * @return true, si la conexión debe cerrarse
      */
-    public Connection getConnection(long timeout)
+    private boolean isRetired(PoolConnection con)
+    {
+        return closed || con.getGeneration() != generation.get();
+    }
+
+    /**
+     * Indica si el pool tiene más conexiones abiertas que el máximo, lo que sucede cuando se
+     * reduce maxConn mientras hay conexiones en uso.
+     *
+     * @return true, si se excedió el número máximo de conexiones
+     */
+    private boolean isOverLimit()
+    {
+        int max = maxConn;
+        return max > 0 && totalConnections.get() > max;
+    }
+
+    /**
+     * Indica si hay una conexión libre o lugar para crear una nueva.
+     *
+     * @return true, si un hilo en espera podría obtener una conexión
+     */
+    private boolean isAvailable()
+    {
+        int max = maxConn;
+        return !closed && (idleConnections.get() > 0 || max <= 0 || totalConnections.get() < max);
+    }
+
+    /**
+     * Reserva un lugar para una nueva conexión física, siempre que no se haya alcanzado el
+     * número máximo de conexiones.
+     *
+     * @return true, si se reservó el lugar
+     */
+    private boolean reserveConnection()
     {
-        long startTime = System.currentTimeMillis();
-        Connection con;
-        while ((con = getConnection()) == null)
+        if (closed)
+        {
+            return false;
+        }
+        while (true)
         {
-            if ((System.currentTimeMillis() - startTime) >= timeout)
+            int total = totalConnections.get();
+            int max = maxConn;
+            if (max > 0 && total >= max)
             {
-                // Timeout ha transcurrido.
-                return null;
+                return false;
+            }
+            if (totalConnections.compareAndSet(total, total + 1))
+            {
+                return true;
             }
         }
-        //System.out.println("getConnection(time):"+con);
-        return con;
     }
 
     /**
-     * Cierra todas las conexiones disponibles.
+     * Actualiza los contadores del pool cuando una conexión física es cerrada.
+     *
+     * @param con La conexión destruida.
+     * @param active Si la conexión estaba asignada a un cliente.
      */
-    public void release()
+    void connectionDestroyed(PoolConnection con, boolean active)
     {
-        PoolConnection con = null;
-        while ((con = (PoolConnection) freeConnections.poll()) != null)
+        totalConnections.decrementAndGet();
+        if (active)
         {
-            try
+            activeConnections.decrementAndGet();
+            metrics.recordUsage(con.getCheckoutTime());
+        }
+        metrics.connectionDestroyed();
+        manager.getTimeLock().removeConnection(con);
+        // Se liberó un lugar en el pool, un hilo en espera puede crear una nueva conexión
+        signalWaiter();
+    }
+
+    /**
+     * Actualiza los contadores del pool cuando un cliente cierra una conexión.
+     *
+     * @param con La conexión regresada.
+     */
+    void connectionReturned(PoolConnection con)
+    {
+        activeConnections.decrementAndGet();
+        metrics.recordUsage(con.getCheckoutTime());
+    }
+
+    /**
+     * Registra la ejecución de una sentencia en las métricas y estadísticas del pool, y la
+     * reporta en la bitácora si excede el tiempo de consulta lenta.
+     *
+     * @param start el valor de System.nanoTime() al iniciar la ejecución
+     * @param sql la sentencia, puede ser nula
+     * @param fingerprint la huella de la sentencia, nula para calcularla
+     * @param con la conexión que ejecutó la sentencia
+     * @param params los parámetros de la sentencia, nulo si no se registran
+     */
+    void queryExecuted(long start, String sql, String fingerprint, Connection con, ParameterTrace params)
+    {
+        long micros = (System.nanoTime() - start) / 1000;
+        metrics.recordQuery(micros);
+        if (sql != null && queryStats.isEnabled())
+        {
+            queryStats.record(fingerprint != null ? fingerprint : QueryStats.fingerprint(sql), micros);
+        }
+        long slow = slowQueryTime;
+        if (slow > 0 && micros >= slow * 1000)
+        {
+            StringBuilder msg = new StringBuilder();
+            msg.append("Slow query (").append(micros / 1000).append(" ms) in pool ").append(name).append(": ").append(sql);
+            if (params != null)
             {
-                con.destroyConnection();
-                //con.init();
-                log.debug("Closed connection for pool " + name + ", " + con.getDescription());
-            } catch (Exception e)
+                msg.append(", parameters: ").append(params);
+            }
+            if (con instanceof PoolConnection)
             {
-                log.error("Can't close connection for pool " + name + ", " + con.getDescription(), e);
+                msg.append(", connection ").append(((PoolConnection) con).getId()).append(": ").append(((PoolConnection) con).getDescription());
             }
+            log.warn(msg.toString());
         }
-        //System.out.println("release()");
     }
 
     /**
-     * Crea una nueva conexión usando un identificador de usuario y passsword si son especificados.
-     * 
-     * @return the connection
-     * @return
+     * Despierta al primer hilo en espera para que intente obtener una conexión por si mismo,
+     * ya sea porque hay una conexión libre o porque se liberó un lugar en el pool. El hilo
+     * conserva su lugar en la cola si no la obtiene.
      */
-    public Connection newNoPoolConnection()
+    void signalWaiter()
     {
-        Connection con = null;
-        try
+        for (ConnectionWaiter waiter : waiters)
         {
-            if (user == null)
-            {
-                con = DriverManager.getConnection(URL);
-            } else
+            if (waiter.signal())
             {
-                con = DriverManager.getConnection(URL, user, getDescriptedPassword());
+                return;
             }
-            log.debug("Created a new connection in pool " + name);
-        } catch (SQLException e)
-        {
-            log.error("Can't create a new connection for " + URL, e);
-            con = null;
         }
-        //System.out.println(new java.util.Date()+ ": newConnection");
-        return con;
     }
 
     /**
-     * Crea una nueva conexión que se auto conecta si se piede la conexion.
+     * Obtiene una conexión del pool. Si ninguna conexión esté disponible, una nueva conexión es
+     * creada al menos que el número máximo de conexiones haya sido alcanzado. Si una conexión
+     * libre ha sido cerrada por la base de datos, se elimina del pool y este método es llamado
+     * otra vez recursivamente.
      * 
      * @return the connection
      * @return
      */
-    public Connection newAutoConnection()
+    public Connection getConnection()
     {
-        Connection con = null;
-        try
+        long start = System.nanoTime();
+        Connection con = acquireConnection();
+        if (con != null)
         {
-            if (user == null)
+            metrics.recordBorrow(start);
+        }
+        return con;
+    }
+
+    /**
+     * Toma una conexión libre válida o crea una nueva, sin esperar.
+     *
+     * @return la conexión o nulo si se alcanzó el número máximo de conexiones
+     */
+    private PoolConnection acquireConnection()
+    {
+        // Escoje la primera conexi�n en el vector o utiliza round-robin.
+        PoolConnection con = pollFreeConnection();
+
+        if (con != null)
+        {
+            long now = System.currentTimeMillis();
+            String reason = null;
+            if (isRetired(con))
             {
-                con = DriverManager.getConnection(URL);
-            } else
+                reason = "reconfigured";
+            } else if (idle_time > 0 && (now - con.getIdleTime()) > idle_time)
             {
-                con = DriverManager.getConnection(URL, user, getDescriptedPassword());
+                reason = "idle_time";
+            } else if (isExpired(con, now))
+            {
+                reason = "max_lifetime";
+            } else if (now - Math.max(con.getIdleTime(), con.getValidationTime()) >= validationIdleTime
+                    && !validateConnection(con))
+            {
+                reason = "validation";
             }
-            log.debug("Created a new connection in pool " + name);
-        } catch (SQLException e)
+            if (reason != null)
+            {
+                log.warn("Removed bad connection " + con.getId() + " (" + reason + ") from " + name + ", " + con.getDescription());
+                con.destroyConnection();
+                return acquireConnection();
+            }
+            con.init();
+        } else
         {
-            log.error("Can't create a new connection for " + URL, e);
-            return null;
+            con = (PoolConnection) newConnection();
         }
+
         if (con != null)
         {
-            return new AutoConnection(con, this);
-        } else
-        {
-            return null;
+            checkOut(con);
         }
+        return con;
     }
 
     /**
-     * Crea una nueva conexión usando un identificador de usuario y passsword si son especificados.
-     * 
-     * @return the connection
+     * Valida que la conexión física siga activa. Si se definió una consulta de prueba se ejecuta,
+     * si se definió un tiempo de validación se utiliza {@link Connection#isValid(int)}, en otro caso
+     * solo se crea y cierra un Statement.
+     *
+     * @param con La conexión a validar.
+     * @return true, si la conexión es válida
      */
-    private Connection newConnection()
+    boolean validateConnection(PoolConnection con)
     {
-        Connection con = null;
+        Connection ncon = con.getNativeConnection();
         try
         {
-            if (user == null)
+            if (ncon.isClosed())
             {
-                con = DriverManager.getConnection(URL);
+                metrics.validationFailed();
+                return false;
+            }
+            boolean valid = true;
+            if (testQuery != null)
+            {
+                Statement st = ncon.createStatement();
+                try
+                {
+                    if (validationTimeout > 0)
+                    {
+                        st.setQueryTimeout(validationTimeout);
+                    }
+                    st.execute(testQuery);
+                } finally
+                {
+                    st.close();
+                }
+            } else if (validationTimeout > 0)
+            {
+                valid = ncon.isValid(validationTimeout);
             } else
             {
-                con = DriverManager.getConnection(URL, user, getDescriptedPassword());
+                Statement st = ncon.createStatement();
+                st.close();
             }
-            log.debug("Created a new connection in pool " + name);
+            if (valid)
+            {
+                con.setValidationTime(System.currentTimeMillis());
+            } else
+            {
+                metrics.validationFailed();
+            }
+            return valid;
         } catch (SQLException e)
         {
-            log.error("Can't create a new connection for " + URL, e);
-            return null;
-        }
-        if (con != null)
-        {
-            return new PoolConnection(con, this);
-        } else
-        {
-            return null;
+            log.debug("Connection " + con.getId() + " of pool " + name + " is not valid", e);
+            metrics.validationFailed();
+            return false;
         }
     }
 
-    /** Getter for property name.
-     * @return Value of property name.
+    /**
+     * Revisa si la conexión física excedió su tiempo de vida máximo.
      *
+     * @param con the con
+     * @param now el tiempo actual en milisegundos
+     * @return true, si la conexión debe cerrarse
      */
-    public java.lang.String getName()
+    private boolean isExpired(PoolConnection con, long now)
     {
-        return name;
+        return maxLifetime > 0 && (now - con.getCreationTime()) > maxLifetime;
     }
 
-    public void setPassword(String password)
+    /**
+     * Revisa las conexiones libres del pool: cierra las que excedieron el idle_time o su tiempo
+     * de vida máximo, valida las restantes y abre nuevas conexiones hasta tener el mínimo de
+     * conexiones libres. Es ejecutado periódicamente por el DBConnectionManager.
+     */
+    void housekeep()
     {
-        if(password!=null) {
-        		this.password=password;
+        long now = System.currentTimeMillis();
+        int count = idleConnections.get();
+        for (int i = 0; i < count; i++)
+        {
+            // Se retira la conexión de la lista para que ningún cliente la utilice mientras se revisa
+            PoolConnection con = pollFreeConnection();
+            if (con == null)
+            {
+                break;
+            }
+            String reason = null;
+            if (isRetired(con))
+            {
+                reason = "reconfigured";
+            } else if (idle_time > 0 && (now - con.getIdleTime()) > idle_time)
+            {
+                reason = "idle_time";
+            } else if (isExpired(con, now))
+            {
+                reason = "max_lifetime";
+            } else if (!validateConnection(con))
+            {
+                reason = "validation";
+            }
+            if (reason != null)
+            {
+                log.debug("Evicted connection (" + reason + ") from " + name);
+                con.destroyConnection();
+            } else
+            {
+                offerConnection(con);
+            }
+        }
+        while (idleConnections.get() < minIdle && addIdleConnection())
+        {
         }
     }
 
-    /** Getter for property name.
-     * @return Value of property name.
+    /**
+     * Abre una nueva conexión física y la agrega al pool como libre.
      *
+     * @return true, si se abrió la conexión
      */
-    public java.lang.String getPassword()
+    boolean addIdleConnection()
     {
-        if(password.startsWith("{") && password.endsWith("}"))
+        PoolConnection con = (PoolConnection) newConnection();
+        if (con == null)
         {
-            return password;
-        }else
+            return false;
+        }
+        con.markIdle();
+        offerConnection(con);
+        return true;
+    }
+
+    /**
+     * Regresa el número de conexiones que faltan por abrir para iniciar el pool, el mayor entre
+     * initial_connections y min_idle, sin exceder el número máximo de conexiones.
+     *
+     * @return el número de conexiones por abrir
+     */
+    int getWarmUpConnections()
+    {
+        int count = Math.max(initialConnections, minIdle);
+        if (maxConn > 0)
+        {
+            count = Math.min(count, maxConn);
+        }
+        return Math.max(0, count - totalConnections.get());
+    }
+
+    /**
+     * Si las conexiones libres están por debajo del mínimo, programa una tarea que abre nuevas
+     * conexiones sin bloquear al hilo que solicitó la conexión. Solo hay una tarea a la vez por pool.
+     */
+    private void replenish()
+    {
+        if (minIdle <= 0 || idleConnections.get() >= minIdle || (maxConn > 0 && totalConnections.get() >= maxConn))
+        {
+            return;
+        }
+        if (replenishing.compareAndSet(false, true))
         {
             try
             {
-                return "{"+SFBase64.encodeBytes(SWBUtils.CryptoWrapper.PBEAES128Cipher(KEY, password.getBytes()))+"}";
-            }catch(Exception e){log.error(e);}
-            return null;
+                manager.getScheduler().execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            while (idleConnections.get() < minIdle && addIdleConnection())
+                            {
+                            }
+                        } catch (Exception e)
+                        {
+                            log.error("Error opening idle connections of pool " + name, e);
+                        } finally
+                        {
+                            replenishing.set(false);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e)
+            {
+                replenishing.set(false);
+            }
         }
     }
 
-    private String getDescriptedPassword()
+    /**
+     * Programa la revisión periódica de las conexiones libres, si se definió un intervalo.
+     */
+    void startHousekeeper()
     {
-        if(password.startsWith("{") && password.endsWith("}"))
+        stopHousekeeper();
+        if (housekeepingTime > 0)
         {
-            String pwd=password.substring(1,password.length()-1);
-            try
+            housekeeper = manager.getScheduler().scheduleWithFixedDelay(new Runnable()
             {
-                return new String(SWBUtils.CryptoWrapper.PBEAES128Decipher(KEY, SFBase64.decode(pwd)));
-            }catch(Exception e){log.error(e);}
-            return null;
-        }else
+                public void run()
+                {
+                    try
+                    {
+                        housekeep();
+                    } catch (Exception e)
+                    {
+                        log.error("Error checking connections of pool " + name, e);
+                    }
+                }
+            }, housekeepingTime, housekeepingTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Cancela la revisión periódica de las conexiones libres.
+     */
+    void stopHousekeeper()
+    {
+        ScheduledFuture<?> task = housekeeper;
+        if (task != null)
         {
-            return password;
+            task.cancel(false);
+            housekeeper = null;
         }
     }
 
-    /** Getter for property maxConn.
-     * @return Value of property maxConn.
+    /**
+     * Registra la conexión como asignada al hilo actual.
      *
+     * @param con the con
      */
-    public int getMaxConn()
+    private void checkOut(PoolConnection con)
     {
-        return maxConn;
+        activeConnections.incrementAndGet();
+        con.setCheckoutTime(System.nanoTime());
+        manager.getTimeLock().addConnection(con);
+        log.trace("getConnection():" + con.getId() + " " + name + " " + idleConnections.get());
+        replenish();
     }
 
-    /** Setter for property maxConn.
-     * @param maxConn New value of property maxConn.
+    /**
+     * Obtiene una conexión del pool. Si ninguna conexión está disponible, una nueva conexión es
+     * creada al menos que el número máximo de conexiones haya sido alcanzado. Si una conexión
+     * libre ha sido cerrada por la base de datos, se elimina del pool y este métdo es llamado
+     * otra vez recursivamente.
+     * <P>
+     * Si ninguna conexión está disponible y el número máximo ha sido alcanzado, este método espera
+     * por una conexión liberada el tiempo especificado. Los hilos en espera obtienen las
+     * conexiones en el orden en que llegaron, un hilo nuevo se forma en la cola si ya hay hilos
+     * esperando.
+     * 
+     * @param timeout El valor del timeout en milisegundos.
+     * @return the connection
+     * @return
+     */
+    public Connection getConnection(long timeout)
+    {
+        long start = System.nanoTime();
+        Connection con = null;
+        if (timeout <= 0 || waiters.isEmpty())
+        {
+            con = acquireConnection();
+            if (con != null)
+            {
+                metrics.recordBorrow(start);
+                return con;
+            }
+        }
+        // Con la base de datos caida y sin conexiones en uso que puedan regresar, no tiene caso esperar
+        if (timeout <= 0 || (circuitBreaker.isOpen() && totalConnections.get() == 0))
+        {
+            return null;
+        }
+        long waitStart = System.nanoTime();
+        long deadline = waitStart + TimeUnit.MILLISECONDS.toNanos(timeout);
+        ConnectionWaiter waiter = new ConnectionWaiter();
+        waiting.incrementAndGet();
+        waiters.add(waiter);
+        try
+        {
+            // El primero de la cola reintenta ya encolado para no perder una conexión liberada
+            // antes de encolarse, los demás esperan su turno
+            boolean retry = waiters.peek() == waiter;
+            while (true)
+            {
+                if (retry)
+                {
+                    con = acquireConnection();
+                    if (con != null)
+                    {
+                        break;
+                    }
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted() || closed)
+                {
+                    break;
+                }
+                if (waiter.isWaiting())
+                {
+                    LockSupport.parkNanos(this, remaining);
+                }
+                retry = waiter.reset();
+                if (waiter.isHandedOff())
+                {
+                    break;
+                }
+            }
+            PoolConnection handed = waiter.cancel();
+            if (handed != null)
+            {
+                if (con == null)
+                {
+                    handed.init();
+                    checkOut(handed);
+                    con = handed;
+                } else
+                {
+                    offerConnection(handed);
+                }
+            }
+        } finally
+        {
+            waiters.remove(waiter);
+            waiting.decrementAndGet();
+            // Si el hilo dejo de esperar sin usar un aviso, se pasa al siguiente de la cola
+            if (!waiters.isEmpty() && isAvailable())
+            {
+                signalWaiter();
+            }
+        }
+        metrics.recordWait(waitStart);
+        if (con != null)
+        {
+            metrics.recordBorrow(start);
+            return con;
+        }
+        // Timeout ha transcurrido.
+        log.debug("Timeout waiting for a connection in pool " + name);
+        metrics.timeout();
+        return null;
+    }
+
+    /**
+     * Ejecuta una consulta y regresa un iterador que lee sus renglones conforme se recorren, sin
+     * cargar el resultado en memoria. La conexión regresa al pool al terminar de recorrerlo o al
+     * cerrarlo, por lo que debe cerrarse si no se recorre por completo.
      *
+     * @param <T> el tipo de objeto de cada renglón
+     * @param sql la consulta con parámetros
+     * @param mapper convierte cada renglón en un objeto
+     * @param params los valores de los parámetros
+     * @return el iterador
+     * @throws SQLException si no se obtuvo una conexión o la consulta falla
      */
-    public void setMaxConn(int maxConn)
+    public <T> ResultIterator<T> iterator(String sql, RowMapper<T> mapper, Object... params) throws SQLException
     {
-        this.maxConn = maxConn;
+        return ResultIterator.open(this, sql, mapper, params);
     }
 
-    /** Getter for property URL.
-     * @return Value of property URL.
+    /**
+     * Ejecuta una consulta y regresa un Stream que lee sus renglones conforme se consumen, sin
+     * cargar el resultado en memoria. Debe cerrarse, por ejemplo con try-with-resources, para
+     * regresar la conexión al pool.
      *
+     * @param <T> el tipo de objeto de cada renglón
+     * @param sql la consulta con parámetros
+     * @param mapper convierte cada renglón en un objeto
+     * @param params los valores de los parámetros
+     * @return el Stream
+     * @throws SQLException si no se obtuvo una conexión o la consulta falla
      */
-    public java.lang.String getURL()
+    public <T> Stream<T> stream(String sql, RowMapper<T> mapper, Object... params) throws SQLException
     {
-        return URL;
+        final ResultIterator<T> it = iterator(sql, mapper, params);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED), false).onClose(new Runnable()
+        {
+            public void run()
+            {
+                it.close();
+            }
+        });
     }
 
-    /** Setter for property URL.
-     * @param URL New value of property URL.
+    /**
+     * Ejecuta una consulta de solo lectura y regresa su resultado en memoria. Si el pool tiene
+     * cache de resultados se resuelve con el cache, el cual se invalida cuando se modifica alguna
+     * de las tablas indicadas.
      *
+     * @param sql la consulta con parámetros
+     * @param tables las tablas de las que depende el resultado
+     * @param params los valores de los parámetros
+     * @return el resultado
+     * @throws SQLException si no se obtuvo una conexión o la consulta falla
      */
-    public void setURL(java.lang.String URL)
+    public CachedResult query(String sql, String[] tables, Object... params) throws SQLException
     {
-        this.URL = SWBUtils.TEXT.replaceAll(URL, "{apppath}", SWBUtils.getApplicationPath());
-        //System.out.println("URL:"+this.URL);
+        QueryCache cache = queryCache;
+        if (cache != null)
+        {
+            return cache.query(sql, tables, params);
+        }
+        return load(sql, params);
     }
 
-    /** Getter for property user.
-     * @return Value of property user.
+    /**
+     * Ejecuta una consulta en una conexión del pool y lee su resultado completo.
      *
+     * @param sql la consulta con parámetros
+     * @param params los valores de los parámetros
+     * @return el resultado
+     * @throws SQLException si no se obtuvo una conexión o la consulta falla
      */
-    public java.lang.String getUser()
+    CachedResult load(String sql, Object[] params) throws SQLException
     {
-        return user;
+        Connection con = dataSource.getConnection();
+        try
+        {
+            PreparedStatement ps = con.prepareStatement(sql);
+            try
+            {
+                for (int i = 0; i < params.length; i++)
+                {
+                    ps.setObject(i + 1, params[i]);
+                }
+                ResultSet rs = ps.executeQuery();
+                try
+                {
+                    return CachedResult.read(rs);
+                } finally
+                {
+                    rs.close();
+                }
+            } finally
+            {
+                ps.close();
+            }
+        } finally
+        {
+            con.close();
+        }
     }
 
-    /** Setter for property user.
-     * @param user New value of property user.
+    /**
+     * Cierra todas las conexiones disponibles.
+     */
+    public void release()
+    {
+        PoolConnection con = null;
+        while ((con = pollFreeConnection()) != null)
+        {
+            try
+            {
+                con.destroyConnection();
+                //con.init();
+                log.debug("Closed connection for pool " + name + ", " + con.getDescription());
+            } catch (Exception e)
+            {
+                log.error("Can't close connection for pool " + name + ", " + con.getDescription(), e);
+            }
+        }
+        //System.out.println("release()");
+    }
+
+    /**
+     * Cambia la configuración de conexión del pool sin detenerlo. Si cambia el URL, el usuario o
+     * el password, las conexiones libres se cierran y las que están en uso se cierran al
+     * regresar al pool, las nuevas conexiones usan la nueva configuración. Si se reduce el
+     * número máximo de conexiones, se cierran conexiones libres hasta no exceder el nuevo máximo
+     * y las que estén en uso se cierran al regresar mientras se exceda.
      *
+     * @param URL       El URL JDBC de la base de datos.
+     * @param user      Un usuario de la base de datos o nulo.
+     * @param password  El password del usuario de la base de datos o nulo.
+     * @param maxConn   El número máximo de conexiones o 0 para definir que no tenga límite.
+     * @param idle_time Segundos que una conexión puede estar libre antes de cerrarse.
      */
-    public void setUser(java.lang.String user)
+    public void reconfigure(String URL, String user, String password, int maxConn, long idle_time)
     {
+        String oldURL = this.URL;
+        String oldUser = this.user;
+        String oldPassword = this.password;
+        setURL(URL);
         this.user = user;
+        setPassword(password);
+        this.idle_time = idle_time * 1000;
+        int oldMax = this.maxConn;
+        this.maxConn = maxConn;
+        if (!this.URL.equals(oldURL) || !equals(this.user, oldUser) || !this.password.equals(oldPassword))
+        {
+            generation.incrementAndGet();
+            log.info("Connection Pool [" + name + "] reconfigured, draining " + totalConnections.get() + " connections");
+            release();
+        } else
+        {
+            PoolConnection con;
+            while (isOverLimit() && (con = pollFreeConnection()) != null)
+            {
+                con.destroyConnection();
+            }
+        }
+        if (maxConn <= 0 || (oldMax > 0 && maxConn > oldMax))
+        {
+            // Hay nuevos lugares en el pool, los hilos en espera pueden crear conexiones
+            for (int i = waiting.get(); i > 0; i--)
+            {
+                signalWaiter();
+            }
+        }
     }
 
     /**
-     * Gets the hits.
-     * 
-     * @return Regresa las total de solicitudes de conexiones
+     * Retira el pool: deja de entregar conexiones, cancela la revisión periódica y cierra las
+     * conexiones libres. Las conexiones en uso se cierran al regresar al pool.
      */
-    public long getHits()
+    void close()
     {
-        return hits;
+        closed = true;
+        stopHousekeeper();
+        stopQueryCacheCleaner();
+        release();
+        for (int i = waiting.get(); i > 0; i--)
+        {
+            signalWaiter();
+        }
     }
 
     /**
-     * Gets the hits time.
-     * 
-     * @return Regresa las total de solicitudes de conexiones
+     * Indica si el pool fue retirado del DBConnectionManager.
+     *
+     * @return true, si el pool ya no entrega conexiones
      */
-    public long getHitsTime()
+    public boolean isClosed()
     {
-        return hitsTime / 100;
+        return closed;
     }
 
     /**
-     * Adds the hit.
-     * 
-     * @param time the time
+     * Gets the generation.
+     *
+     * @return la generación actual de la configuración de conexión
      */
-    public void addHit(long time)
+    int getGeneration()
     {
-        time = time * 100;
-        hits++;
-        hitsTime = (hitsTime * 9 + time) / 10;
+        return generation.get();
     }
 
     /**
-     * Gets the connection manager.
+     * Compara dos cadenas que pueden ser nulas.
+     *
+     * @param a una cadena
+     * @param b otra cadena
+     * @return true, si son iguales o ambas nulas
+     */
+    private static boolean equals(String a, String b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Crea una nueva conexión usando un identificador de usuario y passsword si son especificados.
      * 
-     * @return the connection manager
+     * @return the connection
      * @return
      */
-    public DBConnectionManager getConnectionManager()
+    public Connection newNoPoolConnection()
     {
-        return manager;
+        Connection con = null;
+        try
+        {
+            if (user == null)
+            {
+                con = DriverManager.getConnection(URL);
+            } else
+            {
+                con = DriverManager.getConnection(URL, user, getDescriptedPassword());
+            }
+            log.debug("Created a new connection in pool " + name);
+        } catch (SQLException e)
+        {
+            log.error("Can't create a new connection for " + URL, e);
+            con = null;
+        }
+        //System.out.println(new java.util.Date()+ ": newConnection");
+        return con;
     }
 
-    public long getIdleTime()
-    {
-       return idle_time;
+    /**
+     * Crea una nueva conexión que se auto conecta si se piede la conexion.
+     * 
+     * @return the connection
+     * @return
+     */
+    public Connection newAutoConnection()
+    {
+        Connection con = null;
+        try
+        {
+            if (user == null)
+            {
+                con = DriverManager.getConnection(URL);
+            } else
+            {
+                con = DriverManager.getConnection(URL, user, getDescriptedPassword());
+            }
+            log.debug("Created a new connection in pool " + name);
+        } catch (SQLException e)
+        {
+            log.error("Can't create a new connection for " + URL, e);
+            return null;
+        }
+        if (con != null)
+        {
+            return new AutoConnection(con, this);
+        } else
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Crea una nueva conexión usando un identificador de usuario y passsword si son especificados.
+     * Regresa nulo si se alcanzó el número máximo de conexiones.
+     * 
+     * @return the connection
+     */
+    private Connection newConnection()
+    {
+        if (!reserveConnection())
+        {
+            return null;
+        }
+        if (!circuitBreaker.allowRequest())
+        {
+            totalConnections.decrementAndGet();
+            return null;
+        }
+        // Se lee antes de conectar para que una reconfiguración concurrente retire la conexión
+        int gen = generation.get();
+        Connection con = null;
+        PoolConnection ret = null;
+        try
+        {
+            try
+            {
+                if (user == null)
+                {
+                    con = DriverManager.getConnection(URL);
+                } else
+                {
+                    con = DriverManager.getConnection(URL, user, getDescriptedPassword());
+                }
+                log.debug("Created a new connection in pool " + name);
+            } catch (SQLException e)
+            {
+                log.error("Can't create a new connection for " + URL, e);
+            }
+            if (con != null)
+            {
+                if (databaseDescriptor == null)
+                {
+                    try
+                    {
+                        getDatabaseDescriptor(con);
+                    } catch (SQLException e)
+                    {
+                        log.warn("Can't read database metadata of pool " + name, e);
+                    }
+                }
+                ret = new PoolConnection(con, this, gen);
+                metrics.connectionCreated();
+                circuitBreaker.success();
+            }
+        } finally
+        {
+            // Cualquier salida sin conexión, incluso por una excepción no verificada del driver,
+            // cuenta como fallo para el interruptor y libera el lugar reservado
+            if (ret == null)
+            {
+                if (con != null)
+                {
+                    try
+                    {
+                        con.close();
+                    } catch (Exception e)
+                    {
+                        log.debug("Can't close failed connection of pool " + name, e);
+                    }
+                }
+                metrics.connectionFailed();
+                circuitBreaker.failure();
+                totalConnections.decrementAndGet();
+            }
+        }
+        return ret;
+    }
+
+    /** Getter for property name.
+     * @return Value of property name.
+     *
+     */
+    public java.lang.String getName()
+    {
+        return name;
+    }
+
+    public void setPassword(String password)
+    {
+        if(password!=null) {
+        		this.password=password;
+        }
+    }
+
+    /** Getter for property name.
+     * @return Value of property name.
+     *
+     */
+    public java.lang.String getPassword()
+    {
+        if(password.startsWith("{") && password.endsWith("}"))
+        {
+            return password;
+        }else
+        {
+            try
+            {
+                return "{"+SFBase64.encodeBytes(SWBUtils.CryptoWrapper.PBEAES128Cipher(KEY, password.getBytes()))+"}";
+            }catch(Exception e){log.error(e);}
+            return null;
+        }
+    }
+
+    private String getDescriptedPassword()
+    {
+        if(password.startsWith("{") && password.endsWith("}"))
+        {
+            String pwd=password.substring(1,password.length()-1);
+            try
+            {
+                return new String(SWBUtils.CryptoWrapper.PBEAES128Decipher(KEY, SFBase64.decode(pwd)));
+            }catch(Exception e){log.error(e);}
+            return null;
+        }else
+        {
+            return password;
+        }
+    }
+
+    /** Getter for property maxConn.
+     * @return Value of property maxConn.
+     *
+     */
+    public int getMaxConn()
+    {
+        return maxConn;
+    }
+
+    /** Setter for property maxConn.
+     * @param maxConn New value of property maxConn.
+     *
+     */
+    public void setMaxConn(int maxConn)
+    {
+        this.maxConn = maxConn;
+    }
+
+    /** Getter for property URL.
+     * @return Value of property URL.
+     *
+     */
+    public java.lang.String getURL()
+    {
+        return URL;
+    }
+
+    /** Setter for property URL.
+     * @param URL New value of property URL.
+     *
+     */
+    public void setURL(java.lang.String URL)
+    {
+        this.URL = SWBUtils.TEXT.replaceAll(URL, "{apppath}", SWBUtils.getApplicationPath());
+        databaseDescriptor = null;
+        //System.out.println("URL:"+this.URL);
+    }
+
+    /** Getter for property user.
+     * @return Value of property user.
+     *
+     */
+    public java.lang.String getUser()
+    {
+        return user;
+    }
+
+    /** Setter for property user.
+     * @param user New value of property user.
+     *
+     */
+    public void setUser(java.lang.String user)
+    {
+        this.user = user;
+    }
+
+    /**
+     * Gets the hits.
+     * 
+     * @return Regresa las total de solicitudes de conexiones
+     */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Gets the hits time.
+     * 
+     * @return Regresa las total de solicitudes de conexiones
+     */
+    public long getHitsTime()
+    {
+        return hitsTime / 100;
+    }
+
+    /**
+     * Adds the hit.
+     * 
+     * @param time the time
+     */
+    public void addHit(long time)
+    {
+        time = time * 100;
+        hits++;
+        hitsTime = (hitsTime * 9 + time) / 10;
+    }
+
+    /**
+     * Gets the connection manager.
+     * 
+     * @return the connection manager
+     * @return
+     */
+    public DBConnectionManager getConnectionManager()
+    {
+        return manager;
+    }
+
+    public long getIdleTime()
+    {
+       return idle_time;
+    }
+
+    /**
+     * Gets the housekeeping time.
+     *
+     * @return el intervalo en segundos entre cada revisión de las conexiones libres
+     */
+    public long getHousekeepingTime()
+    {
+        return housekeepingTime / 1000;
+    }
+
+    /**
+     * Sets the housekeeping time. Debe llamarse {@link DBConnectionManager} para reprogramar la revisión.
+     *
+     * @param housekeepingTime el intervalo en segundos entre cada revisión de las conexiones libres,
+     * 0 para no revisarlas
+     */
+    public void setHousekeepingTime(long housekeepingTime)
+    {
+        this.housekeepingTime = housekeepingTime * 1000;
+    }
+
+    /**
+     * Gets the validation idle time.
+     *
+     * @return el tiempo en segundos que una conexión debe estar libre para validarla al asignarla
+     */
+    public long getValidationIdleTime()
+    {
+        return validationIdleTime / 1000;
+    }
+
+    /**
+     * Sets the validation idle time.
+     *
+     * @param validationIdleTime el tiempo en segundos que una conexión debe estar libre para
+     * validarla al asignarla, 0 para validarla siempre
+     */
+    public void setValidationIdleTime(long validationIdleTime)
+    {
+        this.validationIdleTime = validationIdleTime * 1000;
+    }
+
+    /**
+     * Gets the validation timeout.
+     *
+     * @return el tiempo máximo en segundos para validar una conexión
+     */
+    public int getValidationTimeout()
+    {
+        return validationTimeout;
+    }
+
+    /**
+     * Sets the validation timeout.
+     *
+     * @param validationTimeout el tiempo máximo en segundos para validar una conexión con
+     * isValid, 0 para solo crear un Statement
+     */
+    public void setValidationTimeout(int validationTimeout)
+    {
+        this.validationTimeout = validationTimeout;
+    }
+
+    /**
+     * Gets the test query.
+     *
+     * @return la consulta SQL para validar las conexiones
+     */
+    public String getTestQuery()
+    {
+        return testQuery;
+    }
+
+    /**
+     * Sets the test query.
+     *
+     * @param testQuery la consulta SQL para validar las conexiones, nulo para no utilizarla
+     */
+    public void setTestQuery(String testQuery)
+    {
+        this.testQuery = testQuery != null && testQuery.trim().length() > 0 ? testQuery.trim() : null;
+    }
+
+    /**
+     * Gets the max lifetime.
+     *
+     * @return el tiempo de vida máximo en segundos de una conexión física
+     */
+    public long getMaxLifetime()
+    {
+        return maxLifetime / 1000;
+    }
+
+    /**
+     * Sets the max lifetime.
+     *
+     * @param maxLifetime el tiempo de vida máximo en segundos de una conexión física, 0 para no limitarlo
+     */
+    public void setMaxLifetime(long maxLifetime)
+    {
+        this.maxLifetime = maxLifetime * 1000;
+    }
+
+    /**
+     * Gets the min idle.
+     *
+     * @return el número mínimo de conexiones libres que se mantienen abiertas
+     */
+    public int getMinIdle()
+    {
+        return minIdle;
+    }
+
+    /**
+     * Sets the min idle.
+     *
+     * @param minIdle el número mínimo de conexiones libres que se mantienen abiertas
+     */
+    public void setMinIdle(int minIdle)
+    {
+        this.minIdle = minIdle;
+    }
+
+    /**
+     * Gets the initial connections.
+     *
+     * @return el número de conexiones que se abren al iniciar el pool
+     */
+    public int getInitialConnections()
+    {
+        return initialConnections;
+    }
+
+    /**
+     * Sets the initial connections.
+     *
+     * @param initialConnections el número de conexiones que se abren al iniciar el pool
+     */
+    public void setInitialConnections(int initialConnections)
+    {
+        this.initialConnections = initialConnections;
+    }
+
+    /**
+     * Gets the stream fetch size.
+     *
+     * @return el número de renglones que se leen en cada viaje a la base de datos en las
+     * consultas por flujo
+     */
+    public int getStreamFetchSize()
+    {
+        return streamFetchSize;
+    }
+
+    /**
+     * Sets the stream fetch size. En MySQL no se utiliza, los renglones se reciben uno a uno.
+     *
+     * @param streamFetchSize el número de renglones que se leen en cada viaje a la base de datos
+     * en las consultas por flujo, 0 para usar el del manejador
+     */
+    public void setStreamFetchSize(int streamFetchSize)
+    {
+        this.streamFetchSize = streamFetchSize;
+    }
+
+    /**
+     * Gets the query cache.
+     *
+     * @return el cache de resultados de consultas, nulo si no se utiliza
+     */
+    public QueryCache getQueryCache()
+    {
+        return queryCache;
+    }
+
+    /**
+     * Sets the query cache.
+     *
+     * @param queryCache el cache de resultados de consultas, nulo para no utilizarlo
+     */
+    public synchronized void setQueryCache(final QueryCache queryCache)
+    {
+        this.queryCache = queryCache;
+        stopQueryCacheCleaner();
+        if (queryCache != null && !closed && queryCache.getTtl() > 0)
+        {
+            // Los resultados vencidos se retiran aunque no se vuelvan a consultar
+            long period = Math.min(queryCache.getTtl(), 60);
+            try
+            {
+                queryCacheCleaner = manager.getScheduler().scheduleWithFixedDelay(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            queryCache.cleanUp();
+                        } catch (Exception e)
+                        {
+                            log.error("Error cleaning query cache of pool " + name, e);
+                        }
+                    }
+                }, period, period, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException e)
+            {
+                log.debug("Query cache cleaner of pool " + name + " not scheduled, manager closed");
+            }
+        }
+    }
+
+    /**
+     * Cancela la tarea que retira los resultados vencidos del cache de consultas.
+     */
+    private synchronized void stopQueryCacheCleaner()
+    {
+        if (queryCacheCleaner != null)
+        {
+            queryCacheCleaner.cancel(false);
+            queryCacheCleaner = null;
+        }
+    }
+
+    /**
+     * Gets the statement cache size.
+     *
+     * @return el número máximo de PreparedStatements en el cache de cada conexión
+     */
+    public int getStatementCacheSize()
+    {
+        return statementCacheSize;
+    }
+
+    /**
+     * Sets the statement cache size. Solo afecta a las conexiones que se creen despues.
+     *
+     * @param statementCacheSize el número máximo de PreparedStatements en el cache de cada
+     * conexión, 0 para no usar cache
+     */
+    public void setStatementCacheSize(int statementCacheSize)
+    {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Checks if is trace parameters.
+     *
+     * @return true, si los PreparedStatements registran sus parámetros
+     */
+    public boolean isTraceParameters()
+    {
+        return traceParameters;
+    }
+
+    /**
+     * Indica si los PreparedStatements registran sus parámetros para mostrarlos en la bitácora
+     * cuando una consulta falla. Se puede cambiar en ejecución, afecta a los statements que se
+     * creen despues.
+     *
+     * @param traceParameters true, para registrar los parámetros
+     */
+    public void setTraceParameters(boolean traceParameters)
+    {
+        this.traceParameters = traceParameters;
+    }
+
+    /**
+     * Gets the leak detection.
+     *
+     * @return el modo de detección de conexiones no liberadas
+     */
+    public LeakDetection getLeakDetection()
+    {
+        return leakDetection;
+    }
+
+    /**
+     * Sets the leak detection.
+     *
+     * @param leakDetection el modo de detección de conexiones no liberadas
+     */
+    public void setLeakDetection(LeakDetection leakDetection)
+    {
+        this.leakDetection = leakDetection != null ? leakDetection : LeakDetection.OFF;
+    }
+
+    /**
+     * Gets the leak sample rate.
+     *
+     * @return en modo SAMPLED, cada cuantas conexiones asignadas se captura el stack
+     */
+    public int getLeakSampleRate()
+    {
+        return leakSampleRate;
+    }
+
+    /**
+     * Sets the leak sample rate.
+     *
+     * @param leakSampleRate en modo SAMPLED, cada cuantas conexiones asignadas se captura el
+     * stack, 1 para todas
+     */
+    public void setLeakSampleRate(int leakSampleRate)
+    {
+        this.leakSampleRate = Math.max(1, leakSampleRate);
+    }
+
+    /**
+     * Gets the leak threshold.
+     *
+     * @return el tiempo en segundos que un cliente puede retener una conexión antes de reportarla
+     */
+    public long getLeakThreshold()
+    {
+        return leakThreshold / 1000;
+    }
+
+    /**
+     * Sets the leak threshold.
+     *
+     * @param leakThreshold el tiempo en segundos que un cliente puede retener una conexión antes
+     * de reportarla
+     */
+    public void setLeakThreshold(long leakThreshold)
+    {
+        this.leakThreshold = leakThreshold * 1000;
+    }
+
+    /**
+     * Gets the max lease.
+     *
+     * @return el tiempo en segundos tras el cual una conexión retenida se cierra
+     */
+    public long getMaxLease()
+    {
+        return maxLease / 1000;
+    }
+
+    /**
+     * Sets the max lease. Las conexiones retenidas más de este tiempo se cierran y su lugar se
+     * libera en el pool, el cliente recibirá un error al intentar usarlas.
+     *
+     * @param maxLease el tiempo en segundos tras el cual una conexión retenida se cierra, 0 para
+     * nunca cerrarla
+     */
+    public void setMaxLease(long maxLease)
+    {
+        this.maxLease = maxLease * 1000;
+    }
+
+    /**
+     * Indica si se debe capturar el stack del hilo al asignarle una conexión.
+     *
+     * @return true, si se debe capturar el stack
+     */
+    boolean captureCheckoutStack()
+    {
+        return leakDetection == LeakDetection.SAMPLED
+                && (leakSampleRate <= 1 || ThreadLocalRandom.current().nextInt(leakSampleRate) == 0);
+    }
+
+    /**
+     * Regresa el número de conexiones físicas abiertas por el pool, asignadas o libres.
+     *
+     * @return el número de conexiones abiertas
+     */
+    public int getTotalConnections()
+    {
+        return totalConnections.get();
+    }
+
+    /**
+     * Regresa el número de conexiones asignadas a algún cliente.
+     *
+     * @return el número de conexiones en uso
+     */
+    public int getActiveConnections()
+    {
+        return activeConnections.get();
+    }
+
+    /**
+     * Regresa el número de conexiones libres en el pool.
+     *
+     * @return el número de conexiones libres
+     */
+    public int getIdleConnections()
+    {
+        return idleConnections.get();
+    }
+
+    /**
+     * Regresa un DataSource que entrega conexiones de este pool, para las librerías que
+     * requieren un DataSource.
+     *
+     * @return el DataSource del pool
+     */
+    public PoolDataSource getDataSource()
+    {
+        return dataSource;
+    }
+
+    /**
+     * Regresa las métricas del pool, que se pueden consultar directamente o copiar con
+     * {@link PoolMetrics#snapshot()}.
+     *
+     * @return las métricas del pool
+     */
+    public PoolMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Gets the circuit breaker.
+     *
+     * @return el interruptor que evita intentar conexiones mientras la base de datos no está disponible
+     */
+    public CircuitBreaker getCircuitBreaker()
+    {
+        return circuitBreaker;
+    }
+
+    /**
+     * Regresa las estadísticas de ejecución de las sentencias del pool, agrupadas por huella.
+     *
+     * @return las estadísticas
+     */
+    public QueryStats getQueryStats()
+    {
+        return queryStats;
+    }
+
+    /**
+     * Regresa la descripción de la base de datos del pool. Se obtiene al crear la primera
+     * conexión, si aún no hay conexiones se solicita una.
+     *
+     * @return la descripción, o nulo si no se pudo obtener una conexión
+     */
+    public DatabaseDescriptor getDatabaseDescriptor()
+    {
+        DatabaseDescriptor ret = databaseDescriptor;
+        if (ret == null)
+        {
+            try
+            {
+                Connection con = dataSource.getConnection();
+                try
+                {
+                    ret = getDatabaseDescriptor(con);
+                } finally
+                {
+                    con.close();
+                }
+            } catch (SQLException e)
+            {
+                log.error("Can't read database metadata of pool " + name, e);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Regresa la descripción de la base de datos, obteniéndola de la conexión si aún no se tiene.
+     *
+     * @param con una conexión del pool
+     * @return la descripción
+     * @throws SQLException si no se pudieron leer los metadatos
+     */
+    DatabaseDescriptor getDatabaseDescriptor(Connection con) throws SQLException
+    {
+        DatabaseDescriptor ret = databaseDescriptor;
+        if (ret == null)
+        {
+            ret = new DatabaseDescriptor(con.getMetaData());
+            databaseDescriptor = ret;
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the reconnect delay.
+     *
+     * @return los milisegundos de espera tras el primer intento fallido de reconexión
+     */
+    public long getReconnectDelay()
+    {
+        return reconnectDelay;
+    }
+
+    /**
+     * Sets the reconnect delay. La espera se duplica con cada intento fallido consecutivo de una
+     * AutoConnection, hasta maxReconnectDelay.
+     *
+     * @param reconnectDelay los milisegundos de espera tras el primer intento fallido de reconexión
+     */
+    public void setReconnectDelay(long reconnectDelay)
+    {
+        this.reconnectDelay = Math.max(1, reconnectDelay);
+    }
+
+    /**
+     * Gets the max reconnect delay.
+     *
+     * @return los milisegundos máximos de espera entre intentos de reconexión
+     */
+    public long getMaxReconnectDelay()
+    {
+        return maxReconnectDelay;
+    }
+
+    /**
+     * Sets the max reconnect delay.
+     *
+     * @param maxReconnectDelay los milisegundos máximos de espera entre intentos de reconexión
+     */
+    public void setMaxReconnectDelay(long maxReconnectDelay)
+    {
+        this.maxReconnectDelay = Math.max(1, maxReconnectDelay);
+    }
+
+    /**
+     * Gets the slow query time.
+     *
+     * @return los milisegundos a partir de los cuales una sentencia se reporta como lenta
+     */
+    public long getSlowQueryTime()
+    {
+        return slowQueryTime;
+    }
+
+    /**
+     * Sets the slow query time. Las sentencias lentas se reportan en la bitácora con sus
+     * parámetros y la descripción de la conexión.
+     *
+     * @param slowQueryTime los milisegundos a partir de los cuales una sentencia se reporta
+     * como lenta, 0 para no reportarlas
+     */
+    public void setSlowQueryTime(long slowQueryTime)
+    {
+        this.slowQueryTime = slowQueryTime;
+    }
+
+    /**
+     * Regresa el número de hilos que esperan una conexión de este pool.
+     *
+     * @return el número de hilos en espera
+     */
+    public int getWaitingThreads()
+    {
+        return waiting.get();
+    }
+
+    /**
+     * Un hilo en espera de una conexión. El hilo se estaciona hasta que {@link #freeConnection(Connection)}
+     * le entrega una conexión, se le indica que reintente o se agota su tiempo de espera. El hilo
+     * permanece en la cola mientras espera, aunque reintente varias veces.
+     */
+    private static final class ConnectionWaiter
+    {
+        /** Indica que el hilo debe volver a intentar obtener una conexión. */
+        private static final Object RETRY = new Object();
+
+        /** Indica que el hilo dejo de esperar. */
+        private static final Object CANCELLED = new Object();
+
+        /** The thread. */
+        private final Thread thread = Thread.currentThread();
+
+        /** La conexión entregada o el estado del hilo, nulo mientras espera. */
+        private final AtomicReference<Object> slot = new AtomicReference<Object>();
+
+        /**
+         * Checks if is waiting.
+         *
+         * @return true, if is waiting
+         */
+        boolean isWaiting()
+        {
+            return slot.get() == null;
+        }
+
+        /**
+         * Checks if is handed off.
+         *
+         * @return true, si el hilo recibió una conexión
+         */
+        boolean isHandedOff()
+        {
+            return slot.get() instanceof PoolConnection;
+        }
+
+        /**
+         * Entrega la conexión al hilo en espera, aunque se le haya indicado que reintente.
+         *
+         * @param con the con
+         * @return true, si el hilo la recibió
+         */
+        boolean handOff(PoolConnection con)
+        {
+            Object state = slot.get();
+            if ((state == null || state == RETRY) && slot.compareAndSet(state, con))
+            {
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Despierta al hilo para que reintente obtener una conexión.
+         *
+         * @return true, si el hilo seguia esperando
+         */
+        boolean signal()
+        {
+            if (slot.compareAndSet(null, RETRY))
+            {
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Atiende la indicación de reintentar, el hilo vuelve a esperar en el mismo lugar de la
+         * cola.
+         *
+         * @return true, si se le indicó que reintentara
+         */
+        boolean reset()
+        {
+            return slot.compareAndSet(RETRY, null);
+        }
+
+        /**
+         * Termina la espera.
+         *
+         * @return la conexión entregada al hilo, o nulo si no recibió ninguna
+         */
+        PoolConnection cancel()
+        {
+            while (true)
+            {
+                Object state = slot.get();
+                if (state instanceof PoolConnection)
+                {
+                    return (PoolConnection) state;
+                }
+                if (state == CANCELLED || slot.compareAndSet(state, CANCELLED))
+                {
+                    return null;
+                }
+            }
+        }
     }
 
 }
@@ -0,0 +1,294 @@
+/*
+ * SemanticWebBuilder es una plataforma para el desarrollo de portales y aplicaciones de integración,
+ * colaboración y conocimiento, que gracias al uso de tecnología semántica puede generar contextos de
+ * información alrededor de algún tema de interés o bien integrar información y aplicaciones de diferentes
+ * fuentes, donde a la información se le asigna un significado, de forma que pueda ser interpretada y
+ * procesada por personas y/o sistemas, es una creación original del Fondo de Información y Documentación
+ * para la Industria INFOTEC, cuyo registro se encuentra actualmente en trámite.
+ *
+ * INFOTEC pone a su disposición la herramienta SemanticWebBuilder a través de su licenciamiento abierto al público (‘open source’),
+ * en virtud del cual, usted podrá usarlo en las mismas condiciones con que INFOTEC lo ha diseñado y puesto a su disposición;
+ * aprender de él; distribuirlo a terceros; acceder a su código fuente y modificarlo, y combinarlo o enlazarlo con otro software,
+ * todo ello de conformidad con los términos y condiciones de la LICENCIA ABIERTA AL PÚBLICO que otorga INFOTEC para la utilización
+ * del SemanticWebBuilder 4.0.
+ *
+ * INFOTEC no otorga garantía sobre SemanticWebBuilder, de ninguna especie y naturaleza, ni implícita ni explícita,
+ * siendo usted completamente responsable de la utilización que le dé y asumiendo la totalidad de los riesgos que puedan derivar
+ * de la misma.
+ *
+ * Si usted tiene cualquier duda o comentario sobre SemanticWebBuilder, INFOTEC pone a su disposición la siguiente
+ * dirección electrónica:
+ *  http://www.semanticwebbuilder.org
+ */
+package org.semanticwb.base.db;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.semanticwb.Logger;
+import org.semanticwb.SWBUtils;
+
+/**
+ * Pool que separa lecturas de escrituras. Las conexiones de {@link #getConnection()} se obtienen
+ * de la base de datos principal definida por el propio pool, las de {@link #getReadConnection()}
+ * de la réplica con menos conexiones en uso. Una réplica que no puede abrir conexiones varias
+ * veces seguidas se excluye durante un tiempo, y si no hay réplicas disponibles las lecturas se
+ * envían a la principal.
+ * <PRE>
+ * swb.url=jdbc:mysql://primary/swb
+ * swb.replicas=swb_r1,swb_r2
+ * swb_r1.url=jdbc:mysql://replica1/swb
+ * swb_r2.url=jdbc:mysql://replica2/swb
+ * </PRE>
+ */
+public class DBRoutingPool extends DBConnectionPool
+{
+
+    /** The log. */
+    private static Logger log = SWBUtils.getLogger(DBRoutingPool.class);
+
+    /** The replicas. */
+    private final List<Replica> replicas = new CopyOnWriteArrayList<Replica>();
+
+    /** Número de fallos seguidos tras los cuales se excluye una réplica. */
+    private int maxReplicaFailures = 3;
+
+    /** Tiempo en milisegundos que una réplica permanece excluida. */
+    private long replicaEjectTime = 30000L;
+
+    /**
+     * Crea un nuevo pool con separación de lecturas.
+     *
+     * @param manager the manager
+     * @param name      El nombre del pool
+     * @param URL       El URL JDBC de la base de datos principal.
+     * @param user      Un usuario de la base de datos o nulo.
+     * @param password  El password del usuario de la base de datos o nulo.
+     * @param maxConn   El número máximo de conexiones o 0 para definir que no tenga límite.
+     * @param idle_time the idle_time
+     */
+    public DBRoutingPool(DBConnectionManager manager, String name, String URL, String user, String password,
+            int maxConn, long idle_time)
+    {
+        super(manager, name, URL, user, password, maxConn, idle_time);
+    }
+
+    /**
+     * Agrega una réplica.
+     *
+     * @param pool el pool de la réplica
+     */
+    public void addReplica(DBConnectionPool pool)
+    {
+        if (pool != null && pool != this)
+        {
+            replicas.add(new Replica(pool));
+        }
+    }
+
+    /**
+     * Retira una réplica, las lecturas en curso terminan normalmente.
+     *
+     * @param pool el pool de la réplica
+     * @return true, si la réplica estaba asignada
+     */
+    public boolean removeReplica(DBConnectionPool pool)
+    {
+        for (Replica replica : replicas)
+        {
+            if (replica.pool == pool)
+            {
+                return replicas.remove(replica);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the replicas.
+     *
+     * @return los pools de las réplicas
+     */
+    public List<DBConnectionPool> getReplicas()
+    {
+        List<DBConnectionPool> ret = new ArrayList<DBConnectionPool>();
+        for (Replica replica : replicas)
+        {
+            ret.add(replica.pool);
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * Obtiene una conexión para lecturas de la réplica disponible con menos conexiones en uso, o
+     * de la base de datos principal si no hay réplicas disponibles.
+     *
+     * @return la conexión o nulo
+     */
+    public Connection getReadConnection()
+    {
+        return getReadConnection(0);
+    }
+
+    /**
+     * Obtiene una conexión para lecturas de la réplica disponible con menos conexiones en uso, o
+     * de la base de datos principal si no hay réplicas disponibles. Si la réplica está agotada
+     * espera el tiempo especificado, que se reparte entre las réplicas y la base de datos
+     * principal que se intenten.
+     *
+     * @param timeout El valor del timeout en milisegundos.
+     * @return la conexión o nulo
+     */
+    public Connection getReadConnection(long timeout)
+    {
+        long now = System.currentTimeMillis();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(timeout, 0));
+        List<Replica> tried = null;
+        while (true)
+        {
+            // Cada intento espera solo el tiempo restante, al agotarse se intenta sin esperar
+            long wait = timeout > 0 ? TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) : 0;
+            Replica best = null;
+            int bestLoad = Integer.MAX_VALUE;
+            for (Replica replica : replicas)
+            {
+                if (replica.ejectedUntil > now || (tried != null && tried.contains(replica)))
+                {
+                    continue;
+                }
+                int load = replica.pool.getActiveConnections() + replica.pool.getWaitingThreads();
+                if (load < bestLoad)
+                {
+                    best = replica;
+                    bestLoad = load;
+                }
+            }
+            if (best == null)
+            {
+                return wait > 0 ? getConnection(wait) : getConnection();
+            }
+            long failures = best.pool.getMetrics().getConnectionFailures();
+            Connection con = wait > 0 ? best.pool.getConnection(wait) : best.pool.getConnection();
+            if (con != null)
+            {
+                best.failures.set(0);
+                return con;
+            }
+            if (best.pool.getMetrics().getConnectionFailures() > failures)
+            {
+                replicaFailed(best, now);
+            }
+            if (tried == null)
+            {
+                tried = new ArrayList<Replica>();
+            }
+            tried.add(best);
+        }
+    }
+
+    /**
+     * Registra un fallo al abrir una conexión en la réplica y la excluye si se alcanzó el número
+     * de fallos seguidos.
+     *
+     * @param replica the replica
+     * @param now el tiempo actual en milisegundos
+     */
+    private void replicaFailed(Replica replica, long now)
+    {
+        if (replica.failures.incrementAndGet() >= maxReplicaFailures)
+        {
+            replica.failures.set(0);
+            replica.ejectedUntil = now + replicaEjectTime;
+            log.warn("Replica " + replica.pool.getName() + " of pool " + getName() + " ejected for "
+                    + (replicaEjectTime / 1000) + "s");
+        }
+    }
+
+    /**
+     * Checks if is replica available.
+     *
+     * @param pool el pool de la réplica
+     * @return true, si la réplica recibe lecturas
+     */
+    public boolean isReplicaAvailable(DBConnectionPool pool)
+    {
+        for (Replica replica : replicas)
+        {
+            if (replica.pool == pool)
+            {
+                return replica.ejectedUntil <= System.currentTimeMillis();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the max replica failures.
+     *
+     * @return el número de fallos seguidos tras los cuales se excluye una réplica
+     */
+    public int getMaxReplicaFailures()
+    {
+        return maxReplicaFailures;
+    }
+
+    /**
+     * Sets the max replica failures.
+     *
+     * @param maxReplicaFailures el número de fallos seguidos tras los cuales se excluye una réplica
+     */
+    public void setMaxReplicaFailures(int maxReplicaFailures)
+    {
+        this.maxReplicaFailures = Math.max(1, maxReplicaFailures);
+    }
+
+    /**
+     * Gets the replica eject time.
+     *
+     * @return el tiempo en segundos que una réplica permanece excluida
+     */
+    public long getReplicaEjectTime()
+    {
+        return replicaEjectTime / 1000;
+    }
+
+    /**
+     * Sets the replica eject time.
+     *
+     * @param replicaEjectTime el tiempo en segundos que una réplica permanece excluida
+     */
+    public void setReplicaEjectTime(long replicaEjectTime)
+    {
+        this.replicaEjectTime = replicaEjectTime * 1000;
+    }
+
+    /**
+     * Una réplica y su estado.
+     */
+    private static final class Replica
+    {
+
+        /** The pool. */
+        private final DBConnectionPool pool;
+
+        /** Los fallos seguidos al abrir conexiones. */
+        private final AtomicInteger failures = new AtomicInteger();
+
+        /** El momento en milisegundos hasta el que la réplica está excluida. */
+        private volatile long ejectedUntil = 0;
+
+        /**
+         * Instantiates a new replica.
+         *
+         * @param pool the pool
+         */
+        private Replica(DBConnectionPool pool)
+        {
+            this.pool = pool;
+        }
+    }
+}
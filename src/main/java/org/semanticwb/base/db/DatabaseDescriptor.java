@@ -0,0 +1,344 @@
+/*
+ * SemanticWebBuilder es una plataforma para el desarrollo de portales y aplicaciones de integración,
+ * colaboración y conocimiento, que gracias al uso de tecnología semántica puede generar contextos de
+ * información alrededor de algún tema de interés o bien integrar información y aplicaciones de diferentes
+ * fuentes, donde a la información se le asigna un significado, de forma que pueda ser interpretada y
+ * procesada por personas y/o sistemas, es una creación original del Fondo de Información y Documentación
+ * para la Industria INFOTEC, cuyo registro se encuentra actualmente en trámite.
+ *
+ * INFOTEC pone a su disposición la herramienta SemanticWebBuilder a través de su licenciamiento abierto al público (‘open source’),
+ * en virtud del cual, usted podrá usarlo en las mismas condiciones con que INFOTEC lo ha diseñado y puesto a su disposición;
+ * aprender de él; distribuirlo a terceros; acceder a su código fuente y modificarlo, y combinarlo o enlazarlo con otro software,
+ * todo ello de conformidad con los términos y condiciones de la LICENCIA ABIERTA AL PÚBLICO que otorga INFOTEC para la utilización
+ * del SemanticWebBuilder 4.0.
+ *
+ * INFOTEC no otorga garantía sobre SemanticWebBuilder, de ninguna especie y naturaleza, ni implícita ni explícita,
+ * siendo usted completamente responsable de la utilización que le dé y asumiendo la totalidad de los riesgos que puedan derivar
+ * de la misma.
+ *
+ * Si usted tiene cualquier duda o comentario sobre SemanticWebBuilder, INFOTEC pone a su disposición la siguiente
+ * dirección electrónica:
+ *  http://www.semanticwebbuilder.org
+ */
+package org.semanticwb.base.db;
+
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Locale;
+import org.semanticwb.Logger;
+import org.semanticwb.SWBUtils;
+
+/**
+ * Descripción de la base de datos de un pool: producto, versión, manejador y capacidades. Se
+ * obtiene una sola vez de los metadatos de la primera conexión del pool, para no solicitar una
+ * conexión y consultar los metadatos cada vez que se requiere el tipo de base de datos.
+ */
+public final class DatabaseDescriptor
+{
+
+    /** The log. */
+    private static Logger log = SWBUtils.getLogger(DatabaseDescriptor.class);
+
+    /** The product name. */
+    private final String productName;
+
+    /** The product version. */
+    private final String productVersion;
+
+    /** The major version. */
+    private final int majorVersion;
+
+    /** The minor version. */
+    private final int minorVersion;
+
+    /** The driver name. */
+    private final String driverName;
+
+    /** The driver version. */
+    private final String driverVersion;
+
+    /** El tipo de base de datos, ver {@link #getType()}. */
+    private final String type;
+
+    /** The batch updates. */
+    private final boolean batchUpdates;
+
+    /** The generated keys. */
+    private final boolean generatedKeys;
+
+    /** The savepoints. */
+    private final boolean savepoints;
+
+    /**
+     * Instantiates a new database descriptor. Solo el nombre del producto es indispensable; si el
+     * manejador no soporta alguno de los demás metadatos, por ejemplo un manejador anterior a
+     * JDBC 3, se usa el valor por omisión (nulo, 0 o false) y la descripción se conserva.
+     *
+     * @param md los metadatos de una conexión
+     * @throws SQLException si no se pudo leer el nombre del producto
+     */
+    DatabaseDescriptor(DatabaseMetaData md) throws SQLException
+    {
+        productName = md.getDatabaseProductName();
+        type = resolveType(productName);
+
+        String version = null;
+        try
+        {
+            version = md.getDatabaseProductVersion();
+        } catch (Exception e)
+        {
+            unsupported(md, "getDatabaseProductVersion", e);
+        } catch (AbstractMethodError e)
+        {
+            unsupported(md, "getDatabaseProductVersion", e);
+        }
+        productVersion = version;
+
+        int major = 0;
+        try
+        {
+            major = md.getDatabaseMajorVersion();
+        } catch (Exception e)
+        {
+            unsupported(md, "getDatabaseMajorVersion", e);
+        } catch (AbstractMethodError e)
+        {
+            unsupported(md, "getDatabaseMajorVersion", e);
+        }
+        majorVersion = major;
+
+        int minor = 0;
+        try
+        {
+            minor = md.getDatabaseMinorVersion();
+        } catch (Exception e)
+        {
+            unsupported(md, "getDatabaseMinorVersion", e);
+        } catch (AbstractMethodError e)
+        {
+            unsupported(md, "getDatabaseMinorVersion", e);
+        }
+        minorVersion = minor;
+
+        String driver = null;
+        try
+        {
+            driver = md.getDriverName();
+        } catch (Exception e)
+        {
+            unsupported(md, "getDriverName", e);
+        } catch (AbstractMethodError e)
+        {
+            unsupported(md, "getDriverName", e);
+        }
+        driverName = driver;
+
+        String driverVer = null;
+        try
+        {
+            driverVer = md.getDriverVersion();
+        } catch (Exception e)
+        {
+            unsupported(md, "getDriverVersion", e);
+        } catch (AbstractMethodError e)
+        {
+            unsupported(md, "getDriverVersion", e);
+        }
+        driverVersion = driverVer;
+
+        boolean batch = false;
+        try
+        {
+            batch = md.supportsBatchUpdates();
+        } catch (Exception e)
+        {
+            unsupported(md, "supportsBatchUpdates", e);
+        } catch (AbstractMethodError e)
+        {
+            unsupported(md, "supportsBatchUpdates", e);
+        }
+        batchUpdates = batch;
+
+        boolean keys = false;
+        try
+        {
+            keys = md.supportsGetGeneratedKeys();
+        } catch (Exception e)
+        {
+            unsupported(md, "supportsGetGeneratedKeys", e);
+        } catch (AbstractMethodError e)
+        {
+            unsupported(md, "supportsGetGeneratedKeys", e);
+        }
+        generatedKeys = keys;
+
+        boolean points = false;
+        try
+        {
+            points = md.supportsSavepoints();
+        } catch (Exception e)
+        {
+            unsupported(md, "supportsSavepoints", e);
+        } catch (AbstractMethodError e)
+        {
+            unsupported(md, "supportsSavepoints", e);
+        }
+        savepoints = points;
+    }
+
+    /**
+     * Registra un metadato que el manejador no pudo proporcionar.
+     *
+     * @param md los metadatos de la conexión
+     * @param method el método de DatabaseMetaData que falló
+     * @param e el error
+     */
+    private static void unsupported(DatabaseMetaData md, String method, Throwable e)
+    {
+        log.debug("DatabaseMetaData." + method + " not supported by " + md.getClass().getName() + ", using default", e);
+    }
+
+    /**
+     * Identifica el tipo de base de datos a partir del nombre del producto.
+     *
+     * @param productName el nombre del producto
+     * @return uno de los identificadores SWBUtils.DB.DBTYPE_*, o el nombre del producto si no
+     * se reconoce
+     */
+    private static String resolveType(String productName)
+    {
+        if (productName == null)
+        {
+            return null;
+        }
+        String name = productName.toLowerCase(Locale.ENGLISH);
+        if (name.contains("hsql"))
+        {
+            return SWBUtils.DB.DBTYPE_HSQLDB;
+        } else if (name.contains("mysql"))
+        {
+            return SWBUtils.DB.DBTYPE_MySQL;
+        } else if (name.contains("mssql"))
+        {
+            return SWBUtils.DB.DBTYPE_MsSQL;
+        } else if (name.contains("oracle"))
+        {
+            return SWBUtils.DB.DBTYPE_Oracle;
+        } else if (name.contains("postgresql"))
+        {
+            return SWBUtils.DB.DBTYPE_PostgreSQL;
+        } else if (name.contains("derby"))
+        {
+            return SWBUtils.DB.DBTYPE_Derby;
+        }
+        return productName;
+    }
+
+    /**
+     * Gets the product name.
+     *
+     * @return el nombre del producto de base de datos
+     */
+    public String getProductName()
+    {
+        return productName;
+    }
+
+    /**
+     * Gets the product version.
+     *
+     * @return la versión del producto de base de datos
+     */
+    public String getProductVersion()
+    {
+        return productVersion;
+    }
+
+    /**
+     * Gets the major version.
+     *
+     * @return the major version
+     */
+    public int getMajorVersion()
+    {
+        return majorVersion;
+    }
+
+    /**
+     * Gets the minor version.
+     *
+     * @return the minor version
+     */
+    public int getMinorVersion()
+    {
+        return minorVersion;
+    }
+
+    /**
+     * Gets the driver name.
+     *
+     * @return el nombre del manejador JDBC
+     */
+    public String getDriverName()
+    {
+        return driverName;
+    }
+
+    /**
+     * Gets the driver version.
+     *
+     * @return la versión del manejador JDBC
+     */
+    public String getDriverVersion()
+    {
+        return driverVersion;
+    }
+
+    /**
+     * Regresa el tipo de base de datos, el mismo que {@link SWBUtils.DB#getDatabaseType(String)}.
+     *
+     * @return uno de los identificadores SWBUtils.DB.DBTYPE_*, o el nombre del producto si no
+     * se reconoce
+     */
+    public String getType()
+    {
+        return type;
+    }
+
+    /**
+     * Supports batch updates.
+     *
+     * @return true, si el manejador soporta executeBatch
+     */
+    public boolean supportsBatchUpdates()
+    {
+        return batchUpdates;
+    }
+
+    /**
+     * Supports generated keys.
+     *
+     * @return true, si el manejador regresa las llaves generadas
+     */
+    public boolean supportsGeneratedKeys()
+    {
+        return generatedKeys;
+    }
+
+    /**
+     * Supports savepoints.
+     *
+     * @return true, si el manejador soporta savepoints
+     */
+    public boolean supportsSavepoints()
+    {
+        return savepoints;
+    }
+
+    @Override
+    public String toString()
+    {
+        return productName + " " + productVersion + " (" + driverName + " " + driverVersion + ")";
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * SemanticWebBuilder es una plataforma para el desarrollo de portales y aplicaciones de integración,
+ * colaboración y conocimiento, que gracias al uso de tecnología semántica puede generar contextos de
+ * información alrededor de algún tema de interés o bien integrar información y aplicaciones de diferentes
+ * fuentes, donde a la información se le asigna un significado, de forma que pueda ser interpretada y
+ * procesada por personas y/o sistemas, es una creación original del Fondo de Información y Documentación
+ * para la Industria INFOTEC, cuyo registro se encuentra actualmente en trámite.
+ *
+ * INFOTEC pone a su disposición la herramienta SemanticWebBuilder a través de su licenciamiento abierto al público (‘open source’),
+ * en virtud del cual, usted podrá usarlo en las mismas condiciones con que INFOTEC lo ha diseñado y puesto a su disposición;
+ * aprender de él; distribuirlo a terceros; acceder a su código fuente y modificarlo, y combinarlo o enlazarlo con otro software,
+ * todo ello de conformidad con los términos y condiciones de la LICENCIA ABIERTA AL PÚBLICO que otorga INFOTEC para la utilización
+ * del SemanticWebBuilder 4.0.
+ *
+ * INFOTEC no otorga garantía sobre SemanticWebBuilder, de ninguna especie y naturaleza, ni implícita ni explícita,
+ * siendo usted completamente responsable de la utilización que le dé y asumiendo la totalidad de los riesgos que puedan derivar
+ * de la misma.
+ *
+ * Si usted tiene cualquier duda o comentario sobre SemanticWebBuilder, INFOTEC pone a su disposición la siguiente
+ * dirección electrónica:
+ *  http://www.semanticwebbuilder.org
+ */
+package org.semanticwb.base.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de tiempos en microsegundos con cubetas logarítmicas, cada potencia de 2 se divide
+ * en 16 sub cubetas, lo que da una precisión cercana al 6% con memoria fija. El registro de un
+ * valor no utiliza bloqueos ni crea objetos.
+ */
+public class LatencyHistogram
+{
+
+    /** Bits de las sub cubetas de cada potencia de 2. */
+    private static final int SUB_BITS = 4;
+
+    /** Número de sub cubetas por potencia de 2. */
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /** Mayor potencia de 2 registrada, los valores mayores se acumulan en la última cubeta. */
+    private static final int MAX_EXP = 40;
+
+    /** The counts. */
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_COUNT + (MAX_EXP - SUB_BITS + 1) * SUB_COUNT);
+
+    /** The count. */
+    private final LongAdder count = new LongAdder();
+
+    /** The total. */
+    private final LongAdder total = new LongAdder();
+
+    /** The max. */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Registra un valor.
+     *
+     * @param micros el tiempo en microsegundos
+     */
+    public void record(long micros)
+    {
+        if (micros < 0)
+        {
+            micros = 0;
+        }
+        counts.incrementAndGet(index(micros));
+        count.increment();
+        total.add(micros);
+        long m = max.get();
+        while (micros > m && !max.compareAndSet(m, micros))
+        {
+            m = max.get();
+        }
+    }
+
+    /**
+     * Registra un tiempo medido con System.nanoTime().
+     *
+     * @param startNanos el valor de System.nanoTime() al iniciar
+     */
+    public void recordSince(long startNanos)
+    {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Regresa la cubeta del valor.
+     *
+     * @param value the value
+     * @return the int
+     */
+    private static int index(long value)
+    {
+        if (value < SUB_COUNT)
+        {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        if (exp > MAX_EXP)
+        {
+            return SUB_COUNT + (MAX_EXP - SUB_BITS + 1) * SUB_COUNT - 1;
+        }
+        int shift = exp - SUB_BITS;
+        int sub = (int) (value >>> shift) - SUB_COUNT;
+        return SUB_COUNT + shift * SUB_COUNT + sub;
+    }
+
+    /**
+     * Regresa el mayor valor que cae en la cubeta.
+     *
+     * @param index the index
+     * @return the long
+     */
+    private static long upperBound(int index)
+    {
+        if (index < SUB_COUNT)
+        {
+            return index;
+        }
+        int shift = (index - SUB_COUNT) / SUB_COUNT;
+        int sub = (index - SUB_COUNT) % SUB_COUNT;
+        return ((long) (SUB_COUNT + sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Gets the count.
+     *
+     * @return el número de valores registrados
+     */
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    /**
+     * Gets the max.
+     *
+     * @return el mayor valor registrado
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Gets the total.
+     *
+     * @return la suma de los valores registrados
+     */
+    public long getTotal()
+    {
+        return total.sum();
+    }
+
+    /**
+     * Gets the mean.
+     *
+     * @return el promedio de los valores registrados
+     */
+    public long getMean()
+    {
+        long c = count.sum();
+        return c > 0 ? total.sum() / c : 0;
+    }
+
+    /**
+     * Calcula el percentil indicado.
+     *
+     * @param percentile el percentil, entre 0 y 100
+     * @return el valor del percentil, con la precisión de las cubetas
+     */
+    public long getPercentile(double percentile)
+    {
+        long c = 0;
+        int size = counts.length();
+        long[] snapshot = new long[size];
+        for (int i = 0; i < size; i++)
+        {
+            snapshot[i] = counts.get(i);
+            c += snapshot[i];
+        }
+        if (c == 0)
+        {
+            return 0;
+        }
+        long rank = (long) Math.ceil(c * Math.min(100, Math.max(0, percentile)) / 100.0);
+        if (rank < 1)
+        {
+            rank = 1;
+        }
+        long acc = 0;
+        for (int i = 0; i < size; i++)
+        {
+            acc += snapshot[i];
+            if (acc >= rank)
+            {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Elimina los valores registrados.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < counts.length(); i++)
+        {
+            counts.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+
+    /**
+     * Regresa una copia de los valores principales del histograma.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot()
+    {
+        return new Snapshot(getCount(), getMean(), getPercentile(50), getPercentile(90), getPercentile(99), getMax());
+    }
+
+    /**
+     * Valores principales de un histograma en microsegundos.
+     */
+    public static final class Snapshot
+    {
+
+        /** The count. */
+        private final long count;
+
+        /** The mean. */
+        private final long mean;
+
+        /** The p50. */
+        private final long p50;
+
+        /** The p90. */
+        private final long p90;
+
+        /** The p99. */
+        private final long p99;
+
+        /** The max. */
+        private final long max;
+
+        /**
+         * Instantiates a new snapshot.
+         *
+         * @param count the count
+         * @param mean the mean
+         * @param p50 the p50
+         * @param p90 the p90
+         * @param p99 the p99
+         * @param max the max
+         */
+        public Snapshot(long count, long mean, long p50, long p90, long p99, long max)
+        {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        /**
+         * Gets the count.
+         *
+         * @return the count
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Gets the mean.
+         *
+         * @return the mean
+         */
+        public long getMean()
+        {
+            return mean;
+        }
+
+        /**
+         * Gets the p50.
+         *
+         * @return the p50
+         */
+        public long getP50()
+        {
+            return p50;
+        }
+
+        /**
+         * Gets the p90.
+         *
+         * @return the p90
+         */
+        public long getP90()
+        {
+            return p90;
+        }
+
+        /**
+         * Gets the p99.
+         *
+         * @return the p99
+         */
+        public long getP99()
+        {
+            return p99;
+        }
+
+        /**
+         * Gets the max.
+         *
+         * @return the max
+         */
+        public long getMax()
+        {
+            return max;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "count=" + count + ", mean=" + mean + "us, p50=" + p50 + "us, p90=" + p90 + "us, p99=" + p99 + "us, max=" + max + "us";
+        }
+    }
+}
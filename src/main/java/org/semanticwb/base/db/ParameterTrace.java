@@ -0,0 +1,307 @@
+/*
+ * SemanticWebBuilder es una plataforma para el desarrollo de portales y aplicaciones de integración,
+ * colaboración y conocimiento, que gracias al uso de tecnología semántica puede generar contextos de
+ * información alrededor de algún tema de interés o bien integrar información y aplicaciones de diferentes
+ * fuentes, donde a la información se le asigna un significado, de forma que pueda ser interpretada y
+ * procesada por personas y/o sistemas, es una creación original del Fondo de Información y Documentación
+ * para la Industria INFOTEC, cuyo registro se encuentra actualmente en trámite.
+ *
+ * INFOTEC pone a su disposición la herramienta SemanticWebBuilder a través de su licenciamiento abierto al público (‘open source’),
+ * en virtud del cual, usted podrá usarlo en las mismas condiciones con que INFOTEC lo ha diseñado y puesto a su disposición;
+ * aprender de él; distribuirlo a terceros; acceder a su código fuente y modificarlo, y combinarlo o enlazarlo con otro software,
+ * todo ello de conformidad con los términos y condiciones de la LICENCIA ABIERTA AL PÚBLICO que otorga INFOTEC para la utilización
+ * del SemanticWebBuilder 4.0.
+ *
+ * INFOTEC no otorga garantía sobre SemanticWebBuilder, de ninguna especie y naturaleza, ni implícita ni explícita,
+ * siendo usted completamente responsable de la utilización que le dé y asumiendo la totalidad de los riesgos que puedan derivar
+ * de la misma.
+ *
+ * Si usted tiene cualquier duda o comentario sobre SemanticWebBuilder, INFOTEC pone a su disposición la siguiente
+ * dirección electrónica:
+ *  http://www.semanticwebbuilder.org
+ */
+package org.semanticwb.base.db;
+
+import java.util.Arrays;
+
+/**
+ * Registro de los parámetros asignados a un PreparedStatement, para mostrarlos en la bitácora
+ * junto con la consulta. Los valores se guardan en arreglos preasignados sin convertirlos a
+ * texto, la cadena solo se construye cuando se llama a {@link #toString()}.
+ */
+public final class ParameterTrace
+{
+
+    /** Tipos de valor. */
+    private static final byte NONE = 0, NULL = 1, BOOLEAN = 2, LONG = 3, FLOAT = 4, DOUBLE = 5, OBJECT = 6, STREAM = 7;
+
+    /** Longitud máxima de un valor de texto al mostrarlo. */
+    private static final int MAX_TEXT = 200;
+
+    /** The types. */
+    private byte[] types;
+
+    /** Los valores primitivos. */
+    private long[] values;
+
+    /** Los valores objeto. */
+    private Object[] objects;
+
+    /** El número de parámetros, el mayor índice asignado. */
+    private int count = 0;
+
+    /**
+     * Instantiates a new parameter trace.
+     */
+    public ParameterTrace()
+    {
+        this(16);
+    }
+
+    /**
+     * Instantiates a new parameter trace.
+     *
+     * @param capacity el número de parámetros preasignados
+     */
+    public ParameterTrace(int capacity)
+    {
+        types = new byte[capacity];
+        values = new long[capacity];
+        objects = new Object[capacity];
+    }
+
+    /**
+     * Regresa la posición del parámetro en los arreglos, creciendolos si es necesario.
+     *
+     * @param parameterIndex el índice del parámetro, iniciando en 1
+     * @return la posición o -1 si el índice es inválido
+     */
+    private int slot(int parameterIndex)
+    {
+        int i = parameterIndex - 1;
+        if (i < 0)
+        {
+            return -1;
+        }
+        if (i >= types.length)
+        {
+            int size = Math.max(i + 1, types.length * 2);
+            types = Arrays.copyOf(types, size);
+            values = Arrays.copyOf(values, size);
+            objects = Arrays.copyOf(objects, size);
+        }
+        if (i >= count)
+        {
+            count = i + 1;
+        }
+        objects[i] = null;
+        return i;
+    }
+
+    /**
+     * Registra un parámetro nulo.
+     *
+     * @param parameterIndex the parameter index
+     * @param sqlType the sql type
+     */
+    void setNull(int parameterIndex, int sqlType)
+    {
+        int i = slot(parameterIndex);
+        if (i >= 0)
+        {
+            types[i] = NULL;
+            values[i] = sqlType;
+        }
+    }
+
+    /**
+     * Registra un parámetro boolean.
+     *
+     * @param parameterIndex the parameter index
+     * @param x the x
+     */
+    void set(int parameterIndex, boolean x)
+    {
+        int i = slot(parameterIndex);
+        if (i >= 0)
+        {
+            types[i] = BOOLEAN;
+            values[i] = x ? 1 : 0;
+        }
+    }
+
+    /**
+     * Registra un parámetro entero (byte, short, int o long).
+     *
+     * @param parameterIndex the parameter index
+     * @param x the x
+     */
+    void set(int parameterIndex, long x)
+    {
+        int i = slot(parameterIndex);
+        if (i >= 0)
+        {
+            types[i] = LONG;
+            values[i] = x;
+        }
+    }
+
+    /**
+     * Registra un parámetro float.
+     *
+     * @param parameterIndex the parameter index
+     * @param x the x
+     */
+    void set(int parameterIndex, float x)
+    {
+        int i = slot(parameterIndex);
+        if (i >= 0)
+        {
+            types[i] = FLOAT;
+            values[i] = Float.floatToRawIntBits(x);
+        }
+    }
+
+    /**
+     * Registra un parámetro double.
+     *
+     * @param parameterIndex the parameter index
+     * @param x the x
+     */
+    void set(int parameterIndex, double x)
+    {
+        int i = slot(parameterIndex);
+        if (i >= 0)
+        {
+            types[i] = DOUBLE;
+            values[i] = Double.doubleToRawLongBits(x);
+        }
+    }
+
+    /**
+     * Registra un parámetro objeto, la conversión a texto se realiza hasta mostrarlo.
+     *
+     * @param parameterIndex the parameter index
+     * @param x the x
+     */
+    void set(int parameterIndex, Object x)
+    {
+        int i = slot(parameterIndex);
+        if (i >= 0)
+        {
+            types[i] = x == null ? NULL : OBJECT;
+            values[i] = 0;
+            objects[i] = x;
+        }
+    }
+
+    /**
+     * Registra un parámetro de tipo stream, cuyo contenido no se muestra.
+     *
+     * @param parameterIndex the parameter index
+     */
+    void setStream(int parameterIndex)
+    {
+        int i = slot(parameterIndex);
+        if (i >= 0)
+        {
+            types[i] = STREAM;
+        }
+    }
+
+    /**
+     * Elimina los parámetros registrados, conservando los arreglos.
+     */
+    public void clear()
+    {
+        Arrays.fill(types, 0, count, NONE);
+        Arrays.fill(objects, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * Gets the size.
+     *
+     * @return el número de parámetros, el mayor índice asignado
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Muestra los parámetros con el formato [1=valor, 2='texto', 3=NULL].
+     *
+     * @return los parámetros como texto
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder ret = new StringBuilder(count * 12 + 2);
+        ret.append('[');
+        for (int i = 0; i < count; i++)
+        {
+            if (i > 0)
+            {
+                ret.append(", ");
+            }
+            ret.append(i + 1).append('=');
+            switch (types[i])
+            {
+                case NONE:
+                    ret.append('?');
+                    break;
+                case NULL:
+                    ret.append("NULL");
+                    break;
+                case BOOLEAN:
+                    ret.append(values[i] != 0);
+                    break;
+                case LONG:
+                    ret.append(values[i]);
+                    break;
+                case FLOAT:
+                    ret.append(Float.intBitsToFloat((int) values[i]));
+                    break;
+                case DOUBLE:
+                    ret.append(Double.longBitsToDouble(values[i]));
+                    break;
+                case STREAM:
+                    ret.append("<stream>");
+                    break;
+                default:
+                    appendObject(ret, objects[i]);
+            }
+        }
+        return ret.append(']').toString();
+    }
+
+    /**
+     * Append object.
+     *
+     * @param ret the ret
+     * @param obj the obj
+     */
+    private static void appendObject(StringBuilder ret, Object obj)
+    {
+        if (obj instanceof byte[])
+        {
+            ret.append("<byte[").append(((byte[]) obj).length).append("]>");
+        } else if (obj instanceof CharSequence)
+        {
+            CharSequence txt = (CharSequence) obj;
+            ret.append('\'');
+            if (txt.length() > MAX_TEXT)
+            {
+                ret.append(txt, 0, MAX_TEXT).append("...");
+            } else
+            {
+                ret.append(txt);
+            }
+            ret.append('\'');
+        } else
+        {
+            ret.append(obj);
+        }
+    }
+}
@@ -25,7 +25,9 @@ package org.semanticwb.base.db;
 import java.io.PrintStream;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.semanticwb.Logger;
 import org.semanticwb.SWBUtils;
 
@@ -50,14 +52,14 @@ public class PoolConnection implements java.sql.Connection {
     /** The con. */
     private java.sql.Connection con = null;
     
-    /** The vec. */
-    private Vector vec = new Vector();
+    /** Los statements abiertos, cada statement se elimina al cerrarse. */
+    private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
     
     /** The pool. */
     private DBConnectionPool pool;
     
     /** The isclosed. */
-    private boolean isclosed = false;
+    private volatile boolean isclosed = false;
     
     /** The description. */
     private String description = "";
@@ -67,16 +69,70 @@ public class PoolConnection implements java.sql.Connection {
     
     /** The idle_time. */
     private long idle_time = 0;
+
+    /** El tiempo de creación de la conexión física. */
+    private final long creation_time;
+
+    /** La generación de la configuración del pool con la que se abrió la conexión. */
+    private final int generation;
+
+    /** El tiempo de la última validación de la conexión física. */
+    private volatile long validation_time;
+
+    /** El valor de System.nanoTime() cuando la conexión se asignó al cliente actual. */
+    private long checkout_time;
     
-    /** The destroy. */
+    /** Indica que la conexión física debe cerrarse en lugar de regresar al pool. */
     private boolean destroy = false;
+
+    /** Propiedad auto-commit. */
+    private static final int PROP_AUTOCOMMIT = 1;
+
+    /** Propiedad nivel de aislamiento. */
+    private static final int PROP_ISOLATION = 2;
+
+    /** Propiedad solo lectura. */
+    private static final int PROP_READONLY = 4;
+
+    /** Propiedad catálogo. */
+    private static final int PROP_CATALOG = 8;
+
+    /** Propiedad esquema. */
+    private static final int PROP_SCHEMA = 16;
+
+    /** Propiedad holdability. */
+    private static final int PROP_HOLDABILITY = 32;
+
+    /** Propiedad mapa de tipos. */
+    private static final int PROP_TYPEMAP = 64;
+
+    /** Las propiedades modificadas por el cliente actual, que se restauran al regresar la conexión. */
+    private int dirty = 0;
+
+    /** Las propiedades cuyo valor original ya se registró. */
+    private int recorded = 0;
+
+    /** Valores originales de las propiedades de la conexión física. */
+    private boolean defaultAutoCommit;
+    private int defaultIsolation;
+    private boolean defaultReadOnly;
+    private String defaultCatalog;
+    private String defaultSchema;
+    private int defaultHoldability;
+    private Map<String, Class<?>> defaultTypeMap;
     
-    /** The isdestroyed. */
-    private volatile boolean isdestroyed = false;
+    /** The destroyed. */
+    private final AtomicBoolean destroyed = new AtomicBoolean(false);
     
-    /** The stack. */
-    private StackTraceElement stack[] = null;
+    /** El cache de PreparedStatements de la conexión física, nulo si no se usa. */
+    private StatementCache statementCache = null;
+
+    /** El stack del hilo que tiene la conexión, nulo si no se ha capturado. */
+    private volatile StackTraceElement stack[] = null;
     private String threadName = null;
+
+    /** El hilo que tiene asignada la conexión, nulo si está libre. */
+    private volatile Thread holder = null;
     
     public PoolConnection(Connection con)
     {
@@ -91,15 +147,33 @@ public class PoolConnection implements java.sql.Connection {
      * @param pool the pool
      */
     public PoolConnection(Connection con, DBConnectionPool pool)
+    {
+        this(con, pool, pool != null ? pool.getGeneration() : 0);
+    }
+
+    /**
+     * Instantiates a new pool connection.
+     *
+     * @param con the con
+     * @param pool the pool
+     * @param generation la generación de la configuración del pool con la que se abrió la conexión
+     */
+    PoolConnection(Connection con, DBConnectionPool pool, int generation)
     {
         //System.out.println("PoolConnection:"+this+" "+pool);
         idle_time = System.currentTimeMillis();
+        creation_time = idle_time;
+        validation_time = idle_time;
         this.con = con;
         this.pool = pool;
+        this.generation = generation;
         if(pool!=null)
         {
-            pool.checkedOut++;
-            log.trace("PoolConnection(" + getId() + "," + pool.getName() + "):" + pool.checkedOut);
+            if(pool.getStatementCacheSize()>0)
+            {
+                statementCache = new StatementCache(pool.getStatementCacheSize());
+            }
+            log.trace("PoolConnection(" + getId() + "," + pool.getName() + "):" + pool.getTotalConnections());
         }
         init();
     }
@@ -129,11 +203,37 @@ public class PoolConnection implements java.sql.Connection {
      */
     public void setId(long id)
     {
-        threadName = Thread.currentThread().getName();
-        stack = Thread.currentThread().getStackTrace();
+        Thread thread = Thread.currentThread();
+        threadName = thread.getName();
+        holder = thread;
+        // Capturar el stack es costoso, solo se hace si el modo de detección de fugas lo indica
+        stack = (pool == null || pool.captureCheckoutStack()) ? thread.getStackTrace() : null;
         this.id = id;
     }
 
+    /**
+     * Captura el stack actual del hilo que tiene la conexión, si no se capturó al asignarla.
+     * Se utiliza cuando la conexión excede el tiempo límite de uso.
+     */
+    void captureHolderStack()
+    {
+        Thread thread = holder;
+        if (stack == null && thread != null)
+        {
+            stack = thread.getStackTrace();
+        }
+    }
+
+    /**
+     * Gets the holder.
+     *
+     * @return el hilo que tiene asignada la conexión, nulo si está libre
+     */
+    Thread getHolder()
+    {
+        return holder;
+    }
+
     /**
      * Gets the stack trace elements.
      * 
@@ -151,9 +251,14 @@ public class PoolConnection implements java.sql.Connection {
      */
     public void printTrackTrace(PrintStream out)
     {
-        for (int x = 0; x < stack.length; x++)
+        StackTraceElement elements[] = stack;
+        if (elements == null)
+        {
+            return;
+        }
+        for (int x = 0; x < elements.length; x++)
         {
-            out.println(stack[x]);
+            out.println(elements[x]);
         }
     }
 
@@ -183,20 +288,22 @@ public class PoolConnection implements java.sql.Connection {
      */
     public java.lang.String getDescription()
     {
-        if(description==null || description.length()==0)
+        StackTraceElement elements[] = stack;
+        if((description==null || description.length()==0) && elements!=null)
         {
             StringBuilder ret=new StringBuilder();
             ret.append(threadName);
-            for(int x=0;x<stack.length;x++)
+            for(int x=0;x<elements.length;x++)
             {
-                if(x>=0)
-                {
-                    ret.append(stack[x].toString());
-                    ret.append("\n");
-                }
+                ret.append(elements[x].toString());
+                ret.append("\n");
             }
             return ret.toString();
         }
+        if((description==null || description.length()==0) && threadName!=null)
+        {
+            return threadName;
+        }
         return description;
     }
 
@@ -210,42 +317,72 @@ public class PoolConnection implements java.sql.Connection {
     }
 
     /**
-     * Close statements.
+     * Cierra los statements que el cliente dejó abiertos.
      * 
-     * @return true, if successful
-     * @return
+     * @return true, si todos los statements estaban cerrados
      */
     public boolean closeStatements()
     {
         boolean noerrors = true;
-        while (!vec.isEmpty())
+        Iterator<Statement> it = statements.iterator();
+        while (it.hasNext())
         {
-            PoolStatement st = (PoolStatement) vec.elementAt(0);
-            if (st != null)
+            Statement st = it.next();
+            it.remove();
+            try
             {
-                try
+                if (!st.isClosed())
                 {
-                    if (!st.isClosed())
+                    ResultSet rs = st.getResultSet();
+                    if (rs != null)
                     {
-                        ResultSet rs = st.getResultSet();
-                        if (rs != null)
-                        {
-                            rs.close();
-                        }
-                        st.close();
-                        log.warn("Statement was not closed..., " + description);
-                        noerrors = false;
+                        rs.close();
                     }
-                } catch (SQLException noe)
-                {/*Es correcto el error, ya que el susuario cerro la conexion*/
-
+                    st.close();
+                    log.warn("Statement was not closed..., " + description);
+                    noerrors = false;
                 }
+            } catch (SQLException noe)
+            {/*Es correcto el error, ya que el susuario cerro la conexion*/
+
             }
-            vec.removeElementAt(0);
         }
         return noerrors;
     }
 
+    /**
+     * Registra un statement abierto de la conexión.
+     *
+     * @param <T> el tipo de statement
+     * @param st the st
+     * @return el mismo statement
+     */
+    private <T extends Statement> T track(T st)
+    {
+        statements.add(st);
+        return st;
+    }
+
+    /**
+     * Elimina el registro de un statement cuando el cliente lo cierra.
+     *
+     * @param st the st
+     */
+    void statementClosed(Statement st)
+    {
+        statements.remove(st);
+    }
+
+    /**
+     * Gets the open statements.
+     *
+     * @return el número de statements abiertos
+     */
+    public int getOpenStatements()
+    {
+        return statements.size();
+    }
+
     /**
      * _close.
      * 
@@ -271,6 +408,15 @@ public class PoolConnection implements java.sql.Connection {
         
         if (isclosed == false)
         {
+            // La revisión del tiempo máximo de uso pudo reclamar la conexión, solo uno la libera
+            if (pool != null && !pool.getConnectionManager().getTimeLock().endLease(this))
+            {
+                return;
+            }
+            if (!destroy && !resetConnection())
+            {
+                destroy = true;
+            }
             if (destroy)
             {
                 log.trace("Connection.close(destroy):" + getId());
@@ -284,7 +430,11 @@ public class PoolConnection implements java.sql.Connection {
                 }
             }
             isclosed = true;
-            if(pool!=null)pool.getConnectionManager().getTimeLock().removeConnection(this);
+            holder = null;
+            if(pool!=null)
+            {
+                pool.connectionReturned(this);
+            }
             idle_time = System.currentTimeMillis();
             try
             {
@@ -300,7 +450,7 @@ public class PoolConnection implements java.sql.Connection {
             {
                 log.error("Connection " + description + ", freeConnection:", e);
             }
-            if(pool!=null)log.trace("close:(" + getId() + "," + pool.getName() + "):" + pool.checkedOut);
+            if(pool!=null)log.trace("close:(" + getId() + "," + pool.getName() + "):" + pool.getTotalConnections());
         }
     }
 
@@ -319,11 +469,109 @@ public class PoolConnection implements java.sql.Connection {
      */
     public void setAutoCommit(boolean param) throws SQLException
     {
-        if (param == false)
+        markDirty(PROP_AUTOCOMMIT);
+        con.setAutoCommit(param);
+    }
+
+    /**
+     * Registra que el cliente modificó una propiedad de la conexión, guardando antes su valor
+     * original. Como la conexión se restaura cada vez que regresa al pool, el valor que se
+     * encuentra la primera vez es el que tenía la conexión al crearse.
+     *
+     * @param prop la propiedad
+     * @throws SQLException the SQL exception
+     */
+    private void markDirty(int prop) throws SQLException
+    {
+        if ((recorded & prop) == 0)
         {
-            destroy = true;
+            switch (prop)
+            {
+                case PROP_AUTOCOMMIT:
+                    defaultAutoCommit = con.getAutoCommit();
+                    break;
+                case PROP_ISOLATION:
+                    defaultIsolation = con.getTransactionIsolation();
+                    break;
+                case PROP_READONLY:
+                    defaultReadOnly = con.isReadOnly();
+                    break;
+                case PROP_CATALOG:
+                    defaultCatalog = con.getCatalog();
+                    break;
+                case PROP_SCHEMA:
+                    defaultSchema = con.getSchema();
+                    break;
+                case PROP_HOLDABILITY:
+                    defaultHoldability = con.getHoldability();
+                    break;
+                case PROP_TYPEMAP:
+                    defaultTypeMap = con.getTypeMap();
+                    break;
+                default:
+                    break;
+            }
+            recorded |= prop;
+        }
+        dirty |= prop;
+    }
+
+    /**
+     * Deja la conexión física como estaba al crearse: deshace la transacción pendiente, si la
+     * conexión no está en auto-commit, y restaura las propiedades que modificó el cliente.
+     *
+     * @return true, si la conexión se restauró y puede regresar al pool
+     */
+    private boolean resetConnection()
+    {
+        if (pool == null)
+        {
+            return true;
+        }
+        try
+        {
+            if (!con.getAutoCommit())
+            {
+                con.rollback();
+            }
+            if (dirty != 0)
+            {
+                if ((dirty & PROP_AUTOCOMMIT) != 0)
+                {
+                    con.setAutoCommit(defaultAutoCommit);
+                }
+                if ((dirty & PROP_ISOLATION) != 0)
+                {
+                    con.setTransactionIsolation(defaultIsolation);
+                }
+                if ((dirty & PROP_READONLY) != 0)
+                {
+                    con.setReadOnly(defaultReadOnly);
+                }
+                if ((dirty & PROP_CATALOG) != 0 && defaultCatalog != null)
+                {
+                    con.setCatalog(defaultCatalog);
+                }
+                if ((dirty & PROP_SCHEMA) != 0 && defaultSchema != null)
+                {
+                    con.setSchema(defaultSchema);
+                }
+                if ((dirty & PROP_HOLDABILITY) != 0)
+                {
+                    con.setHoldability(defaultHoldability);
+                }
+                if ((dirty & PROP_TYPEMAP) != 0)
+                {
+                    con.setTypeMap(defaultTypeMap);
+                }
+                dirty = 0;
+            }
+            return true;
+        } catch (Exception e)
+        {
+            log.warn("Can't reset connection " + getId() + " of pool " + pool.getName() + ", it will be closed", e);
+            return false;
         }
-        con.setAutoCommit(param);
     }
 
     /* (non-Javadoc)
@@ -347,7 +595,7 @@ public class PoolConnection implements java.sql.Connection {
      */
     public void setTypeMap(java.util.Map map) throws SQLException
     {
-        destroy = true;
+        markDirty(PROP_TYPEMAP);
         con.setTypeMap(map);
     }
 
@@ -405,7 +653,7 @@ public class PoolConnection implements java.sql.Connection {
      */
     public PreparedStatement prepareStatement(String str, int param, int param2) throws SQLException
     {
-        return con.prepareStatement(str, param, param2);
+        return prepareStatement(str, param, param2, -1);
     }
 
     /* (non-Javadoc)
@@ -413,6 +661,7 @@ public class PoolConnection implements java.sql.Connection {
      */
     public void setTransactionIsolation(int param) throws SQLException
     {
+        markDirty(PROP_ISOLATION);
         con.setTransactionIsolation(param);
     }
 
@@ -421,7 +670,7 @@ public class PoolConnection implements java.sql.Connection {
      */
     public void setReadOnly(boolean param) throws SQLException
     {
-        destroy = true;
+        markDirty(PROP_READONLY);
         con.setReadOnly(param);
     }
 
@@ -430,7 +679,7 @@ public class PoolConnection implements java.sql.Connection {
      */
     public void setCatalog(String str) throws SQLException
     {
-        destroy = true;
+        markDirty(PROP_CATALOG);
         con.setCatalog(str);
     }
 
@@ -448,10 +697,7 @@ public class PoolConnection implements java.sql.Connection {
      */
     public Statement createStatement() throws SQLException
     {
-        Statement st = new PoolStatement(con.createStatement(), this);
-        vec.addElement(st);
-        //System.out.println("New Statement was Created...");
-        return st;
+        return track(new PoolStatement(con.createStatement(), this));
     }
 
     /* (non-Javadoc)
@@ -459,9 +705,7 @@ public class PoolConnection implements java.sql.Connection {
      */
     public Statement createStatement(int param, int param1) throws SQLException
     {
-        Statement st = new PoolStatement(con.createStatement(param, param1), this);
-        vec.addElement(st);
-        return st;
+        return track(new PoolStatement(con.createStatement(param, param1), this));
     }
 
     /* (non-Javadoc)
@@ -469,8 +713,7 @@ public class PoolConnection implements java.sql.Connection {
      */
     public PreparedStatement prepareStatement(String str) throws SQLException
     {
-        PreparedStatement st = new PoolPreparedStatement(con.prepareStatement(str), str, this);
-        return st;
+        return prepareStatement(str, -1, -1, -1);
     }
 
     /* (non-Javadoc)
@@ -520,14 +763,17 @@ public class PoolConnection implements java.sql.Connection {
      */
     protected void destroyConnection()
     {
-        if (isdestroyed == false)
+        if (destroyed.compareAndSet(false, true))
         {
-            isdestroyed = true;
+            boolean active = !isclosed;
             isclosed = true;
             if(pool!=null)
             {
-                pool.checkedOut--;
-                pool.getConnectionManager().getTimeLock().removeConnection(this);
+                pool.connectionDestroyed(this, active);
+            }
+            if (statementCache != null)
+            {
+                statementCache.clear();
             }
             try
             {
@@ -538,7 +784,7 @@ public class PoolConnection implements java.sql.Connection {
             {
                 log.error("Connection " + description + " finalize",e);                
             }
-            if(pool!=null)log.debug("destroyConnection:(" + getId() + "," + pool.getName() + "):" + pool.checkedOut);
+            if(pool!=null)log.debug("destroyConnection:(" + getId() + "," + pool.getName() + "):" + pool.getTotalConnections());
         }
     }
 
@@ -554,7 +800,7 @@ public class PoolConnection implements java.sql.Connection {
         // connection pool). Time to close down.
         try
         {
-            if (isdestroyed == false)
+            if (!destroyed.get())
             {
                 log.warn("finalize(" + getId() + ")..., connection was not closed, " + description);
                 destroyConnection();
@@ -573,7 +819,6 @@ public class PoolConnection implements java.sql.Connection {
  */
 public java.sql.Savepoint setSavepoint() throws java.sql.SQLException
     {
-        destroy = true;
         return con.setSavepoint();
         //return null;
     }
@@ -583,7 +828,7 @@ public java.sql.Savepoint setSavepoint() throws java.sql.SQLException
      */
     public void setHoldability(int param) throws java.sql.SQLException
     {
-        destroy = true;
+        markDirty(PROP_HOLDABILITY);
         con.setHoldability(param);
     }
 
@@ -592,7 +837,7 @@ public java.sql.Savepoint setSavepoint() throws java.sql.SQLException
      */
     public java.sql.PreparedStatement prepareStatement(java.lang.String str, int param) throws java.sql.SQLException
     {
-        return con.prepareStatement(str, param);
+        return track(new PoolPreparedStatement(con.prepareStatement(str, param), str, this));
     }
 
     /* (non-Javadoc)
@@ -600,7 +845,32 @@ public java.sql.Savepoint setSavepoint() throws java.sql.SQLException
      */
     public java.sql.PreparedStatement prepareStatement(java.lang.String str, int param, int param2, int param3) throws java.sql.SQLException
     {
-        return con.prepareStatement(str, param, param2, param3);
+        StatementCache cache = statementCache;
+        StatementCache.Key key = null;
+        PreparedStatement st = null;
+        if (cache != null)
+        {
+            key = new StatementCache.Key(str, param, param2, param3);
+            st = cache.take(key);
+        }
+        if (st == null)
+        {
+            if (param3 != -1)
+            {
+                st = con.prepareStatement(str, param, param2, param3);
+            } else if (param != -1)
+            {
+                st = con.prepareStatement(str, param, param2);
+            } else
+            {
+                st = con.prepareStatement(str);
+            }
+        }
+        if (cache != null)
+        {
+            return track(new PoolPreparedStatement(st, str, this, cache, key));
+        }
+        return track(new PoolPreparedStatement(st, str, this));
     }
 
     /* (non-Javadoc)
@@ -608,7 +878,7 @@ public java.sql.Savepoint setSavepoint() throws java.sql.SQLException
      */
     public java.sql.PreparedStatement prepareStatement(java.lang.String str, int[] values) throws java.sql.SQLException
     {
-        return con.prepareStatement(str, values);
+        return track(new PoolPreparedStatement(con.prepareStatement(str, values), str, this));
     }
 
     /* (non-Javadoc)
@@ -624,7 +894,6 @@ public java.sql.Savepoint setSavepoint() throws java.sql.SQLException
      */
     public java.sql.Savepoint setSavepoint(java.lang.String str) throws java.sql.SQLException
     {
-        destroy = true;
         return con.setSavepoint(str);
     }
 
@@ -633,7 +902,7 @@ public java.sql.Savepoint setSavepoint() throws java.sql.SQLException
      */
     public java.sql.Statement createStatement(int param, int param1, int param2) throws java.sql.SQLException
     {
-        return con.createStatement(param, param1, param2);
+        return track(new PoolStatement(con.createStatement(param, param1, param2), this));
     }
 
     /* (non-Javadoc)
@@ -657,7 +926,7 @@ public java.sql.Savepoint setSavepoint() throws java.sql.SQLException
      */
     public java.sql.PreparedStatement prepareStatement(java.lang.String str, java.lang.String[] str1) throws java.sql.SQLException
     {
-        return con.prepareStatement(str, str1);
+        return track(new PoolPreparedStatement(con.prepareStatement(str, str1), str, this));
     }
 
     /* (non-Javadoc)
@@ -665,7 +934,6 @@ public java.sql.Savepoint setSavepoint() throws java.sql.SQLException
      */
     public void rollback(java.sql.Savepoint savepoint) throws java.sql.SQLException
     {
-        destroy = true;
         con.rollback(savepoint);
     }
 
@@ -677,6 +945,75 @@ public java.sql.Savepoint setSavepoint() throws java.sql.SQLException
     {
         return idle_time;
     }
+
+    /**
+     * Gets the creation time.
+     *
+     * @return el tiempo en que se abrió la conexión física
+     */
+    public long getCreationTime()
+    {
+        return creation_time;
+    }
+
+    /**
+     * Gets the generation.
+     *
+     * @return la generación de la configuración del pool con la que se abrió la conexión
+     */
+    int getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Gets the validation time.
+     *
+     * @return el tiempo de la última validación de la conexión física
+     */
+    public long getValidationTime()
+    {
+        return validation_time;
+    }
+
+    /**
+     * Sets the validation time.
+     *
+     * @param validation_time el tiempo de la última validación de la conexión física
+     */
+    void setValidationTime(long validation_time)
+    {
+        this.validation_time = validation_time;
+    }
+
+    /**
+     * Gets the checkout time.
+     *
+     * @return el valor de System.nanoTime() cuando la conexión se asignó al cliente actual
+     */
+    long getCheckoutTime()
+    {
+        return checkout_time;
+    }
+
+    /**
+     * Sets the checkout time.
+     *
+     * @param checkout_time el valor de System.nanoTime() al asignar la conexión
+     */
+    void setCheckoutTime(long checkout_time)
+    {
+        this.checkout_time = checkout_time;
+    }
+
+    /**
+     * Marca una conexión recién creada como libre, para agregarla al pool sin asignarla a un cliente.
+     */
+    void markIdle()
+    {
+        isclosed = true;
+        idle_time = System.currentTimeMillis();
+    }
 //********************************* JAVA 1.6   
     
     public Clob createClob() throws SQLException {
@@ -735,6 +1072,7 @@ public java.sql.Savepoint setSavepoint() throws java.sql.SQLException
     @Override
     public void setSchema(String schema) throws SQLException
     {
+        markDirty(PROP_SCHEMA);
         con.setSchema(schema);
     }
 
@@ -23,39 +23,64 @@
 package org.semanticwb.base.db;
 
 import java.util.*;
-import java.sql.Timestamp;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.semanticwb.Logger;
 import org.semanticwb.SWBUtils;
 
-// TODO: Auto-generated Javadoc
 /**
  * Administra la duración de las conexiones con el fin de
  * identificar cuando una conexión excedio el tiempo limite
- * permitido (300sg) de duraci�n, al estar siendo utilizada
- * por un recurso.
+ * permitido (leak_threshold del pool) de duraci�n, al estar siendo utilizada
+ * por un recurso. Si el pool define un tiempo máximo de uso (max_lease), las
+ * conexiones retenidas más de ese tiempo se cierran y se liberan del pool.
  * @author  Javier Solis Gonzalez (jsolis@infotec.com.mx)
  */
 public class PoolConnectionTimeLock extends TimerTask {
 
     /** The log. */
     private static Logger log = SWBUtils.getLogger(PoolConnectionTimeLock.class);
-    
-    /** The timer. */
-    private Timer timer = null;
-    //private Timestamp lastupdate;
-    /** The pools. */
-    private ConcurrentHashMap pools = new ConcurrentHashMap();
-    
-    /** The last time. */
-    private volatile long lastTime = System.nanoTime();
+
+    /** Intervalo en milisegundos entre cada revisión de las conexiones asignadas. */
+    private static final long SWEEP_INTERVAL = 30000L;
+
+    /** El planificador de la revisión, nulo si se crea uno propio al iniciar. */
+    private final ScheduledExecutorService scheduler;
+
+    /** El planificador creado por esta instancia, nulo si se utiliza el del DBConnectionManager. */
+    private ScheduledExecutorService ownScheduler = null;
+
+    /** La tarea de revisión. */
+    private ScheduledFuture<?> sweeper = null;
+
+    /** Las conexiones asignadas por nombre de pool e identificador. */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Long, PoolConnection>> pools = new ConcurrentHashMap<String, ConcurrentHashMap<Long, PoolConnection>>();
+
+    /** Generador de identificadores de asignación. */
+    private final AtomicLong lastId = new AtomicLong();
 
     /**
      * Creates a new instance of PoolConnectionTimeLock.
      */
     public PoolConnectionTimeLock()
     {
-        //this.lastupdate = new Timestamp(new java.util.Date().getTime());
+        this(null);
+    }
+
+    /**
+     * Creates a new instance of PoolConnectionTimeLock que ejecuta la revisión en el planificador
+     * indicado.
+     *
+     * @param scheduler el planificador, nulo para crear uno propio al iniciar
+     */
+    PoolConnectionTimeLock(ScheduledExecutorService scheduler)
+    {
+        this.scheduler = scheduler;
     }
 
     /**
@@ -69,21 +94,19 @@ public class PoolConnectionTimeLock extends TimerTask {
         {
             try
             {
-                long time = System.nanoTime();
-                while (time <= lastTime)
-                {
-                    time++;
-                }
-                lastTime = time;
-                con.setId(time);
-                ConcurrentHashMap pool = (ConcurrentHashMap) pools.get(con.getPool().getName());
+                con.setId(lastId.incrementAndGet());
+                ConcurrentHashMap<Long, PoolConnection> pool = pools.get(con.getPool().getName());
                 if (pool == null)
                 {
-                    pool = new ConcurrentHashMap();
-                    pools.put(con.getPool().getName(), pool);
+                    pool = new ConcurrentHashMap<Long, PoolConnection>();
+                    ConcurrentHashMap<Long, PoolConnection> prev = pools.putIfAbsent(con.getPool().getName(), pool);
+                    if (prev != null)
+                    {
+                        pool = prev;
+                    }
                 }
-                //con.printTrackTrace(System.out);
-                pool.put(Long.valueOf(con.getId()), con.getDescription());
+                // La descripción se genera solo cuando se reporta la conexión
+                pool.put(Long.valueOf(con.getId()), con);
             } catch (Exception e)
             {
                 log.error(e);
@@ -97,72 +120,145 @@ public class PoolConnectionTimeLock extends TimerTask {
      * @param con the con
      */
     public void removeConnection(PoolConnection con)
+    {
+        endLease(con);
+    }
+
+    /**
+     * Termina la asignación de la conexión. Solo una de las llamadas concurrentes, la del cliente
+     * al cerrarla o la de la revisión al reclamarla, termina la asignación y actualiza los
+     * contadores del pool.
+     *
+     * @param con the con
+     * @return true, si esta llamada terminó la asignación
+     */
+    boolean endLease(PoolConnection con)
     {
         if (con != null)
         {
             try
             {
-                ConcurrentHashMap pool = (ConcurrentHashMap) pools.get(con.getPool().getName());
-                if (pool != null)
+                ConcurrentHashMap<Long, PoolConnection> pool = pools.get(con.getPool().getName());
+                if (pool == null)
+                {
+                    return true;
+                }
+                if (pool.remove(Long.valueOf(con.getId()), con))
                 {
-                    pool.remove(Long.valueOf(con.getId()));
                     con.getPool().addHit(System.currentTimeMillis() - con.getIdleTime());
+                    return true;
                 }
             } catch (Exception e)
             {
                 log.error(e);
             }
         }
+        return false;
     }
 
-    /* (non-Javadoc)
-     * @see java.util.TimerTask#run()
+    /**
+     * Revisa las conexiones asignadas, reporta las que exceden el tiempo límite del pool y cierra
+     * las que exceden el tiempo máximo de uso.
      */
     public void run()
     {
-        //System.out.println("Checking Connections...");
-        long actual = System.currentTimeMillis();
-        Iterator it = pools.values().iterator();
-        while (it.hasNext())
+        long actual = System.nanoTime();
+        for (ConcurrentHashMap<Long, PoolConnection> pool : pools.values())
         {
-            ConcurrentHashMap pool = new ConcurrentHashMap((ConcurrentHashMap) it.next());
-            Iterator it2 = pool.entrySet().iterator();
-            while (it2.hasNext())
+            for (Map.Entry<Long, PoolConnection> entry : pool.entrySet())
             {
-                Map.Entry entry = (Map.Entry) it2.next();
-                Long time = (Long) entry.getKey();
-                String des = (String) entry.getValue();
-
-                if ((time.longValue() + 300000L) < actual)
+                PoolConnection con = entry.getValue();
+                DBConnectionPool dbpool = con.getPool();
+                long time = (actual - con.getCheckoutTime()) / 1000000L;
+                long maxLease = dbpool.getMaxLease() * 1000L;
+                if (maxLease > 0 && time > maxLease)
+                {
+                    reclaim(pool, entry.getKey(), con, time);
+                } else if (dbpool.getLeakDetection() != DBConnectionPool.LeakDetection.OFF
+                        && time > dbpool.getLeakThreshold() * 1000L)
                 {
-                    log.warn("Connection Time Lock, (" + ((actual - time.longValue()) / 1000) + "s)" + des);
+                    if (dbpool.getLeakDetection() == DBConnectionPool.LeakDetection.THRESHOLD)
+                    {
+                        con.captureHolderStack();
+                    }
+                    log.warn("Connection Time Lock, (" + (time / 1000) + "s)" + con.getDescription());
                 }
             }
         }
     }
 
     /**
-     * Destroy.
+     * Cierra una conexión que excedió el tiempo máximo de uso, liberando su lugar en el pool.
+     * Solo se cierra si el cliente no la regresó mientras tanto, el retiro de la asignación
+     * decide cuál de los dos la libera.
+     *
+     * @param pool las conexiones asignadas del pool
+     * @param id el identificador de la asignación
+     * @param con the con
+     * @param time el tiempo de uso en milisegundos
      */
-    public void destroy()
+    private void reclaim(ConcurrentHashMap<Long, PoolConnection> pool, Long id, PoolConnection con, long time)
     {
-        log.info("PoolConnectionTimeLock Finished" + "...");
-        if (timer != null)
+        if (pool.remove(id, con))
         {
-            timer.cancel();
-            timer = null;
+            con.captureHolderStack();
+            log.error("Connection reclaimed after " + (time / 1000) + "s in pool " + con.getPool().getName() + ", " + con.getDescription());
+            try
+            {
+                con.destroyConnection();
+            } catch (Exception e)
+            {
+                log.error("Can't reclaim connection " + id, e);
+            }
         }
+    }
 
+    /**
+     * Destroy.
+     */
+    public void destroy()
+    {
+        log.info("PoolConnectionTimeLock Finished" + "...");
+        cancelSweeper();
     }
 
     /**
      * Inits the.
      */
-    public void init()
+    public synchronized void init()
     {
+        if (sweeper != null)
+        {
+            return;
+        }
         log.info("PoolConnectionTimeLock Started" + "...");
-        timer = new Timer();
-        timer.schedule(this, 30000, 30000);
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null)
+        {
+            ownScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "PoolConnectionTimeLock");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor = ownScheduler;
+        }
+        sweeper = executor.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    PoolConnectionTimeLock.this.run();
+                } catch (Exception e)
+                {
+                    log.error("Error checking pool connections", e);
+                }
+            }
+        }, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -171,20 +267,61 @@ public class PoolConnectionTimeLock extends TimerTask {
     public void stop()
     {
         log.info("PoolConnectionTimeLock Stoped" + "...");
-        if (timer != null)
+        cancelSweeper();
+    }
+
+    /**
+     * Cancela la revisión periódica, la programada en el planificador o en un Timer.
+     *
+     * @return true, si había una revisión programada
+     */
+    @Override
+    public boolean cancel()
+    {
+        boolean scheduled;
+        synchronized (this)
         {
-            timer.cancel();
-            this.cancel();
-            timer = null;
+            scheduled = sweeper != null;
+            cancelSweeper();
+        }
+        return super.cancel() || scheduled;
+    }
+
+    /**
+     * Cancela la revisión periódica.
+     */
+    private synchronized void cancelSweeper()
+    {
+        if (sweeper != null)
+        {
+            sweeper.cancel(false);
+            sweeper = null;
+        }
+        if (ownScheduler != null)
+        {
+            ownScheduler.shutdown();
+            ownScheduler = null;
         }
     }
 
     /** Getter for property pools.
-     * @return Value of property pools.
+     * @return Value of property pools, una copia con las descripciones de las conexiones
+     * asignadas por nombre de pool e identificador.
      *
      */
-    public HashMap getPools()
+    public HashMap<String, ConcurrentHashMap<Long, String>> getPools()
     {
-        return new HashMap(pools);
+        HashMap<String, ConcurrentHashMap<Long, String>> ret = new HashMap<String, ConcurrentHashMap<Long, String>>();
+        for (Map.Entry<String, ConcurrentHashMap<Long, PoolConnection>> entry : pools.entrySet())
+        {
+            ConcurrentHashMap<Long, String> descriptions = new ConcurrentHashMap<Long, String>();
+            for (Map.Entry<Long, PoolConnection> con : entry.getValue().entrySet())
+            {
+                String description = con.getValue().getDescription();
+                descriptions.put(con.getKey(), description != null ? description : "");
+            }
+            ret.put(entry.getKey(), descriptions);
+        }
+        return ret;
     }
 }
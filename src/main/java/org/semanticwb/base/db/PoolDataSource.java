@@ -0,0 +1,158 @@
+/*
+ * SemanticWebBuilder es una plataforma para el desarrollo de portales y aplicaciones de integración,
+ * colaboración y conocimiento, que gracias al uso de tecnología semántica puede generar contextos de
+ * información alrededor de algún tema de interés o bien integrar información y aplicaciones de diferentes
+ * fuentes, donde a la información se le asigna un significado, de forma que pueda ser interpretada y
+ * procesada por personas y/o sistemas, es una creación original del Fondo de Información y Documentación
+ * para la Industria INFOTEC, cuyo registro se encuentra actualmente en trámite.
+ *
+ * INFOTEC pone a su disposición la herramienta SemanticWebBuilder a través de su licenciamiento abierto al público (‘open source’),
+ * en virtud del cual, usted podrá usarlo en las mismas condiciones con que INFOTEC lo ha diseñado y puesto a su disposición;
+ * aprender de él; distribuirlo a terceros; acceder a su código fuente y modificarlo, y combinarlo o enlazarlo con otro software,
+ * todo ello de conformidad con los términos y condiciones de la LICENCIA ABIERTA AL PÚBLICO que otorga INFOTEC para la utilización
+ * del SemanticWebBuilder 4.0.
+ *
+ * INFOTEC no otorga garantía sobre SemanticWebBuilder, de ninguna especie y naturaleza, ni implícita ni explícita,
+ * siendo usted completamente responsable de la utilización que le dé y asumiendo la totalidad de los riesgos que puedan derivar
+ * de la misma.
+ *
+ * Si usted tiene cualquier duda o comentario sobre SemanticWebBuilder, INFOTEC pone a su disposición la siguiente
+ * dirección electrónica:
+ *  http://www.semanticwebbuilder.org
+ */
+package org.semanticwb.base.db;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import javax.sql.DataSource;
+
+/**
+ * DataSource que entrega conexiones de un {@link DBConnectionPool}, para que las librerías que
+ * requieren un DataSource compartan el pool en lugar de abrir sus propias conexiones. Las
+ * conexiones se regresan al pool al cerrarlas.
+ */
+public class PoolDataSource implements DataSource
+{
+
+    /** The pool. */
+    private final DBConnectionPool pool;
+
+    /** Tiempo de espera en segundos por omisión de una conexión libre. */
+    public static final int DEFAULT_LOGIN_TIMEOUT = 30;
+
+    /** Tiempo máximo en segundos de espera de una conexión libre. */
+    private volatile int loginTimeout = DEFAULT_LOGIN_TIMEOUT;
+
+    /** The log writer. */
+    private volatile PrintWriter logWriter = null;
+
+    /**
+     * Instantiates a new pool data source.
+     *
+     * @param pool the pool
+     */
+    public PoolDataSource(DBConnectionPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * Gets the pool.
+     *
+     * @return the pool
+     */
+    public DBConnectionPool getPool()
+    {
+        return pool;
+    }
+
+    /**
+     * Obtiene una conexión del pool, esperando hasta loginTimeout segundos si el pool está agotado.
+     *
+     * @return the connection
+     * @throws SQLException si no se obtuvo una conexión en el tiempo de espera
+     */
+    public Connection getConnection() throws SQLException
+    {
+        Connection con = pool.getConnection(loginTimeout * 1000L);
+        if (con == null)
+        {
+            throw new SQLTransientConnectionException("Can't get a connection from pool " + pool.getName()
+                    + " (total=" + pool.getTotalConnections() + ", active=" + pool.getActiveConnections()
+                    + ", waiting=" + pool.getWaitingThreads() + ")");
+        }
+        return con;
+    }
+
+    /**
+     * No soportado, el usuario y password de las conexiones los define el pool.
+     *
+     * @param username the username
+     * @param password the password
+     * @return the connection
+     * @throws SQLException siempre
+     */
+    public Connection getConnection(String username, String password) throws SQLException
+    {
+        throw new SQLFeatureNotSupportedException("Credentials of pool " + pool.getName() + " are defined in db.properties");
+    }
+
+    public PrintWriter getLogWriter() throws SQLException
+    {
+        return logWriter;
+    }
+
+    public void setLogWriter(PrintWriter out) throws SQLException
+    {
+        logWriter = out;
+    }
+
+    /**
+     * Define el tiempo máximo de espera de una conexión libre. Como indica {@link DataSource},
+     * 0 utiliza el tiempo por omisión del pool, {@link #DEFAULT_LOGIN_TIMEOUT}.
+     *
+     * @param seconds el tiempo en segundos, 0 para utilizar el tiempo por omisión
+     * @throws SQLException the SQL exception
+     */
+    public void setLoginTimeout(int seconds) throws SQLException
+    {
+        loginTimeout = seconds > 0 ? seconds : DEFAULT_LOGIN_TIMEOUT;
+    }
+
+    public int getLoginTimeout() throws SQLException
+    {
+        return loginTimeout;
+    }
+
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException
+    {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    public <T> T unwrap(Class<T> iface) throws SQLException
+    {
+        if (iface.isInstance(this))
+        {
+            return iface.cast(this);
+        }
+        if (iface.isInstance(pool))
+        {
+            return iface.cast(pool);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    public boolean isWrapperFor(Class<?> iface) throws SQLException
+    {
+        return iface.isInstance(this) || iface.isInstance(pool);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PoolDataSource[" + pool.getName() + "]";
+    }
+}
@@ -0,0 +1,680 @@
+/*
+ * SemanticWebBuilder es una plataforma para el desarrollo de portales y aplicaciones de integración,
+ * colaboración y conocimiento, que gracias al uso de tecnología semántica puede generar contextos de
+ * información alrededor de algún tema de interés o bien integrar información y aplicaciones de diferentes
+ * fuentes, donde a la información se le asigna un significado, de forma que pueda ser interpretada y
+ * procesada por personas y/o sistemas, es una creación original del Fondo de Información y Documentación
+ * para la Industria INFOTEC, cuyo registro se encuentra actualmente en trámite.
+ *
+ * INFOTEC pone a su disposición la herramienta SemanticWebBuilder a través de su licenciamiento abierto al público (‘open source’),
+ * en virtud del cual, usted podrá usarlo en las mismas condiciones con que INFOTEC lo ha diseñado y puesto a su disposición;
+ * aprender de él; distribuirlo a terceros; acceder a su código fuente y modificarlo, y combinarlo o enlazarlo con otro software,
+ * todo ello de conformidad con los términos y condiciones de la LICENCIA ABIERTA AL PÚBLICO que otorga INFOTEC para la utilización
+ * del SemanticWebBuilder 4.0.
+ *
+ * INFOTEC no otorga garantía sobre SemanticWebBuilder, de ninguna especie y naturaleza, ni implícita ni explícita,
+ * siendo usted completamente responsable de la utilización que le dé y asumiendo la totalidad de los riesgos que puedan derivar
+ * de la misma.
+ *
+ * Si usted tiene cualquier duda o comentario sobre SemanticWebBuilder, INFOTEC pone a su disposición la siguiente
+ * dirección electrónica:
+ *  http://www.semanticwebbuilder.org
+ */
+package org.semanticwb.base.db;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas de un {@link DBConnectionPool}: histogramas del tiempo para obtener una conexión, del
+ * tiempo de espera cuando el pool está agotado, del tiempo de uso de las conexiones y del tiempo
+ * de ejecución de las sentencias, además de contadores de conexiones creadas, cerradas y
+ * fallidas, y el estado del {@link CircuitBreaker}. Se publica por JMX desde {@link DBConnectionManager}.
+ */
+public class PoolMetrics implements PoolMetricsMXBean
+{
+
+    /** The pool. */
+    private final DBConnectionPool pool;
+
+    /** The borrow time. */
+    private final LatencyHistogram borrowTime = new LatencyHistogram();
+
+    /** The wait time. */
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+
+    /** The usage time. */
+    private final LatencyHistogram usageTime = new LatencyHistogram();
+
+    /** The query time. */
+    private final LatencyHistogram queryTime = new LatencyHistogram();
+
+    /** The reconnect time. */
+    private final LatencyHistogram reconnectTime = new LatencyHistogram();
+
+    /** The created. */
+    private final LongAdder created = new LongAdder();
+
+    /** The destroyed. */
+    private final LongAdder destroyed = new LongAdder();
+
+    /** The failures. */
+    private final LongAdder failures = new LongAdder();
+
+    /** The validation failures. */
+    private final LongAdder validationFailures = new LongAdder();
+
+    /** The timeouts. */
+    private final LongAdder timeouts = new LongAdder();
+
+    /** The reconnects. */
+    private final LongAdder reconnects = new LongAdder();
+
+    /** The reconnect failures. */
+    private final LongAdder reconnectFailures = new LongAdder();
+
+    /** The circuit opens. */
+    private final LongAdder circuitOpens = new LongAdder();
+
+    /** The circuit rejections. */
+    private final LongAdder circuitRejections = new LongAdder();
+
+    /**
+     * Instantiates a new pool metrics.
+     *
+     * @param pool the pool
+     */
+    PoolMetrics(DBConnectionPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * Registra el tiempo para obtener una conexión.
+     *
+     * @param startNanos el valor de System.nanoTime() al solicitar la conexión
+     */
+    void recordBorrow(long startNanos)
+    {
+        borrowTime.recordSince(startNanos);
+    }
+
+    /**
+     * Registra el tiempo de espera de una conexión con el pool agotado.
+     *
+     * @param startNanos el valor de System.nanoTime() al empezar a esperar
+     */
+    void recordWait(long startNanos)
+    {
+        waitTime.recordSince(startNanos);
+    }
+
+    /**
+     * Registra el tiempo que un cliente retuvo una conexión.
+     *
+     * @param startNanos el valor de System.nanoTime() al asignar la conexión
+     */
+    void recordUsage(long startNanos)
+    {
+        usageTime.recordSince(startNanos);
+    }
+
+    /**
+     * Registra el tiempo de ejecución de una sentencia.
+     *
+     * @param micros el tiempo de ejecución en microsegundos
+     */
+    void recordQuery(long micros)
+    {
+        queryTime.record(micros);
+    }
+
+    /**
+     * Connection created.
+     */
+    void connectionCreated()
+    {
+        created.increment();
+    }
+
+    /**
+     * Connection destroyed.
+     */
+    void connectionDestroyed()
+    {
+        destroyed.increment();
+    }
+
+    /**
+     * Connection failed.
+     */
+    void connectionFailed()
+    {
+        failures.increment();
+    }
+
+    /**
+     * Validation failed.
+     */
+    void validationFailed()
+    {
+        validationFailures.increment();
+    }
+
+    /**
+     * Timeout.
+     */
+    void timeout()
+    {
+        timeouts.increment();
+    }
+
+    /**
+     * Registra la reconexión exitosa de una AutoConnection.
+     *
+     * @param startNanos el valor de System.nanoTime() al iniciar la reconexión
+     */
+    void reconnected(long startNanos)
+    {
+        reconnects.increment();
+        reconnectTime.recordSince(startNanos);
+    }
+
+    /**
+     * Reconnect failed.
+     */
+    void reconnectFailed()
+    {
+        reconnectFailures.increment();
+    }
+
+    /**
+     * Circuit opened.
+     */
+    void circuitOpened()
+    {
+        circuitOpens.increment();
+    }
+
+    /**
+     * Registra una conexión que no se intentó crear porque el interruptor estaba abierto.
+     */
+    void circuitRejected()
+    {
+        circuitRejections.increment();
+    }
+
+    public String getPoolName()
+    {
+        return pool.getName();
+    }
+
+    public int getMaxConnections()
+    {
+        return pool.getMaxConn();
+    }
+
+    public int getTotalConnections()
+    {
+        return pool.getTotalConnections();
+    }
+
+    public int getActiveConnections()
+    {
+        return pool.getActiveConnections();
+    }
+
+    public int getIdleConnections()
+    {
+        return pool.getIdleConnections();
+    }
+
+    public int getWaitingThreads()
+    {
+        return pool.getWaitingThreads();
+    }
+
+    public long getConnectionsCreated()
+    {
+        return created.sum();
+    }
+
+    public long getConnectionsDestroyed()
+    {
+        return destroyed.sum();
+    }
+
+    public long getConnectionFailures()
+    {
+        return failures.sum();
+    }
+
+    public long getValidationFailures()
+    {
+        return validationFailures.sum();
+    }
+
+    public long getTimeouts()
+    {
+        return timeouts.sum();
+    }
+
+    public long getReconnects()
+    {
+        return reconnects.sum();
+    }
+
+    public long getReconnectFailures()
+    {
+        return reconnectFailures.sum();
+    }
+
+    public String getCircuitState()
+    {
+        return pool.getCircuitBreaker().getState().name();
+    }
+
+    public long getCircuitOpens()
+    {
+        return circuitOpens.sum();
+    }
+
+    public long getCircuitRejections()
+    {
+        return circuitRejections.sum();
+    }
+
+    public double getQueryCacheHitRatio()
+    {
+        QueryCache cache = pool.getQueryCache();
+        return cache != null ? cache.getHitRatio() : 0;
+    }
+
+    public long getQueryCacheMemory()
+    {
+        QueryCache cache = pool.getQueryCache();
+        return cache != null ? cache.getMemory() : 0;
+    }
+
+    public LatencyHistogram.Snapshot getBorrowTime()
+    {
+        return borrowTime.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getWaitTime()
+    {
+        return waitTime.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getUsageTime()
+    {
+        return usageTime.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getQueryTime()
+    {
+        return queryTime.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getReconnectTime()
+    {
+        return reconnectTime.snapshot();
+    }
+
+    public List<QueryStats.Stat> getTopQueries()
+    {
+        return pool.getQueryStats().getTop(20);
+    }
+
+    public void reset()
+    {
+        borrowTime.reset();
+        waitTime.reset();
+        usageTime.reset();
+        queryTime.reset();
+        reconnectTime.reset();
+        created.reset();
+        destroyed.reset();
+        failures.reset();
+        validationFailures.reset();
+        timeouts.reset();
+        reconnects.reset();
+        reconnectFailures.reset();
+        circuitOpens.reset();
+        circuitRejections.reset();
+        pool.getQueryStats().reset();
+    }
+
+    /**
+     * Regresa una copia de todas las métricas en este momento.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot()
+    {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Copia inmutable de las métricas de un pool.
+     */
+    public static final class Snapshot
+    {
+
+        /** The pool name. */
+        private final String poolName;
+
+        /** The time. */
+        private final long time;
+
+        /** The total. */
+        private final int total;
+
+        /** The active. */
+        private final int active;
+
+        /** The idle. */
+        private final int idle;
+
+        /** The waiting. */
+        private final int waiting;
+
+        /** The created. */
+        private final long created;
+
+        /** The destroyed. */
+        private final long destroyed;
+
+        /** The failures. */
+        private final long failures;
+
+        /** The validation failures. */
+        private final long validationFailures;
+
+        /** The timeouts. */
+        private final long timeouts;
+
+        /** The reconnects. */
+        private final long reconnects;
+
+        /** The reconnect failures. */
+        private final long reconnectFailures;
+
+        /** The circuit state. */
+        private final String circuitState;
+
+        /** The circuit opens. */
+        private final long circuitOpens;
+
+        /** The circuit rejections. */
+        private final long circuitRejections;
+
+        /** The borrow time. */
+        private final LatencyHistogram.Snapshot borrowTime;
+
+        /** The wait time. */
+        private final LatencyHistogram.Snapshot waitTime;
+
+        /** The usage time. */
+        private final LatencyHistogram.Snapshot usageTime;
+
+        /** The query time. */
+        private final LatencyHistogram.Snapshot queryTime;
+
+        /** The reconnect time. */
+        private final LatencyHistogram.Snapshot reconnectTime;
+
+        /**
+         * Instantiates a new snapshot.
+         *
+         * @param metrics the metrics
+         */
+        private Snapshot(PoolMetrics metrics)
+        {
+            poolName = metrics.getPoolName();
+            time = System.currentTimeMillis();
+            total = metrics.getTotalConnections();
+            active = metrics.getActiveConnections();
+            idle = metrics.getIdleConnections();
+            waiting = metrics.getWaitingThreads();
+            created = metrics.getConnectionsCreated();
+            destroyed = metrics.getConnectionsDestroyed();
+            failures = metrics.getConnectionFailures();
+            validationFailures = metrics.getValidationFailures();
+            timeouts = metrics.getTimeouts();
+            reconnects = metrics.getReconnects();
+            reconnectFailures = metrics.getReconnectFailures();
+            circuitState = metrics.getCircuitState();
+            circuitOpens = metrics.getCircuitOpens();
+            circuitRejections = metrics.getCircuitRejections();
+            borrowTime = metrics.getBorrowTime();
+            waitTime = metrics.getWaitTime();
+            usageTime = metrics.getUsageTime();
+            queryTime = metrics.getQueryTime();
+            reconnectTime = metrics.getReconnectTime();
+        }
+
+        /**
+         * Gets the pool name.
+         *
+         * @return the pool name
+         */
+        public String getPoolName()
+        {
+            return poolName;
+        }
+
+        /**
+         * Gets the time.
+         *
+         * @return el momento en milisegundos en que se tomó la copia
+         */
+        public long getTime()
+        {
+            return time;
+        }
+
+        /**
+         * Gets the total connections.
+         *
+         * @return the total connections
+         */
+        public int getTotalConnections()
+        {
+            return total;
+        }
+
+        /**
+         * Gets the active connections.
+         *
+         * @return the active connections
+         */
+        public int getActiveConnections()
+        {
+            return active;
+        }
+
+        /**
+         * Gets the idle connections.
+         *
+         * @return the idle connections
+         */
+        public int getIdleConnections()
+        {
+            return idle;
+        }
+
+        /**
+         * Gets the waiting threads.
+         *
+         * @return the waiting threads
+         */
+        public int getWaitingThreads()
+        {
+            return waiting;
+        }
+
+        /**
+         * Gets the connections created.
+         *
+         * @return the connections created
+         */
+        public long getConnectionsCreated()
+        {
+            return created;
+        }
+
+        /**
+         * Gets the connections destroyed.
+         *
+         * @return the connections destroyed
+         */
+        public long getConnectionsDestroyed()
+        {
+            return destroyed;
+        }
+
+        /**
+         * Gets the connection failures.
+         *
+         * @return the connection failures
+         */
+        public long getConnectionFailures()
+        {
+            return failures;
+        }
+
+        /**
+         * Gets the validation failures.
+         *
+         * @return the validation failures
+         */
+        public long getValidationFailures()
+        {
+            return validationFailures;
+        }
+
+        /**
+         * Gets the timeouts.
+         *
+         * @return the timeouts
+         */
+        public long getTimeouts()
+        {
+            return timeouts;
+        }
+
+        /**
+         * Gets the reconnects.
+         *
+         * @return the reconnects
+         */
+        public long getReconnects()
+        {
+            return reconnects;
+        }
+
+        /**
+         * Gets the reconnect failures.
+         *
+         * @return the reconnect failures
+         */
+        public long getReconnectFailures()
+        {
+            return reconnectFailures;
+        }
+
+        /**
+         * Gets the circuit state.
+         *
+         * @return the circuit state
+         */
+        public String getCircuitState()
+        {
+            return circuitState;
+        }
+
+        /**
+         * Gets the circuit opens.
+         *
+         * @return the circuit opens
+         */
+        public long getCircuitOpens()
+        {
+            return circuitOpens;
+        }
+
+        /**
+         * Gets the circuit rejections.
+         *
+         * @return the circuit rejections
+         */
+        public long getCircuitRejections()
+        {
+            return circuitRejections;
+        }
+
+        /**
+         * Gets the borrow time.
+         *
+         * @return the borrow time
+         */
+        public LatencyHistogram.Snapshot getBorrowTime()
+        {
+            return borrowTime;
+        }
+
+        /**
+         * Gets the wait time.
+         *
+         * @return the wait time
+         */
+        public LatencyHistogram.Snapshot getWaitTime()
+        {
+            return waitTime;
+        }
+
+        /**
+         * Gets the usage time.
+         *
+         * @return the usage time
+         */
+        public LatencyHistogram.Snapshot getUsageTime()
+        {
+            return usageTime;
+        }
+
+        /**
+         * Gets the query time.
+         *
+         * @return the query time
+         */
+        public LatencyHistogram.Snapshot getQueryTime()
+        {
+            return queryTime;
+        }
+
+        /**
+         * Gets the reconnect time.
+         *
+         * @return the reconnect time
+         */
+        public LatencyHistogram.Snapshot getReconnectTime()
+        {
+            return reconnectTime;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Pool " + poolName + ": total=" + total + ", active=" + active + ", idle=" + idle
+                    + ", waiting=" + waiting + ", created=" + created + ", destroyed=" + destroyed
+                    + ", failures=" + failures + ", validationFailures=" + validationFailures
+                    + ", timeouts=" + timeouts + ", reconnects=" + reconnects
+                    + ", reconnectFailures=" + reconnectFailures + ", circuit=" + circuitState
+                    + ", circuitOpens=" + circuitOpens + ", circuitRejections=" + circuitRejections + "\n  borrow: " + borrowTime + "\n  wait: " + waitTime
+                    + "\n  usage: " + usageTime + "\n  query: " + queryTime
+                    + "\n  reconnect: " + reconnectTime;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * SemanticWebBuilder es una plataforma para el desarrollo de portales y aplicaciones de integración,
+ * colaboración y conocimiento, que gracias al uso de tecnología semántica puede generar contextos de
+ * información alrededor de algún tema de interés o bien integrar información y aplicaciones de diferentes
+ * fuentes, donde a la información se le asigna un significado, de forma que pueda ser interpretada y
+ * procesada por personas y/o sistemas, es una creación original del Fondo de Información y Documentación
+ * para la Industria INFOTEC, cuyo registro se encuentra actualmente en trámite.
+ *
+ * INFOTEC pone a su disposición la herramienta SemanticWebBuilder a través de su licenciamiento abierto al público (‘open source’),
+ * en virtud del cual, usted podrá usarlo en las mismas condiciones con que INFOTEC lo ha diseñado y puesto a su disposición;
+ * aprender de él; distribuirlo a terceros; acceder a su código fuente y modificarlo, y combinarlo o enlazarlo con otro software,
+ * todo ello de conformidad con los términos y condiciones de la LICENCIA ABIERTA AL PÚBLICO que otorga INFOTEC para la utilización
+ * del SemanticWebBuilder 4.0.
+ *
+ * INFOTEC no otorga garantía sobre SemanticWebBuilder, de ninguna especie y naturaleza, ni implícita ni explícita,
+ * siendo usted completamente responsable de la utilización que le dé y asumiendo la totalidad de los riesgos que puedan derivar
+ * de la misma.
+ *
+ * Si usted tiene cualquier duda o comentario sobre SemanticWebBuilder, INFOTEC pone a su disposición la siguiente
+ * dirección electrónica:
+ *  http://www.semanticwebbuilder.org
+ */
+package org.semanticwb.base.db;
+
+import java.util.List;
+
+/**
+ * Interfaz JMX con las métricas de un {@link DBConnectionPool}. Los tiempos se expresan en
+ * microsegundos.
+ */
+public interface PoolMetricsMXBean
+{
+
+    /**
+     * Gets the pool name.
+     *
+     * @return el nombre del pool
+     */
+    String getPoolName();
+
+    /**
+     * Gets the max connections.
+     *
+     * @return el número máximo de conexiones del pool
+     */
+    int getMaxConnections();
+
+    /**
+     * Gets the total connections.
+     *
+     * @return el número de conexiones físicas abiertas
+     */
+    int getTotalConnections();
+
+    /**
+     * Gets the active connections.
+     *
+     * @return el número de conexiones asignadas
+     */
+    int getActiveConnections();
+
+    /**
+     * Gets the idle connections.
+     *
+     * @return el número de conexiones libres
+     */
+    int getIdleConnections();
+
+    /**
+     * Gets the waiting threads.
+     *
+     * @return el número de hilos esperando una conexión
+     */
+    int getWaitingThreads();
+
+    /**
+     * Gets the connections created.
+     *
+     * @return el número de conexiones físicas creadas
+     */
+    long getConnectionsCreated();
+
+    /**
+     * Gets the connections destroyed.
+     *
+     * @return el número de conexiones físicas cerradas
+     */
+    long getConnectionsDestroyed();
+
+    /**
+     * Gets the connection failures.
+     *
+     * @return el número de intentos fallidos de crear una conexión física
+     */
+    long getConnectionFailures();
+
+    /**
+     * Gets the validation failures.
+     *
+     * @return el número de conexiones que no pasaron la validación
+     */
+    long getValidationFailures();
+
+    /**
+     * Gets the timeouts.
+     *
+     * @return el número de solicitudes que agotaron su tiempo de espera sin obtener una conexión
+     */
+    long getTimeouts();
+
+    /**
+     * Gets the reconnects.
+     *
+     * @return el número de reconexiones exitosas de las AutoConnections del pool
+     */
+    long getReconnects();
+
+    /**
+     * Gets the reconnect failures.
+     *
+     * @return el número de intentos de reconexión fallidos de las AutoConnections del pool
+     */
+    long getReconnectFailures();
+
+    /**
+     * Gets the circuit state.
+     *
+     * @return el estado del interruptor del pool: CLOSED, OPEN o HALF_OPEN
+     */
+    String getCircuitState();
+
+    /**
+     * Gets the circuit opens.
+     *
+     * @return el número de veces que se abrió el interruptor del pool
+     */
+    long getCircuitOpens();
+
+    /**
+     * Gets the circuit rejections.
+     *
+     * @return el número de conexiones que no se intentó crear porque el interruptor estaba abierto
+     */
+    long getCircuitRejections();
+
+    /**
+     * Gets the query cache hit ratio.
+     *
+     * @return la proporción de consultas resueltas con el cache de resultados, 0 sin cache
+     */
+    double getQueryCacheHitRatio();
+
+    /**
+     * Gets the query cache memory.
+     *
+     * @return los bytes estimados que ocupan los resultados en cache, 0 sin cache
+     */
+    long getQueryCacheMemory();
+
+    /**
+     * Gets the borrow time.
+     *
+     * @return el tiempo para obtener una conexión, incluyendo la espera
+     */
+    LatencyHistogram.Snapshot getBorrowTime();
+
+    /**
+     * Gets the wait time.
+     *
+     * @return el tiempo de espera de las solicitudes que encontraron el pool agotado
+     */
+    LatencyHistogram.Snapshot getWaitTime();
+
+    /**
+     * Gets the usage time.
+     *
+     * @return el tiempo que los clientes retienen una conexión
+     */
+    LatencyHistogram.Snapshot getUsageTime();
+
+    /**
+     * Gets the query time.
+     *
+     * @return el tiempo de ejecución de las sentencias SQL
+     */
+    LatencyHistogram.Snapshot getQueryTime();
+
+    /**
+     * Gets the reconnect time.
+     *
+     * @return el tiempo de las reconexiones exitosas de las AutoConnections
+     */
+    LatencyHistogram.Snapshot getReconnectTime();
+
+    /**
+     * Gets the top queries.
+     *
+     * @return las sentencias con mayor tiempo total de ejecución, agrupadas por huella
+     */
+    List<QueryStats.Stat> getTopQueries();
+
+    /**
+     * Elimina los contadores, histogramas y estadísticas por sentencia acumulados.
+     */
+    void reset();
+}
@@ -28,6 +28,8 @@ import java.math.BigDecimal;
 import java.net.URL;
 import java.sql.*;
 import java.util.Calendar;
+import org.semanticwb.Logger;
+import org.semanticwb.SWBUtils;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -36,6 +38,9 @@ import java.util.Calendar;
  */
 public class PoolPreparedStatement implements java.sql.PreparedStatement {
 
+    /** The log. */
+    private static Logger log = SWBUtils.getLogger(PoolPreparedStatement.class);
+
     /** The st. */
     private PreparedStatement st;
     
@@ -45,15 +50,27 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
     /** The query. */
     private String query = null;
     
-    /** The args. */
-    private String args = "";
-    
-    /** The debug. */
-    private boolean debug = false;
+    /** Los parámetros asignados, nulo si el pool no los registra. */
+    private ParameterTrace params = null;
     
     /** The con. */
     private Connection con;
 
+    /** El cache al que se regresa el statement al cerrarse, nulo si no se usa cache. */
+    private StatementCache cache = null;
+
+    /** La llave del statement en el cache. */
+    private StatementCache.Key key = null;
+
+    /** Indica si el statement puede regresar al cache, falso si se modificó su configuración. */
+    private boolean reusable = true;
+
+    /** El pool de la conexión, nulo si la conexión no pertenece a un pool. */
+    private DBConnectionPool pool = null;
+
+    /** La huella de la consulta para las estadísticas del pool, se calcula al ejecutarla. */
+    private String fingerprint = null;
+
     /**
      * Creates a new instance of PoolStatement.
      * 
@@ -62,8 +79,7 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
      */
     public PoolPreparedStatement(PreparedStatement st, Connection con)
     {
-        this.st = st;
-        this.con = con;
+        this(st, null, con);
     }
 
     /**
@@ -78,6 +94,87 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
         this.st = st;
         this.query = query;
         this.con = con;
+        if (con instanceof PoolConnection)
+        {
+            pool = ((PoolConnection) con).getPool();
+            if (pool != null)
+            {
+                if (pool.isTraceParameters() || pool.getSlowQueryTime() > 0)
+                {
+                    params = new ParameterTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a new instance of PoolStatement que al cerrarse regresa al cache de statements.
+     * 
+     * @param st the st
+     * @param query the query
+     * @param con the con
+     * @param cache el cache de statements de la conexión
+     * @param key la llave del statement en el cache
+     */
+    PoolPreparedStatement(PreparedStatement st, String query, Connection con, StatementCache cache, StatementCache.Key key)
+    {
+        this(st, query, con);
+        this.cache = cache;
+        this.key = key;
+    }
+
+    /**
+     * Gets the parameters.
+     *
+     * @return los parámetros asignados, o nulo si el pool no los registra
+     */
+    public ParameterTrace getParameters()
+    {
+        return params;
+    }
+
+    /**
+     * Registra en la bitácora la consulta y sus parámetros cuando la ejecución falla.
+     *
+     * @param e the e
+     */
+    private void logError(SQLException e)
+    {
+        if (params != null)
+        {
+            log.error("Error executing " + query + ", parameters: " + params, e);
+        }
+    }
+
+    /**
+     * Registra el tiempo de ejecución de la consulta en las métricas del pool.
+     *
+     * @param start el valor de System.nanoTime() al iniciar la ejecución
+     */
+    private void executed(long start)
+    {
+        if (pool != null)
+        {
+            if (fingerprint == null && query != null && pool.getQueryStats().isEnabled())
+            {
+                fingerprint = QueryStats.fingerprint(query);
+            }
+            pool.queryExecuted(start, query, fingerprint, con, params);
+        }
+    }
+
+    /**
+     * Registra el tiempo de ejecución de una sentencia en las métricas del pool.
+     *
+     * @param start el valor de System.nanoTime() al iniciar la ejecución
+     * @param sql la sentencia
+     */
+    private void executed(long start, String sql)
+    {
+        if (pool != null)
+        {
+            pool.queryExecuted(start, sql, null, con, null);
+        }
     }
 
     /* (non-Javadoc)
@@ -117,7 +214,35 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
      */
     public void close() throws java.sql.SQLException
     {
+        if (closed)
+        {
+            return;
+        }
         closed = true;
+        if (con instanceof PoolConnection)
+        {
+            ((PoolConnection) con).statementClosed(this);
+        }
+        if (cache != null && reusable)
+        {
+            try
+            {
+                //El ResultSet abierto no debe quedar vivo en el cache
+                ResultSet rs = st.getResultSet();
+                if (rs != null)
+                {
+                    rs.close();
+                }
+                st.clearParameters();
+                st.clearBatch();
+                st.clearWarnings();
+                cache.release(key, st);
+                return;
+            } catch (SQLException e)
+            {
+                //El statement no se puede reutilizar, se cierra
+            }
+        }
         st.close();
     }
 
@@ -126,11 +251,14 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
      */
     public boolean execute(String str) throws java.sql.SQLException
     {
-        if (debug)
+        long start = System.nanoTime();
+        try
         {
-            System.out.println("execute:" + str);
+            return st.execute(str);
+        } finally
+        {
+            executed(start, str);
         }
-        return st.execute(str);
     }
 
     /* (non-Javadoc)
@@ -138,11 +266,18 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
      */
     public int[] executeBatch() throws java.sql.SQLException
     {
-        if (debug)
+        long start = System.nanoTime();
+        try
+        {
+            return st.executeBatch();
+        } catch (SQLException e)
+        {
+            logError(e);
+            throw e;
+        } finally
         {
-            System.out.println("executeBatch():");
+            executed(start);
         }
-        return st.executeBatch();
     }
 
     /* (non-Javadoc)
@@ -150,11 +285,14 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
      */
     public java.sql.ResultSet executeQuery(String str) throws java.sql.SQLException
     {
-        if (debug)
+        long start = System.nanoTime();
+        try
         {
-            System.out.println("executeQuery:" + str);
+            return st.executeQuery(str);
+        } finally
+        {
+            executed(start, str);
         }
-        return st.executeQuery(str);
     }
 
     /* (non-Javadoc)
@@ -162,11 +300,14 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
      */
     public int executeUpdate(String str) throws java.sql.SQLException
     {
-        if (debug)
+        long start = System.nanoTime();
+        try
+        {
+            return st.executeUpdate(str);
+        } finally
         {
-            System.out.println("executeUpdate:" + str);
+            executed(start, str);
         }
-        return st.executeUpdate(str);
     }
 
     /* (non-Javadoc)
@@ -231,10 +372,6 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
      */
     public java.sql.ResultSet getResultSet() throws java.sql.SQLException
     {
-        if (debug)
-        {
-            System.out.println("getResultSet");
-        }
         return st.getResultSet();
     }
 
@@ -275,6 +412,7 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
      */
     public void setCursorName(String str) throws java.sql.SQLException
     {
+        reusable = false;
         st.setCursorName(str);
     }
 
@@ -283,6 +421,7 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
      */
     public void setEscapeProcessing(boolean param) throws java.sql.SQLException
     {
+        reusable = false;
         st.setEscapeProcessing(param);
     }
 
@@ -291,6 +430,7 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
      */
     public void setFetchDirection(int param) throws java.sql.SQLException
     {
+        reusable = false;
         st.setFetchDirection(param);
     }
 
@@ -299,6 +439,7 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
      */
     public void setFetchSize(int param) throws java.sql.SQLException
     {
+        reusable = false;
         st.setFetchSize(param);
     }
 
@@ -307,6 +448,7 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
      */
     public void setMaxFieldSize(int param) throws java.sql.SQLException
     {
+        reusable = false;
         st.setMaxFieldSize(param);
     }
 
@@ -315,6 +457,7 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
      */
     public void setMaxRows(int param) throws java.sql.SQLException
     {
+        reusable = false;
         st.setMaxRows(param);
     }
 
@@ -323,6 +466,7 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
      */
     public void setQueryTimeout(int param) throws java.sql.SQLException
     {
+        reusable = false;
         st.setQueryTimeout(param);
     }
 
@@ -342,11 +486,14 @@ public class PoolPreparedStatement implements java.sql.PreparedStatement {
  */
 public boolean execute(String str, String[] str1) throws java.sql.SQLException
     {
-        if (debug)
+        long start = System.nanoTime();
+        try
+        {
+            return st.execute(str, str1);
+        } finally
         {
-            System.out.println("execute:" + str + " " + str1);
+            executed(start, str);
         }
-        return st.execute(str, str1);
     }
 
     /* (non-Javadoc)
@@ -354,11 +501,14 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public boolean execute(String str, int[] values) throws java.sql.SQLException
     {
-        if (debug)
+        long start = System.nanoTime();
+        try
+        {
+            return st.execute(str, values);
+        } finally
         {
-            System.out.println("execute:" + str + " " + values);
+            executed(start, str);
         }
-        return st.execute(str, values);
     }
 
     /* (non-Javadoc)
@@ -366,11 +516,14 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public boolean execute(String str, int param) throws java.sql.SQLException
     {
-        if (debug)
+        long start = System.nanoTime();
+        try
         {
-            System.out.println("execute:" + str + " " + param);
+            return st.execute(str, param);
+        } finally
+        {
+            executed(start, str);
         }
-        return st.execute(str, param);
     }
 
     /* (non-Javadoc)
@@ -394,11 +547,14 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public int executeUpdate(String str, String[] str1) throws java.sql.SQLException
     {
-        if (debug)
+        long start = System.nanoTime();
+        try
+        {
+            return st.executeUpdate(str, str1);
+        } finally
         {
-            System.out.println("executeUpdate():" + str + " " + str1);
+            executed(start, str);
         }
-        return st.executeUpdate(str, str1);
     }
 
     /* (non-Javadoc)
@@ -406,11 +562,14 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public int executeUpdate(String str, int param) throws java.sql.SQLException
     {
-        if (debug)
+        long start = System.nanoTime();
+        try
+        {
+            return st.executeUpdate(str, param);
+        } finally
         {
-            System.out.println("executeUpdate():" + str + " " + param);
+            executed(start, str);
         }
-        return st.executeUpdate(str, param);
     }
 
     /* (non-Javadoc)
@@ -418,11 +577,14 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public int executeUpdate(String str, int[] values) throws java.sql.SQLException
     {
-        if (debug)
+        long start = System.nanoTime();
+        try
         {
-            System.out.println("executeUpdate():" + str + " " + values);
+            return st.executeUpdate(str, values);
+        } finally
+        {
+            executed(start, str);
         }
-        return st.executeUpdate(str, values);
     }
 
     /* (non-Javadoc)
@@ -438,11 +600,18 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public ResultSet executeQuery() throws SQLException
     {
-        if (debug)
+        long start = System.nanoTime();
+        try
+        {
+            return st.executeQuery();
+        } catch (SQLException e)
+        {
+            logError(e);
+            throw e;
+        } finally
         {
-            System.out.println("executeQuery():" + query);
+            executed(start);
         }
-        return st.executeQuery();
     }
 
     /* (non-Javadoc)
@@ -450,11 +619,18 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public int executeUpdate() throws SQLException
     {
-        if (debug)
+        long start = System.nanoTime();
+        try
         {
-            System.out.println("executeUpdate():" + query);
+            return st.executeUpdate();
+        } catch (SQLException e)
+        {
+            logError(e);
+            throw e;
+        } finally
+        {
+            executed(start);
         }
-        return st.executeUpdate();
     }
 
     /* (non-Javadoc)
@@ -462,9 +638,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setNull(int parameterIndex, int sqlType) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + sqlType;
+            params.setNull(parameterIndex, sqlType);
         }
         st.setNull(parameterIndex, sqlType);
     }
@@ -474,9 +650,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setBoolean(int parameterIndex, boolean x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         st.setBoolean(parameterIndex, x);
     }
@@ -486,9 +662,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setByte(int parameterIndex, byte x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         st.setByte(parameterIndex, x);
     }
@@ -498,9 +674,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setShort(int parameterIndex, short x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         st.setShort(parameterIndex, x);
     }
@@ -510,9 +686,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setInt(int parameterIndex, int x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         st.setInt(parameterIndex, x);
     }
@@ -522,9 +698,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setLong(int parameterIndex, long x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         st.setLong(parameterIndex, x);
     }
@@ -534,9 +710,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setFloat(int parameterIndex, float x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         st.setFloat(parameterIndex, x);
     }
@@ -546,9 +722,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setDouble(int parameterIndex, double x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         st.setDouble(parameterIndex, x);
     }
@@ -558,9 +734,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         st.setBigDecimal(parameterIndex, x);
     }
@@ -570,9 +746,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setString(int parameterIndex, String x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         st.setString(parameterIndex, x);
     }
@@ -582,9 +758,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setBytes(int parameterIndex, byte[] x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         st.setBytes(parameterIndex, x);
     }
@@ -594,9 +770,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setDate(int parameterIndex, Date x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         st.setDate(parameterIndex, x);
     }
@@ -606,9 +782,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setTime(int parameterIndex, Time x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         st.setTime(parameterIndex, x);
     }
@@ -618,9 +794,9 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException
     {
-        if (debug)
+        if (params != null)
         {
-            args += " " + parameterIndex + " " + x;
+            params.set(parameterIndex, x);
         }
         st.setTimestamp(parameterIndex, x);
     }
@@ -631,6 +807,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException
     {
+        if (params != null)
+        {
+            params.setStream(parameterIndex);
+        }
         st.setAsciiStream(parameterIndex, x, length);
     }
 
@@ -647,6 +827,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException
     {
+        if (params != null)
+        {
+            params.setStream(parameterIndex);
+        }
         st.setBinaryStream(parameterIndex, x, length);
     }
 
@@ -655,6 +839,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void clearParameters() throws SQLException
     {
+        if (params != null)
+        {
+            params.clear();
+        }
         st.clearParameters();
     }
 
@@ -663,6 +851,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setObject(int parameterIndex, Object x, int targetSqlType, int scale) throws SQLException
     {
+        if (params != null)
+        {
+            params.set(parameterIndex, x);
+        }
         st.setObject(parameterIndex, x, targetSqlType, scale);
     }
 
@@ -671,6 +863,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException
     {
+        if (params != null)
+        {
+            params.set(parameterIndex, x);
+        }
         st.setObject(parameterIndex, x, targetSqlType);
     }
 
@@ -679,6 +875,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setObject(int parameterIndex, Object x) throws SQLException
     {
+        if (params != null)
+        {
+            params.set(parameterIndex, x);
+        }
         st.setObject(parameterIndex, x);
     }
 
@@ -687,23 +887,18 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public boolean execute() throws SQLException
     {
-        boolean ret;
-        long time = 0;
-        if (debug)
+        long start = System.nanoTime();
+        try
         {
-            time = System.currentTimeMillis();
-            System.out.println("----------------------------------------------");
-            System.out.println("--> execute():" + query);
-            System.out.println("--> args:" + args);
-            args = "";
-            //new Exception().printStackTrace();
-        }
-        ret = st.execute();
-        if (debug)
+            return st.execute();
+        } catch (SQLException e)
         {
-            System.out.println("------------------" + (System.currentTimeMillis() - time) + "-----------------------");
+            logError(e);
+            throw e;
+        } finally
+        {
+            executed(start);
         }
-        return ret;
     }
 
     /* (non-Javadoc)
@@ -719,6 +914,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException
     {
+        if (params != null)
+        {
+            params.setStream(parameterIndex);
+        }
         st.setCharacterStream(parameterIndex, reader, length);
     }
 
@@ -767,6 +966,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException
     {
+        if (params != null)
+        {
+            params.set(parameterIndex, x);
+        }
         st.setDate(parameterIndex, x, cal);
     }
 
@@ -775,6 +978,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException
     {
+        if (params != null)
+        {
+            params.set(parameterIndex, x);
+        }
         st.setTime(parameterIndex, x, cal);
     }
 
@@ -783,7 +990,11 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException
     {
-        throw new UnsupportedOperationException("Not supported yet.");
+        if (params != null)
+        {
+            params.set(parameterIndex, x);
+        }
+        st.setTimestamp(parameterIndex, x, cal);
     }
 
     /* (non-Javadoc)
@@ -791,6 +1002,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setNull(int paramIndex, int sqlType, String typeName) throws SQLException
     {
+        if (params != null)
+        {
+            params.setNull(paramIndex, sqlType);
+        }
         st.setNull(paramIndex, sqlType, typeName);
     }
 
@@ -799,6 +1014,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public void setURL(int parameterIndex, URL x) throws SQLException
     {
+        if (params != null)
+        {
+            params.set(parameterIndex, x);
+        }
         st.setURL(parameterIndex, x);
     }
 
@@ -812,6 +1031,7 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
 //********************************** version 1.6
 
     public void setPoolable(boolean poolable) throws SQLException {
+    reusable = reusable && poolable;
     st.setPoolable(poolable);
     }
 
@@ -904,6 +1124,10 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
 
     public void setNString(int parameterIndex, String value) throws SQLException
     {
+    if (params != null)
+    {
+        params.set(parameterIndex, value);
+    }
     st.setNString(parameterIndex, value);
     }
 
@@ -921,12 +1145,13 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
     @Override
     public void closeOnCompletion() throws SQLException
     {
+        reusable = false;
         st.closeOnCompletion();
     }
 
     @Override
     public boolean isCloseOnCompletion() throws SQLException
     {
-        return isCloseOnCompletion();
+        return st.isCloseOnCompletion();
     }
 }
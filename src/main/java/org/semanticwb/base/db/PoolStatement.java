@@ -41,6 +41,12 @@ public class PoolStatement implements java.sql.Statement
     /** The con. */
     Connection con;
 
+    /** El pool de la conexión, nulo si la conexión no pertenece a un pool. */
+    private DBConnectionPool pool;
+
+    /** La primera sentencia del lote, para las estadísticas de executeBatch. */
+    private String batch;
+
     /**
      * Creates a new instance of PoolStatement.
      * 
@@ -51,6 +57,24 @@ public class PoolStatement implements java.sql.Statement
     {
         this.st = st;
         this.con=con;
+        if (con instanceof PoolConnection && ((PoolConnection) con).getPool() != null)
+        {
+            pool = ((PoolConnection) con).getPool();
+        }
+    }
+
+    /**
+     * Registra el tiempo de ejecución de una sentencia en las métricas del pool.
+     *
+     * @param start el valor de System.nanoTime() al iniciar la ejecución
+     * @param sql la sentencia
+     */
+    private void executed(long start, String sql)
+    {
+        if (pool != null)
+        {
+            pool.queryExecuted(start, sql, null, con, null);
+        }
     }
 
     /* (non-Javadoc)
@@ -58,6 +82,10 @@ public class PoolStatement implements java.sql.Statement
      */
     public void addBatch(String str) throws java.sql.SQLException
     {
+        if (batch == null)
+        {
+            batch = str;
+        }
         st.addBatch(str);
     }
 
@@ -74,6 +102,7 @@ public class PoolStatement implements java.sql.Statement
      */
     public void clearBatch() throws java.sql.SQLException
     {
+        batch = null;
         st.clearBatch();
     }
 
@@ -91,6 +120,10 @@ public class PoolStatement implements java.sql.Statement
     public void close() throws java.sql.SQLException
     {
         closed = true;
+        if (con instanceof PoolConnection)
+        {
+            ((PoolConnection) con).statementClosed(this);
+        }
         st.close();
     }
 
@@ -99,7 +132,14 @@ public class PoolStatement implements java.sql.Statement
      */
     public boolean execute(String str) throws java.sql.SQLException
     {
-        return st.execute(str);
+        long start = System.nanoTime();
+        try
+        {
+            return st.execute(str);
+        } finally
+        {
+            executed(start, str);
+        }
     }
 
     /* (non-Javadoc)
@@ -107,7 +147,15 @@ public class PoolStatement implements java.sql.Statement
      */
     public int[] executeBatch() throws java.sql.SQLException
     {
-        return st.executeBatch();
+        long start = System.nanoTime();
+        try
+        {
+            return st.executeBatch();
+        } finally
+        {
+            executed(start, batch);
+            batch = null;
+        }
     }
 
     /* (non-Javadoc)
@@ -115,7 +163,14 @@ public class PoolStatement implements java.sql.Statement
      */
     public java.sql.ResultSet executeQuery(String str) throws java.sql.SQLException
     {
-        return st.executeQuery(str);
+        long start = System.nanoTime();
+        try
+        {
+            return st.executeQuery(str);
+        } finally
+        {
+            executed(start, str);
+        }
     }
 
     /* (non-Javadoc)
@@ -123,7 +178,14 @@ public class PoolStatement implements java.sql.Statement
      */
     public int executeUpdate(String str) throws java.sql.SQLException
     {
-        return st.executeUpdate(str);
+        long start = System.nanoTime();
+        try
+        {
+            return st.executeUpdate(str);
+        } finally
+        {
+            executed(start, str);
+        }
     }
 
     /* (non-Javadoc)
@@ -295,7 +357,14 @@ public class PoolStatement implements java.sql.Statement
  */
 public boolean execute(String str, String[] str1) throws java.sql.SQLException
     {
-        return st.execute(str, str1);
+        long start = System.nanoTime();
+        try
+        {
+            return st.execute(str, str1);
+        } finally
+        {
+            executed(start, str);
+        }
     }
 
     /* (non-Javadoc)
@@ -303,7 +372,14 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public boolean execute(String str, int[] values) throws java.sql.SQLException
     {
-        return st.execute(str, values);
+        long start = System.nanoTime();
+        try
+        {
+            return st.execute(str, values);
+        } finally
+        {
+            executed(start, str);
+        }
     }
 
     /* (non-Javadoc)
@@ -311,7 +387,14 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public boolean execute(String str, int param) throws java.sql.SQLException
     {
-        return st.execute(str, param);
+        long start = System.nanoTime();
+        try
+        {
+            return st.execute(str, param);
+        } finally
+        {
+            executed(start, str);
+        }
     }
 
     /* (non-Javadoc)
@@ -335,7 +418,14 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public int executeUpdate(String str, String[] str1) throws java.sql.SQLException
     {
-        return st.executeUpdate(str, str1);
+        long start = System.nanoTime();
+        try
+        {
+            return st.executeUpdate(str, str1);
+        } finally
+        {
+            executed(start, str);
+        }
     }
 
     /* (non-Javadoc)
@@ -343,7 +433,14 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public int executeUpdate(String str, int param) throws java.sql.SQLException
     {
-        return st.executeUpdate(str, param);
+        long start = System.nanoTime();
+        try
+        {
+            return st.executeUpdate(str, param);
+        } finally
+        {
+            executed(start, str);
+        }
     }
 
     /* (non-Javadoc)
@@ -351,7 +448,14 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
      */
     public int executeUpdate(String str, int[] values) throws java.sql.SQLException
     {
-        return st.executeUpdate(str, values);
+        long start = System.nanoTime();
+        try
+        {
+            return st.executeUpdate(str, values);
+        } finally
+        {
+            executed(start, str);
+        }
     }
 
     /* (non-Javadoc)
@@ -389,6 +493,6 @@ public boolean execute(String str, String[] str1) throws java.sql.SQLException
     @Override
     public boolean isCloseOnCompletion() throws SQLException
     {
-        return isCloseOnCompletion();
+        return st.isCloseOnCompletion();
     }
 }
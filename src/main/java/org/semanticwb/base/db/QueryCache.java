@@ -0,0 +1,411 @@
+/*
+ * SemanticWebBuilder es una plataforma para el desarrollo de portales y aplicaciones de integración,
+ * colaboración y conocimiento, que gracias al uso de tecnología semántica puede generar contextos de
+ * información alrededor de algún tema de interés o bien integrar información y aplicaciones de diferentes
+ * fuentes, donde a la información se le asigna un significado, de forma que pueda ser interpretada y
+ * procesada por personas y/o sistemas, es una creación original del Fondo de Información y Documentación
+ * para la Industria INFOTEC, cuyo registro se encuentra actualmente en trámite.
+ *
+ * INFOTEC pone a su disposición la herramienta SemanticWebBuilder a través de su licenciamiento abierto al público (‘open source’),
+ * en virtud del cual, usted podrá usarlo en las mismas condiciones con que INFOTEC lo ha diseñado y puesto a su disposición;
+ * aprender de él; distribuirlo a terceros; acceder a su código fuente y modificarlo, y combinarlo o enlazarlo con otro software,
+ * todo ello de conformidad con los términos y condiciones de la LICENCIA ABIERTA AL PÚBLICO que otorga INFOTEC para la utilización
+ * del SemanticWebBuilder 4.0.
+ *
+ * INFOTEC no otorga garantía sobre SemanticWebBuilder, de ninguna especie y naturaleza, ni implícita ni explícita,
+ * siendo usted completamente responsable de la utilización que le dé y asumiendo la totalidad de los riesgos que puedan derivar
+ * de la misma.
+ *
+ * Si usted tiene cualquier duda o comentario sobre SemanticWebBuilder, INFOTEC pone a su disposición la siguiente
+ * dirección electrónica:
+ *  http://www.semanticwebbuilder.org
+ */
+package org.semanticwb.base.db;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.semanticwb.base.SWBObserver;
+import org.semanticwb.base.util.HashMapCache;
+
+/**
+ * Cache de resultados de consultas de un {@link DBConnectionPool}, identificados por su SQL y
+ * los valores de sus parámetros. Los resultados expiran tras un tiempo de vida y el cache tiene
+ * un número máximo de resultados. Cada consulta indica las tablas de las que depende, y al
+ * invalidar una tabla se descartan todos los resultados que dependen de ella; para esto cada
+ * tabla tiene una versión que se incrementa al invalidarla, y un resultado solo es válido si
+ * las versiones de sus tablas no han cambiado. Como {@link SWBObserver}, recibe en
+ * sendDBNotify el nombre de la tabla modificada.
+ */
+public class QueryCache implements SWBObserver
+{
+
+    /** The pool. */
+    private final DBConnectionPool pool;
+
+    /** Los resultados por consulta. */
+    private final HashMapCache<Key, Entry> cache;
+
+    /** El número máximo de renglones de un resultado que se guarda en el cache. */
+    private int maxRows = 1000;
+
+    /** La versión de cada tabla. */
+    private final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+
+    /** The hits. */
+    private final LongAdder hits = new LongAdder();
+
+    /** The misses. */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Instantiates a new query cache.
+     *
+     * @param pool the pool
+     * @param maxSize el número máximo de resultados
+     * @param ttl el tiempo de vida en segundos de un resultado
+     */
+    public QueryCache(DBConnectionPool pool, int maxSize, long ttl)
+    {
+        this.pool = pool;
+        this.cache = new HashMapCache<Key, Entry>(maxSize);
+        // Los resultados vencidos salen del cache al usarse o al ejecutar cleanUp()
+        cache.setExpireAfterWrite(ttl, TimeUnit.SECONDS);
+        cache.setWeigher(new HashMapCache.Weigher<Key, Entry>()
+        {
+            public int weigh(Key key, Entry entry)
+            {
+                return (int) Math.min(entry.result.getSize(), Integer.MAX_VALUE);
+            }
+        });
+    }
+
+    /**
+     * Regresa el resultado de la consulta, del cache si está vigente o ejecutándola.
+     *
+     * @param sql la consulta con parámetros
+     * @param tables las tablas de las que depende el resultado, para invalidarlo
+     * @param params los valores de los parámetros
+     * @return el resultado
+     * @throws SQLException si la consulta falla
+     */
+    public CachedResult query(String sql, String[] tables, Object... params) throws SQLException
+    {
+        Key key = new Key(sql, params);
+        Entry entry = cache.get(key);
+        if (entry != null)
+        {
+            if (isCurrent(entry))
+            {
+                hits.increment();
+                return entry.result;
+            }
+            cache.remove(key);
+        }
+        misses.increment();
+        // Las versiones se leen antes de ejecutar la consulta para descartar el resultado si una
+        // tabla se invalida mientras se ejecuta
+        String[] tags = normalize(tables);
+        long[] tagVersions = new long[tags.length];
+        for (int i = 0; i < tags.length; i++)
+        {
+            tagVersions[i] = version(tags[i]).get();
+        }
+        CachedResult result = pool.load(sql, params);
+        if (result.getRowCount() <= maxRows)
+        {
+            cache.put(key, new Entry(result, tags, tagVersions));
+        }
+        return result;
+    }
+
+    /**
+     * Revisa que las tablas del resultado no se hayan invalidado.
+     *
+     * @param entry the entry
+     * @return true, si el resultado es vigente
+     */
+    private boolean isCurrent(Entry entry)
+    {
+        for (int i = 0; i < entry.tables.length; i++)
+        {
+            if (version(entry.tables[i]).get() != entry.versions[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Regresa el contador de versión de la tabla.
+     *
+     * @param table the table
+     * @return the atomic long
+     */
+    private AtomicLong version(String table)
+    {
+        AtomicLong version = versions.get(table);
+        if (version == null)
+        {
+            version = new AtomicLong();
+            AtomicLong prev = versions.putIfAbsent(table, version);
+            if (prev != null)
+            {
+                version = prev;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Normaliza los nombres de tablas a minúsculas.
+     *
+     * @param tables the tables
+     * @return the string[]
+     */
+    private static String[] normalize(String[] tables)
+    {
+        if (tables == null)
+        {
+            return new String[0];
+        }
+        String[] ret = new String[tables.length];
+        for (int i = 0; i < tables.length; i++)
+        {
+            ret[i] = tables[i].toLowerCase(Locale.ENGLISH);
+        }
+        return ret;
+    }
+
+    /**
+     * Descarta los resultados que dependen de la tabla.
+     *
+     * @param table el nombre de la tabla
+     */
+    public void invalidate(String table)
+    {
+        version(table.toLowerCase(Locale.ENGLISH)).incrementAndGet();
+    }
+
+    /**
+     * Descarta todos los resultados.
+     */
+    public void clear()
+    {
+        cache.clear();
+    }
+
+    /**
+     * Retira los resultados vencidos aunque no se vuelvan a consultar. El pool lo ejecuta
+     * periódicamente.
+     */
+    public void cleanUp()
+    {
+        cache.cleanUp();
+    }
+
+    /**
+     * Gets the ttl.
+     *
+     * @return el tiempo de vida en segundos de un resultado
+     */
+    public long getTtl()
+    {
+        return TimeUnit.NANOSECONDS.toSeconds(cache.getExpireAfterWrite());
+    }
+
+    /**
+     * Recibe la notificación de un cambio en la base de datos e invalida la tabla indicada,
+     * o todo el cache si no se indica una tabla.
+     *
+     * @param s el nombre de la tabla modificada
+     * @param obj the obj
+     */
+    public void sendDBNotify(String s, Object obj)
+    {
+        if (s == null)
+        {
+            clear();
+        } else
+        {
+            invalidate(s);
+        }
+    }
+
+    /**
+     * Gets the max rows.
+     *
+     * @return el número máximo de renglones de un resultado que se guarda en el cache
+     */
+    public int getMaxRows()
+    {
+        return maxRows;
+    }
+
+    /**
+     * Sets the max rows. Los resultados más grandes se regresan sin guardarse.
+     *
+     * @param maxRows el número máximo de renglones de un resultado que se guarda en el cache
+     */
+    public void setMaxRows(int maxRows)
+    {
+        this.maxRows = Math.max(1, maxRows);
+    }
+
+    /**
+     * Gets the hits.
+     *
+     * @return el número de consultas resueltas con el cache
+     */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the misses.
+     *
+     * @return el número de consultas ejecutadas en la base de datos
+     */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the hit ratio.
+     *
+     * @return la proporción de consultas resueltas con el cache, entre 0 y 1
+     */
+    public double getHitRatio()
+    {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total > 0 ? (double) h / total : 0;
+    }
+
+    /**
+     * Gets the size.
+     *
+     * @return el número de resultados en el cache
+     */
+    public int getSize()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Estima la memoria utilizada por los resultados del cache.
+     *
+     * @return el tamaño estimado en bytes
+     */
+    public long getMemory()
+    {
+        return cache.getWeightedSize();
+    }
+
+    /**
+     * Gets the max memory.
+     *
+     * @return los bytes estimados máximos que ocupan los resultados, 0 sin límite
+     */
+    public long getMaxMemory()
+    {
+        return cache.getMaxWeight();
+    }
+
+    /**
+     * Limita la memoria del cache, se descartan los resultados usados menos recientemente.
+     *
+     * @param maxMemory los bytes estimados máximos que ocupan los resultados, 0 sin límite
+     */
+    public void setMaxMemory(long maxMemory)
+    {
+        cache.setMaxWeight(maxMemory);
+    }
+
+    /**
+     * Llave de una consulta.
+     */
+    private static final class Key
+    {
+
+        /** The sql. */
+        private final String sql;
+
+        /** The params. */
+        private final Object[] params;
+
+        /** The hash. */
+        private final int hash;
+
+        /**
+         * Instantiates a new key.
+         *
+         * @param sql the sql
+         * @param params the params
+         */
+        private Key(String sql, Object[] params)
+        {
+            this.sql = sql;
+            this.params = params.clone();
+            this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(this.params);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && sql.equals(other.sql) && Arrays.deepEquals(params, other.params);
+        }
+    }
+
+    /**
+     * Un resultado en el cache.
+     */
+    private static final class Entry
+    {
+
+        /** The result. */
+        private final CachedResult result;
+
+        /** Las tablas de las que depende. */
+        private final String[] tables;
+
+        /** Las versiones de las tablas al ejecutar la consulta. */
+        private final long[] versions;
+
+        /**
+         * Instantiates a new entry.
+         *
+         * @param result the result
+         * @param tables the tables
+         * @param versions the versions
+         */
+        private Entry(CachedResult result, String[] tables, long[] versions)
+        {
+            this.result = result;
+            this.tables = tables;
+            this.versions = versions;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * SemanticWebBuilder es una plataforma para el desarrollo de portales y aplicaciones de integración,
+ * colaboración y conocimiento, que gracias al uso de tecnología semántica puede generar contextos de
+ * información alrededor de algún tema de interés o bien integrar información y aplicaciones de diferentes
+ * fuentes, donde a la información se le asigna un significado, de forma que pueda ser interpretada y
+ * procesada por personas y/o sistemas, es una creación original del Fondo de Información y Documentación
+ * para la Industria INFOTEC, cuyo registro se encuentra actualmente en trámite.
+ *
+ * INFOTEC pone a su disposición la herramienta SemanticWebBuilder a través de su licenciamiento abierto al público (‘open source’),
+ * en virtud del cual, usted podrá usarlo en las mismas condiciones con que INFOTEC lo ha diseñado y puesto a su disposición;
+ * aprender de él; distribuirlo a terceros; acceder a su código fuente y modificarlo, y combinarlo o enlazarlo con otro software,
+ * todo ello de conformidad con los términos y condiciones de la LICENCIA ABIERTA AL PÚBLICO que otorga INFOTEC para la utilización
+ * del SemanticWebBuilder 4.0.
+ *
+ * INFOTEC no otorga garantía sobre SemanticWebBuilder, de ninguna especie y naturaleza, ni implícita ni explícita,
+ * siendo usted completamente responsable de la utilización que le dé y asumiendo la totalidad de los riesgos que puedan derivar
+ * de la misma.
+ *
+ * Si usted tiene cualquier duda o comentario sobre SemanticWebBuilder, INFOTEC pone a su disposición la siguiente
+ * dirección electrónica:
+ *  http://www.semanticwebbuilder.org
+ */
+package org.semanticwb.base.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estadísticas de ejecución de las sentencias de un {@link DBConnectionPool}, agrupadas por
+ * huella: el SQL con sus literales reemplazados por ? y los espacios normalizados, de forma que
+ * las consultas que solo difieren en sus valores se acumulan juntas. El número de huellas es
+ * limitado; al alcanzarlo, las nuevas se acumulan en la huella {@link #OTHER}.
+ */
+public class QueryStats
+{
+
+    /** La huella donde se acumulan las sentencias cuando se alcanza el máximo de huellas. */
+    public static final String OTHER = "(other)";
+
+    /** Longitud máxima de una huella, el resto del SQL se descarta. */
+    private static final int MAX_LENGTH = 2000;
+
+    /** Los tiempos de ejecución por huella. */
+    private final ConcurrentHashMap<String, LatencyHistogram> stats = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /** El número máximo de huellas, 0 para no registrar estadísticas. */
+    private volatile int maxSize;
+
+    /**
+     * Instantiates a new query stats.
+     *
+     * @param maxSize el número máximo de huellas, 0 para no registrar estadísticas
+     */
+    public QueryStats(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Registra el tiempo de ejecución de una sentencia.
+     *
+     * @param fingerprint la huella de la sentencia, ver {@link #fingerprint(String)}
+     * @param micros el tiempo de ejecución en microsegundos
+     */
+    void record(String fingerprint, long micros)
+    {
+        LatencyHistogram histogram = stats.get(fingerprint);
+        if (histogram == null)
+        {
+            if (stats.size() >= maxSize)
+            {
+                fingerprint = OTHER;
+            }
+            histogram = new LatencyHistogram();
+            LatencyHistogram prev = stats.putIfAbsent(fingerprint, histogram);
+            if (prev != null)
+            {
+                histogram = prev;
+            }
+        }
+        histogram.record(micros);
+    }
+
+    /**
+     * Checks if is enabled.
+     *
+     * @return true, si se registran estadísticas
+     */
+    public boolean isEnabled()
+    {
+        return maxSize > 0;
+    }
+
+    /**
+     * Gets the max size.
+     *
+     * @return el número máximo de huellas
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Sets the max size.
+     *
+     * @param maxSize el número máximo de huellas, 0 para no registrar estadísticas
+     */
+    public void setMaxSize(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Regresa los tiempos de ejecución de una huella.
+     *
+     * @param fingerprint la huella
+     * @return el histograma, o nulo si no se ha ejecutado
+     */
+    public LatencyHistogram get(String fingerprint)
+    {
+        return stats.get(fingerprint);
+    }
+
+    /**
+     * Regresa las estadísticas de las huellas con mayor tiempo total de ejecución.
+     *
+     * @param max el número máximo de huellas a regresar
+     * @return las estadísticas ordenadas por tiempo total descendente
+     */
+    public List<Stat> getTop(int max)
+    {
+        List<Stat> ret = new ArrayList<Stat>(stats.size());
+        for (Map.Entry<String, LatencyHistogram> entry : stats.entrySet())
+        {
+            LatencyHistogram histogram = entry.getValue();
+            ret.add(new Stat(entry.getKey(), histogram.getCount(), histogram.getTotal(), histogram.getMax(), histogram.getPercentile(99)));
+        }
+        Collections.sort(ret, new Comparator<Stat>()
+        {
+            public int compare(Stat a, Stat b)
+            {
+                return Long.compare(b.getTotal(), a.getTotal());
+            }
+        });
+        return ret.size() > max ? new ArrayList<Stat>(ret.subList(0, max)) : ret;
+    }
+
+    /**
+     * Borra las estadísticas.
+     */
+    public void reset()
+    {
+        stats.clear();
+    }
+
+    /**
+     * Calcula la huella de una sentencia: reemplaza las cadenas y números literales por ?,
+     * reduce las listas de valores (?, ?, ?) a (?) y los espacios consecutivos a uno.
+     *
+     * @param sql la sentencia
+     * @return la huella
+     */
+    public static String fingerprint(String sql)
+    {
+        int len = Math.min(sql.length(), MAX_LENGTH);
+        StringBuilder ret = new StringBuilder(len);
+        int i = 0;
+        while (i < len)
+        {
+            char c = sql.charAt(i);
+            if (c == '\'')
+            {
+                // Cadena literal, las comillas duplicadas son parte de la cadena
+                i++;
+                while (i < len)
+                {
+                    if (sql.charAt(i) == '\'')
+                    {
+                        if (i + 1 < len && sql.charAt(i + 1) == '\'')
+                        {
+                            i++;
+                        } else
+                        {
+                            break;
+                        }
+                    }
+                    i++;
+                }
+                i++;
+                appendParam(ret);
+            } else if (Character.isDigit(c) && !isIdentifierEnd(ret))
+            {
+                while (i < len && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+                {
+                    i++;
+                }
+                appendParam(ret);
+            } else if (c == '?')
+            {
+                i++;
+                appendParam(ret);
+            } else if (Character.isWhitespace(c))
+            {
+                while (i < len && Character.isWhitespace(sql.charAt(i)))
+                {
+                    i++;
+                }
+                if (ret.length() > 0 && i < len)
+                {
+                    ret.append(' ');
+                }
+            } else
+            {
+                ret.append(c);
+                i++;
+            }
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Agrega un parámetro a la huella, omitiéndolo si continúa una lista de parámetros.
+     *
+     * @param ret la huella
+     */
+    private static void appendParam(StringBuilder ret)
+    {
+        int end = ret.length();
+        if (end > 0 && ret.charAt(end - 1) == ' ')
+        {
+            end--;
+        }
+        if (end > 1 && ret.charAt(end - 1) == ',' && ret.charAt(end - 2) == '?')
+        {
+            ret.setLength(end - 1);
+        } else
+        {
+            ret.append('?');
+        }
+    }
+
+    /**
+     * Indica si la huella termina en un identificador, para no confundir sus dígitos con un número.
+     *
+     * @param ret la huella
+     * @return true, si el último caracter es parte de un identificador
+     */
+    private static boolean isIdentifierEnd(StringBuilder ret)
+    {
+        if (ret.length() == 0)
+        {
+            return false;
+        }
+        char c = ret.charAt(ret.length() - 1);
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /**
+     * Estadísticas de ejecución de una huella. Los tiempos se expresan en microsegundos.
+     */
+    public static final class Stat
+    {
+
+        /** The fingerprint. */
+        private final String fingerprint;
+
+        /** The count. */
+        private final long count;
+
+        /** The total. */
+        private final long total;
+
+        /** The max. */
+        private final long max;
+
+        /** The p99. */
+        private final long p99;
+
+        /**
+         * Instantiates a new stat.
+         *
+         * @param fingerprint the fingerprint
+         * @param count the count
+         * @param total the total
+         * @param max the max
+         * @param p99 the p99
+         */
+        public Stat(String fingerprint, long count, long total, long max, long p99)
+        {
+            this.fingerprint = fingerprint;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+            this.p99 = p99;
+        }
+
+        /**
+         * Gets the fingerprint.
+         *
+         * @return the fingerprint
+         */
+        public String getFingerprint()
+        {
+            return fingerprint;
+        }
+
+        /**
+         * Gets the count.
+         *
+         * @return el número de ejecuciones
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Gets the total.
+         *
+         * @return el tiempo total de ejecución
+         */
+        public long getTotal()
+        {
+            return total;
+        }
+
+        /**
+         * Gets the max.
+         *
+         * @return el mayor tiempo de ejecución
+         */
+        public long getMax()
+        {
+            return max;
+        }
+
+        /**
+         * Gets the p99.
+         *
+         * @return el percentil 99 estimado del tiempo de ejecución
+         */
+        public long getP99()
+        {
+            return p99;
+        }
+
+        @Override
+        public String toString()
+        {
+            return fingerprint + ": count=" + count + ", total=" + total + "us, max=" + max + "us, p99=" + p99 + "us";
+        }
+    }
+}
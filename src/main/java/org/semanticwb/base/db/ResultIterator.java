@@ -0,0 +1,252 @@
+/*
+ * SemanticWebBuilder es una plataforma para el desarrollo de portales y aplicaciones de integración,
+ * colaboración y conocimiento, que gracias al uso de tecnología semántica puede generar contextos de
+ * información alrededor de algún tema de interés o bien integrar información y aplicaciones de diferentes
+ * fuentes, donde a la información se le asigna un significado, de forma que pueda ser interpretada y
+ * procesada por personas y/o sistemas, es una creación original del Fondo de Información y Documentación
+ * para la Industria INFOTEC, cuyo registro se encuentra actualmente en trámite.
+ *
+ * INFOTEC pone a su disposición la herramienta SemanticWebBuilder a través de su licenciamiento abierto al público (‘open source’),
+ * en virtud del cual, usted podrá usarlo en las mismas condiciones con que INFOTEC lo ha diseñado y puesto a su disposición;
+ * aprender de él; distribuirlo a terceros; acceder a su código fuente y modificarlo, y combinarlo o enlazarlo con otro software,
+ * todo ello de conformidad con los términos y condiciones de la LICENCIA ABIERTA AL PÚBLICO que otorga INFOTEC para la utilización
+ * del SemanticWebBuilder 4.0.
+ *
+ * INFOTEC no otorga garantía sobre SemanticWebBuilder, de ninguna especie y naturaleza, ni implícita ni explícita,
+ * siendo usted completamente responsable de la utilización que le dé y asumiendo la totalidad de los riesgos que puedan derivar
+ * de la misma.
+ *
+ * Si usted tiene cualquier duda o comentario sobre SemanticWebBuilder, INFOTEC pone a su disposición la siguiente
+ * dirección electrónica:
+ *  http://www.semanticwebbuilder.org
+ */
+package org.semanticwb.base.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.semanticwb.Logger;
+import org.semanticwb.SWBUtils;
+
+/**
+ * Recorre el resultado de una consulta renglón por renglón sin cargarlo en memoria, convirtiendo
+ * cada renglón con un {@link RowMapper}. Utiliza un cursor de solo avance y solo lectura con el
+ * tamaño de fetch adecuado para el manejador de la base de datos. La conexión regresa al pool al
+ * terminar de recorrer los renglones o al llamar a {@link #close()}, lo que ocurra primero.
+ *
+ * @param <T> el tipo de objeto de cada renglón
+ */
+public class ResultIterator<T> implements Iterator<T>, AutoCloseable
+{
+
+    /** The log. */
+    private static Logger log = SWBUtils.getLogger(ResultIterator.class);
+
+    /** The con. */
+    private Connection con;
+
+    /** The st. */
+    private PreparedStatement st;
+
+    /** The rs. */
+    private ResultSet rs;
+
+    /** The mapper. */
+    private final RowMapper<T> mapper;
+
+    /** El número del último renglón leído. */
+    private int rowNum = 0;
+
+    /** Indica si el cursor está posicionado en un renglón que aún no se entrega. */
+    private boolean ready = false;
+
+    /** The closed. */
+    private boolean closed = false;
+
+    /**
+     * Instantiates a new result iterator.
+     *
+     * @param con the con
+     * @param st the st
+     * @param rs the rs
+     * @param mapper the mapper
+     */
+    private ResultIterator(Connection con, PreparedStatement st, ResultSet rs, RowMapper<T> mapper)
+    {
+        this.con = con;
+        this.st = st;
+        this.rs = rs;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Ejecuta la consulta en una conexión del pool y regresa el iterador sobre sus renglones.
+     * En MySQL se solicita al manejador enviar los renglones uno a uno, en PostgreSQL se
+     * desactiva el auto-commit para que el manejador utilice un cursor, en los demás se define
+     * el tamaño de fetch del pool.
+     *
+     * @param <T> el tipo de objeto de cada renglón
+     * @param pool the pool
+     * @param sql la consulta con parámetros
+     * @param mapper the mapper
+     * @param params los valores de los parámetros
+     * @return the result iterator
+     * @throws SQLException si no se obtuvo una conexión o la consulta falla
+     */
+    static <T> ResultIterator<T> open(DBConnectionPool pool, String sql, RowMapper<T> mapper, Object... params) throws SQLException
+    {
+        Connection con = pool.getDataSource().getConnection();
+        PreparedStatement st = null;
+        ResultIterator<T> ret = null;
+        try
+        {
+            String type = pool.getDatabaseDescriptor(con).getType();
+            if (SWBUtils.DB.DBTYPE_PostgreSQL.equals(type))
+            {
+                con.setAutoCommit(false);
+            }
+            st = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if (SWBUtils.DB.DBTYPE_MySQL.equals(type))
+            {
+                st.setFetchSize(Integer.MIN_VALUE);
+            } else if (pool.getStreamFetchSize() > 0)
+            {
+                st.setFetchSize(pool.getStreamFetchSize());
+            }
+            for (int i = 0; i < params.length; i++)
+            {
+                st.setObject(i + 1, params[i]);
+            }
+            ret = new ResultIterator<T>(con, st, st.executeQuery(), mapper);
+            return ret;
+        } finally
+        {
+            // Cualquier salida sin iterador, incluso por una excepción no verificada del driver,
+            // cierra el statement y regresa la conexión al pool
+            if (ret == null)
+            {
+                if (st != null)
+                {
+                    try
+                    {
+                        st.close();
+                    } catch (SQLException e)
+                    {
+                        log.debug("Error closing Statement", e);
+                    }
+                }
+                try
+                {
+                    con.close();
+                } catch (SQLException e)
+                {
+                    log.error("Error closing Connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks for next.
+     *
+     * @return true, si hay otro renglón
+     */
+    public boolean hasNext()
+    {
+        if (ready)
+        {
+            return true;
+        }
+        if (closed)
+        {
+            return false;
+        }
+        try
+        {
+            ready = rs.next();
+        } catch (SQLException e)
+        {
+            close();
+            throw new IllegalStateException("Error reading row " + (rowNum + 1), e);
+        }
+        if (!ready)
+        {
+            close();
+        }
+        return ready;
+    }
+
+    /**
+     * Regresa el siguiente renglón convertido.
+     *
+     * @return the t
+     */
+    public T next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        ready = false;
+        rowNum++;
+        try
+        {
+            return mapper.map(rs, rowNum);
+        } catch (SQLException e)
+        {
+            close();
+            throw new IllegalStateException("Error mapping row " + rowNum, e);
+        }
+    }
+
+    /**
+     * Gets the row num.
+     *
+     * @return el número de renglones entregados
+     */
+    public int getRowNum()
+    {
+        return rowNum;
+    }
+
+    /**
+     * Cierra el ResultSet y el statement y regresa la conexión al pool. Puede llamarse más de
+     * una vez.
+     */
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        ready = false;
+        try
+        {
+            rs.close();
+        } catch (SQLException e)
+        {
+            log.debug("Error closing ResultSet", e);
+        }
+        try
+        {
+            st.close();
+        } catch (SQLException e)
+        {
+            log.debug("Error closing Statement", e);
+        }
+        try
+        {
+            con.close();
+        } catch (SQLException e)
+        {
+            log.error("Error closing Connection", e);
+        }
+        rs = null;
+        st = null;
+        con = null;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * SemanticWebBuilder es una plataforma para el desarrollo de portales y aplicaciones de integración,
+ * colaboración y conocimiento, que gracias al uso de tecnología semántica puede generar contextos de
+ * información alrededor de algún tema de interés o bien integrar información y aplicaciones de diferentes
+ * fuentes, donde a la información se le asigna un significado, de forma que pueda ser interpretada y
+ * procesada por personas y/o sistemas, es una creación original del Fondo de Información y Documentación
+ * para la Industria INFOTEC, cuyo registro se encuentra actualmente en trámite.
+ *
+ * INFOTEC pone a su disposición la herramienta SemanticWebBuilder a través de su licenciamiento abierto al público (‘open source’),
+ * en virtud del cual, usted podrá usarlo en las mismas condiciones con que INFOTEC lo ha diseñado y puesto a su disposición;
+ * aprender de él; distribuirlo a terceros; acceder a su código fuente y modificarlo, y combinarlo o enlazarlo con otro software,
+ * todo ello de conformidad con los términos y condiciones de la LICENCIA ABIERTA AL PÚBLICO que otorga INFOTEC para la utilización
+ * del SemanticWebBuilder 4.0.
+ *
+ * INFOTEC no otorga garantía sobre SemanticWebBuilder, de ninguna especie y naturaleza, ni implícita ni explícita,
+ * siendo usted completamente responsable de la utilización que le dé y asumiendo la totalidad de los riesgos que puedan derivar
+ * de la misma.
+ *
+ * Si usted tiene cualquier duda o comentario sobre SemanticWebBuilder, INFOTEC pone a su disposición la siguiente
+ * dirección electrónica:
+ *  http://www.semanticwebbuilder.org
+ */
+package org.semanticwb.base.db;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import org.semanticwb.Logger;
+import org.semanticwb.SWBUtils;
+
+/**
+ * Cache de PreparedStatements de una conexión física. Los statements se identifican por su SQL,
+ * tipo de ResultSet, concurrencia y holdability, y se descartan los menos usados recientemente
+ * cuando se alcanza el tamaño máximo. Un statement solo esta en el cache mientras nadie lo usa.
+ */
+class StatementCache
+{
+
+    /** The log. */
+    private static Logger log = SWBUtils.getLogger(StatementCache.class);
+
+    /** The max size. */
+    private final int maxSize;
+
+    /** Los statements libres, en orden de acceso. */
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+
+    /** The lock. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** The closed. */
+    private boolean closed = false;
+
+    /**
+     * Instantiates a new statement cache.
+     *
+     * @param maxSize el número máximo de statements en el cache
+     */
+    StatementCache(int maxSize)
+    {
+        this.maxSize = maxSize;
+        statements = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true);
+    }
+
+    /**
+     * Toma un statement del cache. El statement se retira del cache hasta que se regresa con
+     * {@link #release(Key, PreparedStatement)}.
+     *
+     * @param key the key
+     * @return el statement, o nulo si no esta en el cache
+     */
+    PreparedStatement take(Key key)
+    {
+        lock.lock();
+        try
+        {
+            return statements.remove(key);
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Regresa un statement al cache, cerrando el menos usado si se excede el tamaño máximo.
+     *
+     * @param key the key
+     * @param st the st
+     */
+    void release(Key key, PreparedStatement st)
+    {
+        PreparedStatement evicted = null;
+        lock.lock();
+        try
+        {
+            if (closed)
+            {
+                evicted = st;
+            } else
+            {
+                evicted = statements.put(key, st);
+                if (evicted == null && statements.size() > maxSize)
+                {
+                    Iterator<PreparedStatement> it = statements.values().iterator();
+                    evicted = it.next();
+                    it.remove();
+                }
+            }
+        } finally
+        {
+            lock.unlock();
+        }
+        if (evicted != null)
+        {
+            close(evicted);
+        }
+    }
+
+    /**
+     * Cierra todos los statements del cache, los statements regresados despues se cierran.
+     */
+    void clear()
+    {
+        List<PreparedStatement> list;
+        lock.lock();
+        try
+        {
+            closed = true;
+            list = new ArrayList<PreparedStatement>(statements.values());
+            statements.clear();
+        } finally
+        {
+            lock.unlock();
+        }
+        for (PreparedStatement st : list)
+        {
+            close(st);
+        }
+    }
+
+    /**
+     * Gets the size.
+     *
+     * @return el número de statements en el cache
+     */
+    int size()
+    {
+        lock.lock();
+        try
+        {
+            return statements.size();
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close.
+     *
+     * @param st the st
+     */
+    private void close(PreparedStatement st)
+    {
+        try
+        {
+            st.close();
+        } catch (SQLException e)
+        {
+            log.debug("Error closing cached statement", e);
+        }
+    }
+
+    /**
+     * Llave de un statement en el cache.
+     */
+    static final class Key
+    {
+
+        /** The sql. */
+        private final String sql;
+
+        /** The result set type. */
+        private final int type;
+
+        /** The concurrency. */
+        private final int concurrency;
+
+        /** The holdability. */
+        private final int holdability;
+
+        /** The hash. */
+        private final int hash;
+
+        /**
+         * Instantiates a new key.
+         *
+         * @param sql the sql
+         * @param type el tipo de ResultSet, -1 si no se especificó
+         * @param concurrency la concurrencia del ResultSet, -1 si no se especificó
+         * @param holdability la holdability del ResultSet, -1 si no se especificó
+         */
+        Key(String sql, int type, int concurrency, int holdability)
+        {
+            this.sql = sql;
+            this.type = type;
+            this.concurrency = concurrency;
+            this.holdability = holdability;
+            this.hash = ((sql.hashCode() * 31 + type) * 31 + concurrency) * 31 + holdability;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key k = (Key) obj;
+            return hash == k.hash && type == k.type && concurrency == k.concurrency
+                    && holdability == k.holdability && sql.equals(k.sql);
+        }
+    }
+}
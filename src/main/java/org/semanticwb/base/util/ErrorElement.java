@@ -22,6 +22,8 @@
  */
 package org.semanticwb.base.util;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 // TODO: Auto-generated Javadoc
 /**
  * Objeto: Representa y contiene una exception junto con un identificador y la
@@ -31,7 +33,7 @@ package org.semanticwb.base.util;
 public class ErrorElement {
 
     /** The counter. */
-    static long counter;
+    private static final AtomicLong counter = new AtomicLong();
     
     /** The id. */
     private long id = 0;
@@ -92,9 +94,9 @@ public class ErrorElement {
      * 
      * @return the counter
      */
-    public static synchronized long getCounter()
+    public static long getCounter()
     {
-        return counter++;
+        return counter.getAndIncrement();
     }
 
     /**
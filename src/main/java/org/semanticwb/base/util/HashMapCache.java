@@ -22,29 +22,130 @@
  */
 package org.semanticwb.base.util;
 
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * Cache concurrente de tamaño máximo que descarta los elementos usados menos recientemente (LRU).
+ * <p>
+ * Los valores se guardan en un ConcurrentHashMap, por lo que get y put no se bloquean entre si.
+ * El orden de uso se lleva en una lista doblemente ligada protegida por un candado que nunca se
+ * espera en las lecturas: cada lectura se anota en un buffer por hilo que se descarta si está
+ * lleno, y las escrituras se encolan; el hilo que obtiene el candado aplica los buffers a la
+ * lista y descarta los elementos sobrantes. Todas las operaciones son O(1) amortizadas.
+ * <p>
+ * Además del número de elementos, el cache se puede limitar por peso con un {@link Weigher} y
+ * un peso máximo, por ejemplo para limitar la memoria cuando los valores son de tamaños muy
+ * distintos. Los elementos pueden expirar un tiempo después de escribirse o de su último uso; los
+ * vencimientos se organizan en una rueda de temporizadores jerárquica que se avanza al aplicar los
+ * buffers, sin recorrer el cache, y get nunca regresa un elemento vencido.
  *
  * @author javier.solis.g
  */
-public class HashMapCache<K extends Object, V extends Object> implements Map<K,V>
+public class HashMapCache<K extends Object, V extends Object> extends AbstractMap<K,V> implements Map<K,V>
 {
-    private int maxSize;
-    ConcurrentHashMap<K,V> map;
-    LinkedList<K> linked;
-    
+    /**
+     * Calcula el peso de un elemento del cache.
+     */
+    public interface Weigher<K,V>
+    {
+        /**
+         * @return el peso del elemento, mayor o igual a 0
+         */
+        int weigh(K key, V value);
+    }
+
+    /** Lecturas por buffer, potencia de 2. */
+    private static final int READ_BUFFER_SIZE = 16;
+
+    /** Número de buffers de lectura, potencia de 2. */
+    private static final int READ_BUFFERS = readBuffers();
+
+    /** Escrituras pendientes a partir de las cuales el hilo que escribe espera el candado. */
+    private static final int WRITE_BUFFER_MAX = 128 * READ_BUFFERS;
+
+    private volatile int maxSize;
+    private final ConcurrentHashMap<K,Node<K,V>> map;
+
+    private volatile Weigher<? super K,? super V> weigher;
+    private volatile long maxWeight;
+
+    /** La suma de los pesos de los elementos en la lista de uso, se modifica con el candado. */
+    private volatile long weightedSize;
+
+    private volatile long expireAfterWriteNanos;
+    private volatile long expireAfterAccessNanos;
+
+    /** Se crea al definir una expiración, se usa con el candado. */
+    private TimerWheel timerWheel;
+
+    /** Protege la lista de uso y los buffers al aplicarlos. */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /** El elemento usado menos recientemente. */
+    private Node<K,V> head;
+
+    /** El elemento usado más recientemente. */
+    private Node<K,V> tail;
+
+    private final ReadBuffer readBuffers[];
+    private final ConcurrentLinkedQueue<Node<K,V>> writeBuffer = new ConcurrentLinkedQueue<Node<K,V>>();
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    private Set<K> keySet;
+    private Collection<V> values;
+    private Set<Entry<K,V>> entrySet;
+
+    /**
+     * Crea un cache sin límite en el número de elementos, para limitarlo solo por peso o tiempo.
+     */
+    public HashMapCache()
+    {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxSize el número máximo de elementos
+     */
     public HashMapCache(int maxSize)
     {
-        map=new ConcurrentHashMap();
-        linked= new LinkedList();
+        map=new ConcurrentHashMap<K,Node<K,V>>();
+        readBuffers=new ReadBuffer[READ_BUFFERS];
+        for(int i=0;i<READ_BUFFERS;i++)
+        {
+            readBuffers[i]=new ReadBuffer();
+        }
         this.maxSize=maxSize;
     }
 
+    private static int readBuffers()
+    {
+        int n=1;
+        while(n<Runtime.getRuntime().availableProcessors() && n<16)
+        {
+            n<<=1;
+        }
+        return n;
+    }
+
     /**
      * @return the maxSize
      */
@@ -59,6 +160,225 @@ public class HashMapCache<K extends Object, V extends Object> implements Map<K,V
     public void setMaxSize(int maxSize)
     {
         this.maxSize = maxSize;
+        evictionLock.lock();
+        try
+        {
+            drainBuffers();
+        } finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * @return the weigher, nulo si cada elemento pesa 1
+     */
+    public Weigher<? super K,? super V> getWeigher()
+    {
+        return weigher;
+    }
+
+    /**
+     * Define como se calcula el peso de los elementos, los elementos existentes se vuelven a pesar.
+     *
+     * @param weigher the weigher, nulo para que cada elemento pese 1
+     */
+    public void setWeigher(Weigher<? super K,? super V> weigher)
+    {
+        evictionLock.lock();
+        try
+        {
+            this.weigher = weigher;
+            drainBuffers();
+            for(Node<K,V> node=head;node!=null;node=node.next)
+            {
+                applyWeight(node);
+            }
+            evict();
+        } finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * @return el peso máximo, 0 sin límite
+     */
+    public long getMaxWeight()
+    {
+        return maxWeight;
+    }
+
+    /**
+     * @param maxWeight el peso máximo de la suma de los elementos, 0 sin límite
+     */
+    public void setMaxWeight(long maxWeight)
+    {
+        this.maxWeight = maxWeight;
+        evictionLock.lock();
+        try
+        {
+            drainBuffers();
+        } finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * @return la suma de los pesos de los elementos, o su número si no se definió un Weigher
+     */
+    public long getWeightedSize()
+    {
+        return weightedSize;
+    }
+
+    /**
+     * @return el tiempo en nanosegundos que un elemento permanece tras escribirse, 0 sin límite
+     */
+    public long getExpireAfterWrite()
+    {
+        return expireAfterWriteNanos;
+    }
+
+    /**
+     * Define el tiempo que un elemento permanece en el cache después de escribirse.
+     *
+     * @param duration el tiempo, 0 para que no expire
+     * @param unit las unidades del tiempo
+     */
+    public void setExpireAfterWrite(long duration, TimeUnit unit)
+    {
+        evictionLock.lock();
+        try
+        {
+            expireAfterWriteNanos=toNanos(duration, unit);
+            rescheduleAll();
+        } finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * @return el tiempo en nanosegundos que un elemento permanece tras su último uso, 0 sin límite
+     */
+    public long getExpireAfterAccess()
+    {
+        return expireAfterAccessNanos;
+    }
+
+    /**
+     * Define el tiempo que un elemento permanece en el cache después de su último uso.
+     *
+     * @param duration el tiempo, 0 para que no expire
+     * @param unit las unidades del tiempo
+     */
+    public void setExpireAfterAccess(long duration, TimeUnit unit)
+    {
+        evictionLock.lock();
+        try
+        {
+            expireAfterAccessNanos=toNanos(duration, unit);
+            rescheduleAll();
+        } finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Aplica las operaciones pendientes y retira los elementos vencidos. El cache solo lo hace al
+     * leerse o escribirse, un cache que deja de usarse conserva sus elementos vencidos hasta que
+     * se llame este método, por ejemplo desde una tarea periódica.
+     */
+    public void cleanUp()
+    {
+        evictionLock.lock();
+        try
+        {
+            drainBuffers();
+        } finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    private static long toNanos(long duration, TimeUnit unit)
+    {
+        // Se limita para que las sumas de tiempos no se desborden
+        return Math.max(0, Math.min(unit.toNanos(duration), Long.MAX_VALUE>>2));
+    }
+
+    private boolean isExpiring()
+    {
+        return expireAfterWriteNanos>0 || expireAfterAccessNanos>0;
+    }
+
+    /**
+     * Programa de nuevo todos los elementos con la expiración actual. Se ejecuta con el candado.
+     */
+    private void rescheduleAll()
+    {
+        drainBuffers();
+        if(isExpiring())
+        {
+            if(timerWheel==null)timerWheel=new TimerWheel();
+            for(Node<K,V> node=head;node!=null;node=node.next)
+            {
+                timerWheel.schedule(node);
+            }
+            timerWheel.advance(System.nanoTime());
+        } else if(timerWheel!=null)
+        {
+            for(Node<K,V> node=head;node!=null;node=node.next)
+            {
+                timerWheel.deschedule(node);
+            }
+            timerWheel=null;
+        }
+    }
+
+    /**
+     * @return el número de lecturas que encontraron el elemento
+     */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * @return el número de lecturas que no encontraron el elemento
+     */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return el número de elementos descartados por exceder el tamaño o el peso máximo
+     */
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    /**
+     * @return el número de elementos retirados por expirar
+     */
+    public long getExpirations()
+    {
+        return expirations.sum();
+    }
+
+    /**
+     * @return la proporción de lecturas que encontraron el elemento
+     */
+    public double getHitRatio()
+    {
+        long h=hits.sum();
+        long total=h+misses.sum();
+        return total==0?0:(double)h/total;
     }
 
     @Override
@@ -76,81 +396,731 @@ public class HashMapCache<K extends Object, V extends Object> implements Map<K,V
     @Override
     public boolean containsKey(Object obj)
     {
-        //System.out.println("containsKey:"+obj+" "+map.containsKey(obj));
-        return map.containsKey(obj);
+        if(obj==null)return false;
+        Node<K,V> node=map.get(obj);
+        return node!=null && !(isExpiring() && isExpired(node, System.nanoTime()));
     }
 
     @Override
     public boolean containsValue(Object obj)
     {
-        return map.containsValue(obj);
+        if(obj==null)return false;
+        for(Node<K,V> node:map.values())
+        {
+            if(obj.equals(node.value))return true;
+        }
+        return false;
     }
 
     @Override
     public V get(Object o)
     {
         if(o==null)return null;
-        return map.get(o);
+        Node<K,V> node=map.get(o);
+        if(node==null)
+        {
+            misses.increment();
+            return null;
+        }
+        if(isExpiring())
+        {
+            long now=System.nanoTime();
+            if(isExpired(node, now))
+            {
+                misses.increment();
+                if(map.remove(node.key, node))
+                {
+                    node.alive=false;
+                    expirations.increment();
+                    afterWrite(node);
+                }
+                return null;
+            }
+            if(expireAfterAccessNanos>0)node.accessTime=now;
+        }
+        hits.increment();
+        afterRead(node);
+        return node.value;
     }
 
     @Override
     public V put(K k, V v)
     {
         if(k==null)return null;
-        //System.out.println("put:"+k+" "+v);        
-        V r=map.put(k, v);
-        linked.add(k);
-        if(map.size()>maxSize)
+        if(v==null)return remove(k);
+        Node<K,V> node=null;
+        while(true)
         {
-            crop();
-        }  
-        return r;
+            Node<K,V> prior=map.get(k);
+            if(prior==null)
+            {
+                if(node==null)node=new Node<K,V>(k, v);
+                prior=map.putIfAbsent(k, node);
+                if(prior==null)
+                {
+                    afterWrite(node);
+                    return null;
+                }
+            }
+            if(prior.alive)
+            {
+                V r=prior.getAndSetValue(v);
+                long now=System.nanoTime();
+                prior.writeTime=now;
+                prior.accessTime=now;
+                // El peso y la expiración cambian, se aplican como escritura
+                if(weigher!=null || isExpiring())
+                {
+                    afterWrite(prior);
+                } else
+                {
+                    afterRead(prior);
+                }
+                return r;
+            }
+            // El elemento se está retirando, se espera a que salga del mapa
+            Thread.yield();
+        }
     }
-    
-    private synchronized void crop()
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map)
     {
-        while(!linked.isEmpty() && map.size()>maxSize)
+        for(Entry<? extends K, ? extends V> entry:map.entrySet())
         {
-            Object obj=linked.poll();
-            map.remove(obj);
-        }          
+            put(entry.getKey(), entry.getValue());
+        }
     }
 
     @Override
-    public void putAll(Map<? extends K, ? extends V> map)
+    public void clear()
     {
-        this.map.putAll(map);
+        evictionLock.lock();
+        try
+        {
+            drainBuffers();
+            for(Node<K,V> node:map.values())
+            {
+                if(map.remove(node.key, node))
+                {
+                    node.alive=false;
+                    writeBuffer.add(node);
+                    pendingWrites.incrementAndGet();
+                }
+            }
+            drainBuffers();
+        } finally
+        {
+            evictionLock.unlock();
+        }
     }
 
     @Override
-    public void clear()
+    public V remove(Object o)
     {
-        map.clear();
-        linked.clear();
+        if(o==null)return null;
+        Node<K,V> node=map.remove(o);
+        if(node==null)return null;
+        node.alive=false;
+        afterWrite(node);
+        return node.value;
     }
 
     @Override
     public Set<K> keySet()
     {
-        return map.keySet();
+        Set<K> ret=keySet;
+        return ret!=null?ret:(keySet=new KeySet());
     }
 
     @Override
     public Collection<V> values()
     {
-        return map.values();
+        Collection<V> ret=values;
+        return ret!=null?ret:(values=new Values());
     }
 
     @Override
     public Set<Entry<K,V>> entrySet()
     {
-        return map.entrySet();
+        Set<Entry<K,V>> ret=entrySet;
+        return ret!=null?ret:(entrySet=new EntrySet());
     }
 
+    /**
+     * Anota la lectura en el buffer del hilo, si el buffer se llenó intenta aplicarlo sin esperar.
+     */
+    private void afterRead(Node<K,V> node)
+    {
+        ReadBuffer buffer=readBuffers[(int)Thread.currentThread().getId()&(READ_BUFFERS-1)];
+        if(buffer.offer(node) && evictionLock.tryLock())
+        {
+            try
+            {
+                drainBuffers();
+            } finally
+            {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Encola la escritura y la aplica si el candado está libre. Si hay demasiadas escrituras
+     * pendientes espera el candado, para que el cache no crezca sin límite.
+     */
+    private void afterWrite(Node<K,V> node)
+    {
+        writeBuffer.add(node);
+        int pending=pendingWrites.incrementAndGet();
+        if(pending>WRITE_BUFFER_MAX)
+        {
+            evictionLock.lock();
+        } else if(!evictionLock.tryLock())
+        {
+            return;
+        }
+        try
+        {
+            drainBuffers();
+        } finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Aplica las lecturas y escrituras pendientes a la lista de uso y descarta los elementos
+     * usados menos recientemente que excedan el tamaño máximo. Se ejecuta con el candado.
+     */
+    private void drainBuffers()
+    {
+        for(ReadBuffer buffer:readBuffers)
+        {
+            for(int i=0;i<READ_BUFFER_SIZE;i++)
+            {
+                @SuppressWarnings("unchecked")
+                Node<K,V> node=(Node<K,V>)buffer.slots.get(i);
+                if(node!=null && buffer.slots.compareAndSet(i, node, null) && node.linked && node.alive)
+                {
+                    moveToTail(node);
+                    if(timerWheel!=null && expireAfterAccessNanos>0)
+                    {
+                        timerWheel.schedule(node);
+                    }
+                }
+            }
+        }
+        Node<K,V> node;
+        while((node=writeBuffer.poll())!=null)
+        {
+            pendingWrites.decrementAndGet();
+            if(node.alive)
+            {
+                if(node.linked)
+                {
+                    moveToTail(node);
+                } else
+                {
+                    linkLast(node);
+                }
+                applyWeight(node);
+                if(timerWheel!=null)
+                {
+                    timerWheel.schedule(node);
+                }
+            } else if(node.linked)
+            {
+                discard(node);
+            }
+        }
+        if(timerWheel!=null)
+        {
+            timerWheel.advance(System.nanoTime());
+        }
+        evict();
+    }
+
+    /**
+     * Descarta los elementos usados menos recientemente mientras se exceda el tamaño o el peso
+     * máximo. Se ejecuta con el candado.
+     */
+    private void evict()
+    {
+        while(head!=null && (map.size()>maxSize || (maxWeight>0 && weightedSize>maxWeight)))
+        {
+            Node<K,V> node=head;
+            discard(node);
+            if(map.remove(node.key, node))
+            {
+                node.alive=false;
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Retira un elemento vencido. Se ejecuta con el candado.
+     */
+    private void expire(Node<K,V> node)
+    {
+        discard(node);
+        if(map.remove(node.key, node))
+        {
+            node.alive=false;
+            expirations.increment();
+        }
+    }
+
+    private boolean isExpired(Node<K,V> node, long now)
+    {
+        long write=expireAfterWriteNanos;
+        long access=expireAfterAccessNanos;
+        return (write>0 && now-node.writeTime>=write) || (access>0 && now-node.accessTime>=access);
+    }
+
+    /**
+     * Actualiza el peso del elemento en el peso total. Se ejecuta con el candado.
+     */
+    private void applyWeight(Node<K,V> node)
+    {
+        Weigher<? super K,? super V> w=weigher;
+        int weight=w==null?1:Math.max(0, w.weigh(node.key, node.value));
+        weightedSize+=weight-node.policyWeight;
+        node.policyWeight=weight;
+    }
+
+    /**
+     * Retira el elemento de la lista de uso, del peso total y de la rueda de temporizadores.
+     * Se ejecuta con el candado.
+     */
+    private void discard(Node<K,V> node)
+    {
+        if(node.linked)unlink(node);
+        weightedSize-=node.policyWeight;
+        node.policyWeight=0;
+        if(timerWheel!=null)
+        {
+            timerWheel.deschedule(node);
+        }
+    }
+
+    private void linkLast(Node<K,V> node)
+    {
+        node.prev=tail;
+        node.next=null;
+        if(tail==null)
+        {
+            head=node;
+        } else
+        {
+            tail.next=node;
+        }
+        tail=node;
+        node.linked=true;
+    }
+
+    private void unlink(Node<K,V> node)
+    {
+        if(node.prev==null)
+        {
+            head=node.next;
+        } else
+        {
+            node.prev.next=node.next;
+        }
+        if(node.next==null)
+        {
+            tail=node.prev;
+        } else
+        {
+            node.next.prev=node.prev;
+        }
+        node.prev=null;
+        node.next=null;
+        node.linked=false;
+    }
+
+    private void moveToTail(Node<K,V> node)
+    {
+        if(node!=tail)
+        {
+            unlink(node);
+            linkLast(node);
+        }
+    }
+
+    /**
+     * Elemento del cache, los campos prev, next y linked se protegen con el candado de la lista.
+     */
+    static final class Node<K,V>
+    {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Node,Object> VALUE=AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "value");
+
+        final K key;
+        volatile V value;
+        volatile boolean alive=true;
+        volatile long writeTime;
+        volatile long accessTime;
+        Node<K,V> prev;
+        Node<K,V> next;
+        boolean linked;
+        int policyWeight;
+        Node<K,V> timerPrev;
+        Node<K,V> timerNext;
+
+        Node(K key, V value)
+        {
+            this.key=key;
+            this.value=value;
+            writeTime=System.nanoTime();
+            accessTime=writeTime;
+        }
+
+        @SuppressWarnings("unchecked")
+        V getAndSetValue(V value)
+        {
+            return (V)VALUE.getAndSet(this, value);
+        }
+    }
+
+    /**
+     * Rueda de temporizadores jerárquica: cada nivel divide el tiempo en cubetas de mayor duración
+     * (1 segundo, 1 minuto, 1 hora y 1 día aproximadamente, en potencias de 2 de nanosegundos).
+     * Un elemento se guarda en la cubeta de su vencimiento en el nivel más fino que lo alcanza;
+     * al avanzar el tiempo se revisan solo las cubetas transcurridas, los elementos vencidos se
+     * retiran y los demás bajan a un nivel más fino. Programar, cancelar y vencer son O(1).
+     * Se usa con el candado de la lista de uso.
+     */
+    final class TimerWheel
+    {
+        private final int BUCKETS[]={64, 64, 32, 4, 1};
+        private final long SPANS[]={1L<<30, 1L<<36, 1L<<42, 1L<<47, 1L<<49, 1L<<49};
+        private final int SHIFTS[]={30, 36, 42, 47, 49};
+
+        private final Node<K,V> wheel[][];
+
+        /** Referencia de los tiempos, para trabajar con valores positivos. */
+        private final long origin;
+
+        /** El tiempo del último avance, relativo a origin. */
+        private long nanos;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        TimerWheel()
+        {
+            origin=System.nanoTime();
+            wheel=new Node[BUCKETS.length][];
+            for(int i=0;i<BUCKETS.length;i++)
+            {
+                wheel[i]=new Node[BUCKETS[i]];
+                for(int j=0;j<BUCKETS[i];j++)
+                {
+                    Node<K,V> sentinel=new Node<K,V>(null, null);
+                    sentinel.timerPrev=sentinel;
+                    sentinel.timerNext=sentinel;
+                    wheel[i][j]=sentinel;
+                }
+            }
+        }
+
+        /**
+         * @return el vencimiento del elemento relativo a origin, Long.MAX_VALUE si no vence
+         */
+        private long expirationTime(Node<K,V> node)
+        {
+            long ret=Long.MAX_VALUE;
+            long write=expireAfterWriteNanos;
+            long access=expireAfterAccessNanos;
+            if(write>0)ret=node.writeTime-origin+write;
+            if(access>0)ret=Math.min(ret, node.accessTime-origin+access);
+            return ret;
+        }
+
+        void schedule(Node<K,V> node)
+        {
+            deschedule(node);
+            long time=expirationTime(node);
+            if(time==Long.MAX_VALUE)return;
+            // Los vencidos van a la cubeta actual, que se revisa en el siguiente avance
+            Node<K,V> sentinel=findBucket(Math.max(time, nanos));
+            node.timerNext=sentinel;
+            node.timerPrev=sentinel.timerPrev;
+            sentinel.timerPrev.timerNext=node;
+            sentinel.timerPrev=node;
+        }
+
+        void deschedule(Node<K,V> node)
+        {
+            if(node.timerNext!=null)
+            {
+                node.timerPrev.timerNext=node.timerNext;
+                node.timerNext.timerPrev=node.timerPrev;
+                node.timerNext=null;
+                node.timerPrev=null;
+            }
+        }
+
+        private Node<K,V> findBucket(long time)
+        {
+            long duration=time-nanos;
+            int length=wheel.length-1;
+            for(int i=0;i<length;i++)
+            {
+                if(duration<SPANS[i+1])
+                {
+                    long ticks=time>>>SHIFTS[i];
+                    return wheel[i][(int)(ticks&(wheel[i].length-1))];
+                }
+            }
+            return wheel[length][0];
+        }
+
+        /**
+         * Revisa las cubetas transcurridas desde el último avance.
+         */
+        void advance(long now)
+        {
+            long previous=nanos;
+            long current=now-origin;
+            if(current<=previous)return;
+            nanos=current;
+            for(int i=0;i<SHIFTS.length;i++)
+            {
+                long previousTicks=previous>>>SHIFTS[i];
+                long currentTicks=current>>>SHIFTS[i];
+                if(currentTicks-previousTicks<=0)break;
+                expire(i, previousTicks, currentTicks);
+            }
+        }
+
+        private void expire(int index, long previousTicks, long currentTicks)
+        {
+            Node<K,V> timerWheel[]=wheel[index];
+            int mask=timerWheel.length-1;
+            int steps=(int)Math.min(1+currentTicks-previousTicks, timerWheel.length);
+            int start=(int)(previousTicks&mask);
+            for(int i=start;i<start+steps;i++)
+            {
+                Node<K,V> sentinel=timerWheel[i&mask];
+                Node<K,V> node=sentinel.timerNext;
+                sentinel.timerPrev=sentinel;
+                sentinel.timerNext=sentinel;
+                while(node!=sentinel)
+                {
+                    Node<K,V> next=node.timerNext;
+                    node.timerPrev=null;
+                    node.timerNext=null;
+                    if(expirationTime(node)-nanos>0)
+                    {
+                        schedule(node);
+                    } else
+                    {
+                        HashMapCache.this.expire(node);
+                    }
+                    node=next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Buffer circular de lecturas de un grupo de hilos. Si se llena antes de aplicarse, las
+     * lecturas más antiguas se sobreescriben, lo que solo afecta la precisión del orden de uso.
+     */
+    static final class ReadBuffer
+    {
+        final AtomicReferenceArray<Object> slots=new AtomicReferenceArray<Object>(READ_BUFFER_SIZE);
+        final AtomicInteger counter=new AtomicInteger();
+
+        /**
+         * @return true si el buffer se llenó y debe aplicarse
+         */
+        boolean offer(Object node)
+        {
+            int i=counter.getAndIncrement()&(READ_BUFFER_SIZE-1);
+            slots.lazySet(i, node);
+            return i==READ_BUFFER_SIZE-1;
+        }
+    }
+
+    /**
+     * Iterador sobre los elementos del mapa, la eliminación pasa por el cache.
+     */
+    abstract class NodeIterator<T> implements Iterator<T>
+    {
+        private final Iterator<Node<K,V>> it=map.values().iterator();
+        private Node<K,V> current;
+
+        @Override
+        public boolean hasNext()
+        {
+            return it.hasNext();
+        }
+
+        Node<K,V> nextNode()
+        {
+            current=it.next();
+            return current;
+        }
+
+        @Override
+        public void remove()
+        {
+            if(current==null)throw new IllegalStateException();
+            HashMapCache.this.remove(current.key, current.value);
+            current=null;
+        }
+    }
+
+    final class KeySet extends AbstractSet<K>
+    {
+        @Override
+        public Iterator<K> iterator()
+        {
+            return new NodeIterator<K>()
+            {
+                @Override
+                public K next()
+                {
+                    return nextNode().key;
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            return HashMapCache.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o)
+        {
+            return HashMapCache.this.remove(o)!=null;
+        }
+
+        @Override
+        public void clear()
+        {
+            HashMapCache.this.clear();
+        }
+    }
+
+    final class Values extends AbstractCollection<V>
+    {
+        @Override
+        public Iterator<V> iterator()
+        {
+            return new NodeIterator<V>()
+            {
+                @Override
+                public V next()
+                {
+                    return nextNode().value;
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            return HashMapCache.this.size();
+        }
+
+        @Override
+        public void clear()
+        {
+            HashMapCache.this.clear();
+        }
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K,V>>
+    {
+        @Override
+        public Iterator<Entry<K,V>> iterator()
+        {
+            return new NodeIterator<Entry<K,V>>()
+            {
+                @Override
+                public Entry<K,V> next()
+                {
+                    Node<K,V> node=nextNode();
+                    return new WriteThroughEntry(node.key, node.value);
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            return HashMapCache.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            if(!(o instanceof Entry))return false;
+            Entry<?,?> e=(Entry<?,?>)o;
+            Node<K,V> node=e.getKey()!=null?map.get(e.getKey()):null;
+            return node!=null && node.value.equals(e.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o)
+        {
+            if(!(o instanceof Entry))return false;
+            Entry<?,?> e=(Entry<?,?>)o;
+            return HashMapCache.this.remove(e.getKey(), e.getValue());
+        }
+
+        @Override
+        public void clear()
+        {
+            HashMapCache.this.clear();
+        }
+    }
+
+    /**
+     * Entrada que al cambiar su valor lo cambia en el cache.
+     */
+    final class WriteThroughEntry extends SimpleEntry<K,V>
+    {
+        private static final long serialVersionUID = 1L;
+
+        WriteThroughEntry(K key, V value)
+        {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value)
+        {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    /**
+     * Retira el elemento solo si tiene el valor indicado.
+     *
+     * @return true si se retiró el elemento
+     */
     @Override
-    public V remove(Object o)
+    public boolean remove(Object key, Object value)
     {
-        return map.remove(o);
+        if(key==null || value==null)return false;
+        Node<K,V> node=map.get(key);
+        if(node==null || !value.equals(node.value) || !map.remove(key, node))return false;
+        node.alive=false;
+        afterWrite(node);
+        return true;
     }
-    
 }
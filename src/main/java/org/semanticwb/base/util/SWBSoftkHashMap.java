@@ -22,31 +22,46 @@
  */
 package org.semanticwb.base.util;
 
+import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
 import java.util.AbstractMap;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 // TODO: Auto-generated Javadoc
 /**
  * The Class SWBSoftkHashMap.
+ * <p>
+ * Mapa concurrente cuyos valores se guardan con referencias suaves, que el garbage collector
+ * libera cuando falta memoria. Los HARD_SIZE valores usados más recientemente se mantienen
+ * además con una referencia fuerte para que no se liberen; cada llave aparece una sola vez en
+ * esa lista. Las entradas liberadas se retiran del mapa al escribir o consultar su tamaño.
  * 
  * @param <K> the key type
  * @param <V> the value type
  * @author Dr. Heinz M. Kabutz, Sydney (what's up doc?) Redelinghuys, adjusted by Serch
  */
 public class SWBSoftkHashMap<K,V> extends AbstractMap<K,V> {
-  /** The internal HashMap that will hold the SoftReference. */
-  private final Map<K,SoftReference> hash = new HashMap<K,SoftReference>();
+  /** Sustituye a la llave nula, que ConcurrentHashMap no acepta. */
+  private static final Object NULL_KEY = new Object();
+  /** The internal map that will hold the SoftReference. */
+  private final ConcurrentHashMap<Object,SoftValue<V>> hash = new ConcurrentHashMap<Object,SoftValue<V>>();
   /** The number of "hard" references to hold internally. */
   private final int HARD_SIZE;
-  /** The FIFO list of hard references, order of last access. */
-  private final LinkedList hardCache = new LinkedList();
+  /** The hard references, in order of last access and without duplicated keys. */
+  private final HashMapCache<Object,V> hardCache;
   /** Reference queue for cleared SoftReference objects. */
-  private final ReferenceQueue queue = new ReferenceQueue();
+  private final ReferenceQueue<V> queue = new ReferenceQueue<V>();
+  /** Evita que varios hilos vacien la cola al mismo tiempo. */
+  private final AtomicBoolean processing = new AtomicBoolean(false);
+  /** The entry set. */
+  private Set<Map.Entry<K,V>> entrySet;
 
   /**
    * Instantiates a new sWB softk hash map.
@@ -58,45 +73,48 @@ public class SWBSoftkHashMap<K,V> extends AbstractMap<K,V> {
    * 
    * @param hardSize the hard size
    */
-  public SWBSoftkHashMap(int hardSize) { HARD_SIZE = hardSize; }
+  public SWBSoftkHashMap(int hardSize) {
+    HARD_SIZE = hardSize;
+    hardCache = hardSize > 0 ? new HashMapCache<Object,V>(hardSize) : null;
+  }
 
   /* (non-Javadoc)
    * @see java.util.AbstractMap#get(java.lang.Object)
    */
   public V get(Object key) {
-    V result = null;
+    Object k = maskNull(key);
     // We get the SoftReference represented by that key
-    SoftReference<V> soft_ref = (SoftReference)hash.get(key);
-    if (soft_ref != null) {
-      // From the SoftReference we get the value, which can be
-      // null if it was not in the map, or it was removed in
-      // the processQueue() method defined below
-      result = soft_ref.get();
-      if (result == null) {
-        // If the value has been garbage collected, remove the
-        // entry from the HashMap.
-        hash.remove(key);
-      } else {
-        // We now add this object to the beginning of the hard
-        // reference queue.  One reference can occur more than
-        // once, because lookups of the FIFO queue are slow, so
-        // we don't want to search through it each time to remove
-        // duplicates.
-        hardCache.addFirst(result);
-        if (hardCache.size() > HARD_SIZE && !hardCache.isEmpty()) {
-          // Remove the last entry if list longer than HARD_SIZE            
-            hardCache.removeLast();
-            
-        }
-      }
+    SoftValue<V> soft_ref = hash.get(k);
+    if (soft_ref == null) {
+      return null;
+    }
+    // From the SoftReference we get the value, which is null
+    // if it was garbage collected
+    V result = soft_ref.get();
+    if (result == null) {
+      // If the value has been garbage collected, remove the
+      // entry, unless it was replaced meanwhile.
+      hash.remove(k, soft_ref);
+    } else if (hardCache != null && hardCache.get(k) != result) {
+      // The key moves to the most recently used end of the hard
+      // references, it is only added if it is not already there.
+      hardCache.put(k, result);
     }
     return result;
   }
 
+  /* (non-Javadoc)
+   * @see java.util.AbstractMap#containsKey(java.lang.Object)
+   */
+  public boolean containsKey(Object key) {
+    SoftValue<V> soft_ref = hash.get(maskNull(key));
+    return soft_ref != null && soft_ref.get() != null;
+  }
+
   /** We define our own subclass of SoftReference which contains
    not only the value but also the key to make it easier to find
    the entry in the HashMap after it's been garbage collected. */
-  private static class SoftValue extends SoftReference {
+  private static class SoftValue<V> extends SoftReference<V> {
     
     /** The key. */
     private final Object key; // always make data member final
@@ -113,24 +131,33 @@ public class SWBSoftkHashMap<K,V> extends AbstractMap<K,V> {
      * @param key the key
      * @param q the q
      */
-    private SoftValue(Object k, Object key, ReferenceQueue q) {
+    private SoftValue(V k, Object key, ReferenceQueue<? super V> q) {
       super(k, q);
       this.key = key;
     }
   }
 
   /** Here we go through the ReferenceQueue and remove garbage
-   collected SoftValue objects from the HashMap by looking them
-   up using the SoftValue.key data member. */
+   collected SoftValue objects from the map by looking them
+   up using the SoftValue.key data member. Only one thread
+   drains the queue at a time, the others don't wait. */
   private void processQueue() {
-    SoftValue sv;
-    while ((sv = (SoftValue)queue.poll()) != null) {
-      hash.remove(sv.key); // we can access private data!
+    if (!processing.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      Reference<? extends V> ref;
+      while ((ref = queue.poll()) != null) {
+        SoftValue<?> sv = (SoftValue<?>)ref;
+        hash.remove(sv.key, sv); // we can access private data!
+      }
+    } finally {
+      processing.set(false);
     }
   }
   
   /**
-   * Here we put the key, value pair into the HashMap using
+   * Here we put the key, value pair into the map using
    * a SoftValue object.
    * 
    * @param key the key
@@ -139,7 +166,12 @@ public class SWBSoftkHashMap<K,V> extends AbstractMap<K,V> {
    */
   public V put(K key, V value) {
     processQueue(); // throw out garbage collected values first
-    return (V)hash.put(key, new SoftValue(value, key, queue));
+    Object k = maskNull(key);
+    SoftValue<V> old = hash.put(k, new SoftValue<V>(value, k, queue));
+    if (hardCache != null) {
+      hardCache.remove(k);
+    }
+    return (null==old)?null:old.get();
   }
   
   /* (non-Javadoc)
@@ -147,7 +179,11 @@ public class SWBSoftkHashMap<K,V> extends AbstractMap<K,V> {
    */
   public V remove(Object key) {
     processQueue(); // throw out garbage collected values first
-    SoftReference<V> value = hash.remove(key);
+    Object k = maskNull(key);
+    SoftValue<V> value = hash.remove(k);
+    if (hardCache != null) {
+      hardCache.remove(k);
+    }
     return (null==value)?null:value.get();
   }
   
@@ -155,7 +191,9 @@ public class SWBSoftkHashMap<K,V> extends AbstractMap<K,V> {
    * @see java.util.AbstractMap#clear()
    */
   public void clear() {
-    hardCache.clear();
+    if (hardCache != null) {
+      hardCache.clear();
+    }
     processQueue(); // throw out garbage collected values
     hash.clear();
   }
@@ -171,8 +209,112 @@ public class SWBSoftkHashMap<K,V> extends AbstractMap<K,V> {
   /* (non-Javadoc)
    * @see java.util.AbstractMap#entrySet()
    */
-  public Set entrySet() {
-    // no, no, you may NOT do that!!! GRRR
-    throw new UnsupportedOperationException();
+  public Set<Map.Entry<K,V>> entrySet() {
+    Set<Map.Entry<K,V>> ret = entrySet;
+    return ret != null ? ret : (entrySet = new EntrySet());
+  }
+
+  /**
+   * Gets the hard size.
+   * 
+   * @return el número de valores que se mantienen con referencia fuerte
+   */
+  public int getHardSize() {
+    return HARD_SIZE;
+  }
+
+  /**
+   * Mask null.
+   * 
+   * @param key the key
+   * @return la llave o NULL_KEY si es nula
+   */
+  private static Object maskNull(Object key) {
+    return key == null ? NULL_KEY : key;
+  }
+
+  /**
+   * Unmask null.
+   * 
+   * @param key the key
+   * @return la llave o nulo si es NULL_KEY
+   */
+  private static Object unmaskNull(Object key) {
+    return key == NULL_KEY ? null : key;
+  }
+
+  /**
+   * Vista de las entradas cuyos valores no han sido liberados. Es consistente
+   * con las modificaciones concurrentes, como las vistas de ConcurrentHashMap.
+   */
+  private final class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+    public Iterator<Map.Entry<K,V>> iterator() {
+      return new EntryIterator();
+    }
+
+    public int size() {
+      return SWBSoftkHashMap.this.size();
+    }
+
+    public void clear() {
+      SWBSoftkHashMap.this.clear();
+    }
+  }
+
+  /**
+   * Iterador que omite las entradas liberadas y mantiene una referencia
+   * fuerte al siguiente valor para que no se libere antes de entregarlo.
+   */
+  private final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+    private final Iterator<Map.Entry<Object,SoftValue<V>>> it = hash.entrySet().iterator();
+    private Map.Entry<K,V> next;
+    private Map.Entry<K,V> current;
+
+    public boolean hasNext() {
+      while (next == null && it.hasNext()) {
+        Map.Entry<Object,SoftValue<V>> entry = it.next();
+        V value = entry.getValue().get();
+        if (value != null) {
+          // keys are K, or NULL_KEY standing in for a null key
+          @SuppressWarnings("unchecked")
+          K key = (K)unmaskNull(entry.getKey());
+          next = new WriteThroughEntry(key, value);
+        }
+      }
+      return next != null;
+    }
+
+    public Map.Entry<K,V> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      current = next;
+      next = null;
+      return current;
+    }
+
+    public void remove() {
+      if (current == null) {
+        throw new IllegalStateException();
+      }
+      SWBSoftkHashMap.this.remove(current.getKey());
+      current = null;
+    }
+  }
+
+  /**
+   * Entrada que al cambiar su valor lo cambia en el mapa.
+   */
+  private final class WriteThroughEntry extends SimpleEntry<K,V> {
+    private static final long serialVersionUID = 1L;
+
+    private WriteThroughEntry(K key, V value) {
+      super(key, value);
+    }
+
+    public V setValue(V value) {
+      put(getKey(), value);
+      return super.setValue(value);
+    }
   }
 }
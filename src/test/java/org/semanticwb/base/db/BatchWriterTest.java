@@ -0,0 +1,39 @@
+package org.semanticwb.base.db;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransactionRollbackException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchWriterTest {
+
+	@Test
+	public void TestConnectionAndRollbackErrorsAreTransient() {
+		Assert.assertTrue(BatchWriter.isTransient(new SQLException("broken", "08006")));
+		Assert.assertTrue(BatchWriter.isTransient(new SQLException("deadlock", "40001")));
+		Assert.assertTrue(BatchWriter.isTransient(new SQLRecoverableException("lost")));
+		Assert.assertFalse(BatchWriter.isTransient(new SQLException("duplicate", "23505")));
+		Assert.assertFalse(BatchWriter.isTransient(new SQLException("unknown")));
+	}
+
+	@Test
+	public void TestChainedCauseIsInspected() {
+		SQLException batch = new BatchUpdateException("batch failed", "HY000", new int[0]);
+		batch.setNextException(new SQLException("deadlock", "40P01"));
+		Assert.assertTrue(BatchWriter.isTransient(batch));
+		BatchUpdateException cause = new BatchUpdateException("batch failed", "HY000", 0, new int[0],
+				new SQLException("broken", "08003"));
+		Assert.assertTrue(BatchWriter.isTransient(cause));
+	}
+
+	@Test
+	public void TestCommitFailureOnlyRetriesRollbacks() {
+		Assert.assertFalse(BatchWriter.isTransient(new SQLException("broken", "08006"), true));
+		Assert.assertFalse(BatchWriter.isTransient(new SQLRecoverableException("lost"), true));
+		Assert.assertTrue(BatchWriter.isTransient(new SQLException("serialization", "40001"), true));
+		Assert.assertTrue(BatchWriter.isTransient(new SQLTransactionRollbackException("rolled back"), true));
+	}
+}
@@ -0,0 +1,252 @@
+package org.semanticwb.base.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class DBConnectionPoolTest {
+
+	private static DBConnectionManager manager;
+	private static final AtomicInteger pools = new AtomicInteger();
+
+	@BeforeClass
+	public static void setUpClass() throws ClassNotFoundException {
+		Class.forName(StubDriver.class.getName());
+		manager = new DBConnectionManager();
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+		manager.shutdown();
+	}
+
+	@Before
+	public void setUp() {
+		StubDriver.reset();
+	}
+
+	private static DBConnectionPool newPool(int maxConn) {
+		String name = "test" + pools.incrementAndGet();
+		return new DBConnectionPool(manager, name, StubDriver.URL + name, null, null, maxConn, 0);
+	}
+
+	private static void awaitWaiting(DBConnectionPool pool, int threads) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (pool.getWaitingThreads() < threads) {
+			Assert.assertTrue("waiting threads", System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void TestReturnedConnectionIsHandedToWaiter() throws Exception {
+		final DBConnectionPool pool = newPool(1);
+		Connection con = pool.getConnection();
+		final Connection nativeCon = ((PoolConnection) con).getNativeConnection();
+		final AtomicReference<Connection> received = new AtomicReference<Connection>();
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				received.set(pool.getConnection(5000));
+			}
+		};
+		waiter.start();
+		awaitWaiting(pool, 1);
+		con.close();
+		waiter.join(5000);
+		Assert.assertNotNull(received.get());
+		Assert.assertSame(nativeCon, ((PoolConnection) received.get()).getNativeConnection());
+		Assert.assertEquals(0, pool.getWaitingThreads());
+		Assert.assertEquals(1, StubDriver.opened.get());
+		received.get().close();
+		Assert.assertEquals(0, pool.getActiveConnections());
+	}
+
+	@Test
+	public void TestWaitTimesOut() throws SQLException {
+		DBConnectionPool pool = newPool(1);
+		Connection con = pool.getConnection();
+		long start = System.currentTimeMillis();
+		Assert.assertNull(pool.getConnection(200));
+		Assert.assertTrue(System.currentTimeMillis() - start >= 150);
+		Assert.assertEquals(0, pool.getWaitingThreads());
+		Assert.assertEquals(1, pool.getMetrics().getTimeouts());
+		con.close();
+	}
+
+	@Test
+	public void TestWaitersAreServedInArrivalOrder() throws Exception {
+		final DBConnectionPool pool = newPool(1);
+		Connection con = pool.getConnection();
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 5; i++) {
+			final int n = i;
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					Connection c = pool.getConnection(5000);
+					order.add(n);
+					try {
+						c.close();
+					} catch (SQLException e) {
+						order.add(-1);
+					}
+				}
+			};
+			t.start();
+			threads.add(t);
+			awaitWaiting(pool, i + 1);
+		}
+		con.close();
+		for (Thread t : threads) {
+			t.join(5000);
+		}
+		Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+	}
+
+	@Test
+	public void TestCloseAllConnectionKeepsManagerUsable() throws SQLException {
+		String name = "test" + pools.incrementAndGet();
+		Properties props = new Properties();
+		props.setProperty(name + ".url", StubDriver.URL + name);
+		props.setProperty(name + ".maxconn", "2");
+		DBConnectionPool pool = manager.addPool(name, props);
+		Assert.assertNotNull(pool);
+		Assert.assertSame(pool, manager.getPool(name));
+		manager.getConnection(name).close();
+		Assert.assertEquals(1, pool.getIdleConnections());
+		manager.closeAllConnection();
+		Assert.assertEquals(0, pool.getIdleConnections());
+		Connection con = manager.getConnection(name);
+		Assert.assertNotNull(con);
+		con.close();
+		String other = "test" + pools.incrementAndGet();
+		props.setProperty(other + ".url", StubDriver.URL + other);
+		Assert.assertNotNull(manager.addPool(other, props));
+		Assert.assertTrue(manager.removePool(name));
+		Assert.assertTrue(manager.removePool(other));
+		Assert.assertNull(manager.getPool(name));
+	}
+
+	@Test
+	public void TestCachedStatementClosesItsResultSet() throws SQLException {
+		DBConnectionPool pool = newPool(1);
+		pool.setStatementCacheSize(4);
+		Connection con = pool.getConnection();
+		PreparedStatement st = con.prepareStatement("select 1");
+		ResultSet rs = st.executeQuery();
+		st.close();
+		Assert.assertTrue(rs.isClosed());
+		con.close();
+	}
+
+	@Test
+	public void TestBurstNeverExceedsMaxConn() throws Exception {
+		final DBConnectionPool pool = newPool(4);
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(16);
+		for (int t = 0; t < 16; t++) {
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < 200; i++) {
+							Connection c = pool.getConnection(5000);
+							if (c == null) {
+								errors.incrementAndGet();
+								continue;
+							}
+							if (pool.getTotalConnections() > 4) {
+								errors.incrementAndGet();
+							}
+							c.close();
+						}
+					} catch (Exception e) {
+						errors.incrementAndGet();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		done.await();
+		Assert.assertEquals(0, errors.get());
+		Assert.assertTrue(StubDriver.peakOpen.get() <= 4);
+		Assert.assertEquals(0, pool.getActiveConnections());
+		Assert.assertEquals(pool.getTotalConnections(), pool.getIdleConnections());
+	}
+
+	@Test
+	public void TestSessionStateIsResetOnReturn() throws SQLException {
+		DBConnectionPool pool = newPool(1);
+		Connection con = pool.getConnection();
+		con.setAutoCommit(false);
+		con.setReadOnly(true);
+		con.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+		con.setCatalog("other");
+		con.close();
+		con = pool.getConnection();
+		Assert.assertEquals(1, StubDriver.opened.get());
+		Assert.assertTrue(con.getAutoCommit());
+		Assert.assertFalse(con.isReadOnly());
+		Assert.assertEquals(Connection.TRANSACTION_READ_COMMITTED, con.getTransactionIsolation());
+		Assert.assertEquals("stub", con.getCatalog());
+		con.close();
+	}
+
+	@Test
+	public void TestCircuitBreakerOpensAndRecovers() throws Exception {
+		DBConnectionPool pool = newPool(2);
+		CircuitBreaker breaker = pool.getCircuitBreaker();
+		breaker.setFailureThreshold(3);
+		breaker.setOpenTime(1);
+		final List<CircuitBreaker.State> changes = new CopyOnWriteArrayList<CircuitBreaker.State>();
+		breaker.addListener(new CircuitBreaker.Listener() {
+			@Override
+			public void stateChanged(DBConnectionPool pool, CircuitBreaker.State state) {
+				changes.add(state);
+			}
+		});
+		StubDriver.fail = true;
+		for (int i = 0; i < 3; i++) {
+			Assert.assertNull(pool.getConnection());
+		}
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		int attempts = StubDriver.opened.get();
+		long start = System.currentTimeMillis();
+		Assert.assertNull(pool.getConnection(2000));
+		Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+		Assert.assertTrue(pool.getMetrics().getCircuitRejections() > 0);
+		Assert.assertEquals(0, pool.getTotalConnections());
+
+		StubDriver.fail = false;
+		Thread.sleep(1100);
+		Connection con = pool.getConnection();
+		Assert.assertNotNull(con);
+		Assert.assertEquals(attempts + 1, StubDriver.opened.get());
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		Assert.assertEquals(Arrays.asList(CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN,
+				CircuitBreaker.State.CLOSED), changes);
+		con.close();
+	}
+}
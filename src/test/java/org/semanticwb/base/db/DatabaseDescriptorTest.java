@@ -0,0 +1,49 @@
+package org.semanticwb.base.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.semanticwb.SWBUtils;
+
+public class DatabaseDescriptorTest {
+
+	private static DatabaseMetaData metaData(final String productName) {
+		return (DatabaseMetaData) Proxy.newProxyInstance(DatabaseDescriptorTest.class.getClassLoader(),
+				new Class<?>[] { DatabaseMetaData.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if (name.equals("getDatabaseProductName")) {
+							return productName;
+						} else if (name.equals("getDriverName")) {
+							return "stub";
+						} else if (name.equals("supportsBatchUpdates")) {
+							return Boolean.TRUE;
+						} else if (name.equals("getDatabaseMajorVersion")) {
+							throw new SQLFeatureNotSupportedException();
+						} else if (name.equals("supportsGetGeneratedKeys")) {
+							throw new AbstractMethodError();
+						}
+						throw new SQLException("Not supported");
+					}
+				});
+	}
+
+	@Test
+	public void TestUnsupportedMetadataUsesDefaults() throws SQLException {
+		DatabaseDescriptor db = new DatabaseDescriptor(metaData("MySQL"));
+		Assert.assertEquals("MySQL", db.getProductName());
+		Assert.assertEquals(SWBUtils.DB.DBTYPE_MySQL, db.getType());
+		Assert.assertEquals("stub", db.getDriverName());
+		Assert.assertTrue(db.supportsBatchUpdates());
+		Assert.assertEquals(0, db.getMajorVersion());
+		Assert.assertFalse(db.supportsGeneratedKeys());
+		Assert.assertNull(db.getProductVersion());
+	}
+}
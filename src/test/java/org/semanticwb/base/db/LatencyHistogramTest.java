@@ -0,0 +1,48 @@
+package org.semanticwb.base.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void TestPercentilesAreWithinBucketError() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		Assert.assertEquals(1000, histogram.getCount());
+		Assert.assertEquals(500, histogram.getMean());
+		Assert.assertEquals(1000, histogram.getMax());
+		long p50 = histogram.getPercentile(50);
+		Assert.assertTrue(p50 >= 500 && p50 <= 500 + 500 / 16);
+		long p99 = histogram.getPercentile(99);
+		Assert.assertTrue(p99 >= 990 && p99 <= 1000);
+		Assert.assertEquals(1000, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void TestSmallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 10; i++) {
+			histogram.record(3);
+		}
+		histogram.record(-5);
+		Assert.assertEquals(3, histogram.getPercentile(50));
+		Assert.assertEquals(0, histogram.getPercentile(1));
+		Assert.assertEquals(30, histogram.getTotal());
+	}
+
+	@Test
+	public void TestReset() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(100);
+		histogram.reset();
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0, histogram.getMax());
+		Assert.assertEquals(0, histogram.getMean());
+		Assert.assertEquals(0, histogram.getPercentile(50));
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		Assert.assertEquals(0, snapshot.getCount());
+	}
+}
@@ -0,0 +1,29 @@
+package org.semanticwb.base.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueryStatsTest {
+
+	@Test
+	public void TestFingerprintReplacesLiterals() {
+		Assert.assertEquals("SELECT * FROM t WHERE id = ? AND name = ?",
+				QueryStats.fingerprint("SELECT * FROM t WHERE id = 42 AND name = 'O''Brien'"));
+		Assert.assertEquals("select col1 from t2 where v = ?",
+				QueryStats.fingerprint("select col1 from t2 where v = 3.14e2"));
+	}
+
+	@Test
+	public void TestFingerprintCollapsesLists() {
+		Assert.assertEquals("select a from t where x in (?)",
+				QueryStats.fingerprint("select a from t where x in (1, 2, 3)"));
+		Assert.assertEquals("insert into t values (?)", QueryStats.fingerprint("insert into t values (?, ?, ?)"));
+	}
+
+	@Test
+	public void TestFingerprintNormalizesWhitespace() {
+		Assert.assertEquals("select a from t1 where c=?", QueryStats.fingerprint("select  a\n\tfrom t1 where c=? "));
+		Assert.assertEquals(QueryStats.fingerprint("select a from t where id=1"),
+				QueryStats.fingerprint("select a  from t where id=2"));
+	}
+}
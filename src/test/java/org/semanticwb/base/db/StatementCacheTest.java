@@ -0,0 +1,71 @@
+package org.semanticwb.base.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatementCacheTest {
+
+	private Connection con;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName(StubDriver.class.getName());
+		con = DriverManager.getConnection(StubDriver.URL + "statements");
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		con.close();
+	}
+
+	private static StatementCache.Key key(String sql) {
+		return new StatementCache.Key(sql, -1, -1, -1);
+	}
+
+	@Test
+	public void TestTakeRemovesUntilReleased() throws SQLException {
+		StatementCache cache = new StatementCache(2);
+		PreparedStatement st = con.prepareStatement("select 1");
+		cache.release(key("select 1"), st);
+		Assert.assertSame(st, cache.take(key("select 1")));
+		Assert.assertNull(cache.take(key("select 1")));
+		Assert.assertEquals(0, cache.size());
+		Assert.assertNull(cache.take(new StatementCache.Key("select 1", 1003, -1, -1)));
+	}
+
+	@Test
+	public void TestEvictsAndClosesLeastRecentlyUsed() throws SQLException {
+		StatementCache cache = new StatementCache(2);
+		PreparedStatement a = con.prepareStatement("a");
+		PreparedStatement b = con.prepareStatement("b");
+		PreparedStatement c = con.prepareStatement("c");
+		cache.release(key("a"), a);
+		cache.release(key("b"), b);
+		cache.release(key("a"), cache.take(key("a")));
+		cache.release(key("c"), c);
+		Assert.assertEquals(2, cache.size());
+		Assert.assertTrue(b.isClosed());
+		Assert.assertFalse(a.isClosed());
+		Assert.assertFalse(c.isClosed());
+	}
+
+	@Test
+	public void TestClearClosesCachedAndLaterReleased() throws SQLException {
+		StatementCache cache = new StatementCache(2);
+		PreparedStatement a = con.prepareStatement("a");
+		PreparedStatement b = con.prepareStatement("b");
+		cache.release(key("a"), a);
+		cache.clear();
+		Assert.assertTrue(a.isClosed());
+		cache.release(key("b"), b);
+		Assert.assertTrue(b.isClosed());
+		Assert.assertEquals(0, cache.size());
+	}
+}
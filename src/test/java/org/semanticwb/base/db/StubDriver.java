@@ -0,0 +1,225 @@
+package org.semanticwb.base.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver for tests. Accepts jdbc:stub: URLs and hands out in-memory connections that keep
+ * their session state, count how many are open and can be told to refuse new connections.
+ */
+public class StubDriver implements Driver {
+
+	public static final String URL = "jdbc:stub:";
+
+	static volatile boolean fail = false;
+	static final AtomicInteger opened = new AtomicInteger();
+	static final AtomicInteger open = new AtomicInteger();
+	static final AtomicInteger peakOpen = new AtomicInteger();
+
+	static {
+		try {
+			DriverManager.registerDriver(new StubDriver());
+		} catch (SQLException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	static void reset() {
+		fail = false;
+		opened.set(0);
+		open.set(0);
+		peakOpen.set(0);
+	}
+
+	@Override
+	public Connection connect(String url, Properties info) throws SQLException {
+		if (!acceptsURL(url)) {
+			return null;
+		}
+		if (fail) {
+			throw new SQLException("Connection refused", "08001");
+		}
+		opened.incrementAndGet();
+		int count = open.incrementAndGet();
+		int peak = peakOpen.get();
+		while (count > peak && !peakOpen.compareAndSet(peak, count)) {
+			peak = peakOpen.get();
+		}
+		return (Connection) Proxy.newProxyInstance(StubDriver.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new ConnectionHandler());
+	}
+
+	@Override
+	public boolean acceptsURL(String url) {
+		return url != null && url.startsWith(URL);
+	}
+
+	@Override
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+		return new DriverPropertyInfo[0];
+	}
+
+	@Override
+	public int getMajorVersion() {
+		return 1;
+	}
+
+	@Override
+	public int getMinorVersion() {
+		return 0;
+	}
+
+	@Override
+	public boolean jdbcCompliant() {
+		return false;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return Boolean.FALSE;
+		} else if (type == int.class) {
+			return Integer.valueOf(0);
+		} else if (type == long.class) {
+			return Long.valueOf(0);
+		}
+		return null;
+	}
+
+	private static Object proxy(Class<?> type, InvocationHandler handler) {
+		return Proxy.newProxyInstance(StubDriver.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+
+	private static final class ConnectionHandler implements InvocationHandler {
+		private boolean closed = false;
+		private boolean autoCommit = true;
+		private boolean readOnly = false;
+		private int isolation = Connection.TRANSACTION_READ_COMMITTED;
+		private String catalog = "stub";
+		private int holdability = ResultSet.HOLD_CURSORS_OVER_COMMIT;
+
+		@Override
+		public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("close")) {
+				if (!closed) {
+					closed = true;
+					open.decrementAndGet();
+				}
+				return null;
+			} else if (name.equals("isClosed")) {
+				return closed;
+			} else if (name.equals("isValid")) {
+				return !closed;
+			} else if (name.equals("getAutoCommit")) {
+				return autoCommit;
+			} else if (name.equals("setAutoCommit")) {
+				autoCommit = (Boolean) args[0];
+				return null;
+			} else if (name.equals("isReadOnly")) {
+				return readOnly;
+			} else if (name.equals("setReadOnly")) {
+				readOnly = (Boolean) args[0];
+				return null;
+			} else if (name.equals("getTransactionIsolation")) {
+				return isolation;
+			} else if (name.equals("setTransactionIsolation")) {
+				isolation = (Integer) args[0];
+				return null;
+			} else if (name.equals("getCatalog")) {
+				return catalog;
+			} else if (name.equals("setCatalog")) {
+				catalog = (String) args[0];
+				return null;
+			} else if (name.equals("getHoldability")) {
+				return holdability;
+			} else if (name.equals("setHoldability")) {
+				holdability = (Integer) args[0];
+				return null;
+			} else if (name.equals("getMetaData")) {
+				return proxy(DatabaseMetaData.class, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getDatabaseProductName")) {
+							return "Stub";
+						}
+						return defaultValue(method.getReturnType());
+					}
+				});
+			} else if (name.equals("createStatement") || name.equals("prepareStatement")) {
+				return proxy(method.getReturnType(), new StatementHandler());
+			} else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (name.equals("equals")) {
+				return proxy == args[0];
+			} else if (name.equals("toString")) {
+				return "StubConnection@" + Integer.toHexString(System.identityHashCode(proxy));
+			}
+			return defaultValue(method.getReturnType());
+		}
+	}
+
+	private static final class StatementHandler implements InvocationHandler {
+		private boolean closed = false;
+		private ResultSet resultSet = null;
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("close")) {
+				closed = true;
+				return null;
+			} else if (name.equals("isClosed")) {
+				return closed;
+			} else if (name.equals("executeBatch")) {
+				return new int[0];
+			} else if (name.equals("getResultSet")) {
+				return resultSet;
+			} else if (method.getReturnType() == ResultSet.class) {
+				resultSet = (ResultSet) proxy(ResultSet.class, new ResultSetHandler());
+				return resultSet;
+			} else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (name.equals("equals")) {
+				return proxy == args[0];
+			}
+			return defaultValue(method.getReturnType());
+		}
+	}
+
+	private static final class ResultSetHandler implements InvocationHandler {
+		private boolean closed = false;
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if (name.equals("close")) {
+				closed = true;
+				return null;
+			} else if (name.equals("isClosed")) {
+				return closed;
+			} else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (name.equals("equals")) {
+				return proxy == args[0];
+			}
+			return defaultValue(method.getReturnType());
+		}
+	}
+}
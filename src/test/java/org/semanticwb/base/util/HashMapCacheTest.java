@@ -0,0 +1,168 @@
+package org.semanticwb.base.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HashMapCacheTest {
+
+	@Test
+	public void TestEvictsLeastRecentlyUsed() {
+		HashMapCache<String, Integer> cache = new HashMapCache<String, Integer>(3);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.put("c", 3);
+		Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+		cache.put("d", 4);
+		Assert.assertEquals(3, cache.size());
+		Assert.assertFalse(cache.containsKey("b"));
+		Assert.assertTrue(cache.containsKey("a"));
+		Assert.assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void TestPutExistingKeyKeepsOneEntry() {
+		HashMapCache<String, Integer> cache = new HashMapCache<String, Integer>(2);
+		for (int i = 0; i < 100; i++) {
+			cache.put("a", i);
+		}
+		cache.put("b", 1);
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(Integer.valueOf(99), cache.get("a"));
+		Assert.assertEquals(0, cache.getEvictions());
+	}
+
+	@Test
+	public void TestRemoveAndCounters() {
+		HashMapCache<String, Integer> cache = new HashMapCache<String, Integer>(10);
+		cache.put("a", 1);
+		Assert.assertEquals(Integer.valueOf(1), cache.remove("a"));
+		Assert.assertNull(cache.get("a"));
+		cache.put("b", 2);
+		cache.get("b");
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(0.5, cache.getHitRatio(), 0.001);
+	}
+
+	@Test
+	public void TestIteratorRemove() {
+		HashMapCache<Integer, Integer> cache = new HashMapCache<Integer, Integer>(10);
+		for (int i = 0; i < 10; i++) {
+			cache.put(i, i);
+		}
+		Iterator<Map.Entry<Integer, Integer>> it = cache.entrySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().getKey() % 2 == 0) {
+				it.remove();
+			}
+		}
+		Assert.assertEquals(5, cache.size());
+		for (int i = 10; i < 15; i++) {
+			cache.put(i, i);
+		}
+		Assert.assertEquals(10, cache.size());
+		Assert.assertEquals(0, cache.getEvictions());
+	}
+
+	@Test
+	public void TestConcurrentAccessStaysBounded() throws InterruptedException {
+		final HashMapCache<Integer, Integer> cache = new HashMapCache<Integer, Integer>(100);
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(8);
+		for (int t = 0; t < 8; t++) {
+			final int seed = t;
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 20000; i++) {
+							int key = (i * 31 + seed) % 1000;
+							if (i % 3 == 0) {
+								cache.put(key, key);
+							} else if (i % 7 == 0) {
+								cache.remove(key);
+							} else {
+								Integer value = cache.get(key);
+								if (value != null && value.intValue() != key) {
+									errors.incrementAndGet();
+								}
+							}
+						}
+					} catch (RuntimeException e) {
+						errors.incrementAndGet();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		done.await();
+		cache.put(-1, -1);
+		Assert.assertEquals(0, errors.get());
+		Assert.assertTrue(cache.size() <= 100);
+	}
+
+	@Test
+	public void TestZeroSizeKeepsNothing() {
+		HashMapCache<String, Integer> cache = new HashMapCache<String, Integer>(0);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		Assert.assertEquals(0, cache.size());
+		Assert.assertNull(cache.get("a"));
+	}
+
+	@Test
+	public void TestEvictsByWeight() {
+		HashMapCache<String, String> cache = new HashMapCache<String, String>();
+		cache.setWeigher(new HashMapCache.Weigher<String, String>() {
+			@Override
+			public int weigh(String key, String value) {
+				return value.length();
+			}
+		});
+		cache.setMaxWeight(10);
+		cache.put("a", "1234");
+		cache.put("b", "1234");
+		Assert.assertEquals(8, cache.getWeightedSize());
+		cache.put("c", "1234");
+		Assert.assertFalse(cache.containsKey("a"));
+		Assert.assertEquals(8, cache.getWeightedSize());
+		cache.put("b", "1");
+		Assert.assertEquals(5, cache.getWeightedSize());
+		cache.put("d", "12345678901");
+		Assert.assertFalse(cache.containsKey("d"));
+		Assert.assertTrue(cache.getWeightedSize() <= 10);
+	}
+
+	@Test
+	public void TestExpireAfterWrite() throws InterruptedException {
+		HashMapCache<String, Integer> cache = new HashMapCache<String, Integer>(10);
+		cache.setExpireAfterWrite(50, TimeUnit.MILLISECONDS);
+		cache.put("a", 1);
+		Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+		Thread.sleep(100);
+		Assert.assertNull(cache.get("a"));
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(1, cache.getExpirations());
+	}
+
+	@Test
+	public void TestExpireAfterAccess() throws InterruptedException {
+		HashMapCache<String, Integer> cache = new HashMapCache<String, Integer>(10);
+		cache.setExpireAfterAccess(200, TimeUnit.MILLISECONDS);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		for (int i = 0; i < 5; i++) {
+			Thread.sleep(60);
+			Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+		}
+		Assert.assertFalse(cache.containsKey("b"));
+		Assert.assertTrue(cache.containsKey("a"));
+	}
+}
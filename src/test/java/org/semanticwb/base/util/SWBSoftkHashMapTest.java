@@ -0,0 +1,94 @@
+package org.semanticwb.base.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SWBSoftkHashMapTest {
+
+	@Test
+	public void TestPutGetRemove() {
+		SWBSoftkHashMap<String, String> map = new SWBSoftkHashMap<String, String>(10);
+		Assert.assertNull(map.put("a", "1"));
+		Assert.assertEquals("1", map.put("a", "2"));
+		Assert.assertEquals("2", map.get("a"));
+		Assert.assertTrue(map.containsKey("a"));
+		Assert.assertEquals(1, map.size());
+		Assert.assertEquals("2", map.remove("a"));
+		Assert.assertNull(map.get("a"));
+		Assert.assertEquals(0, map.size());
+	}
+
+	@Test
+	public void TestNullKey() {
+		SWBSoftkHashMap<String, String> map = new SWBSoftkHashMap<String, String>(10);
+		map.put(null, "x");
+		Assert.assertEquals("x", map.get(null));
+		Assert.assertTrue(map.containsKey(null));
+		Map.Entry<String, String> entry = map.entrySet().iterator().next();
+		Assert.assertNull(entry.getKey());
+		Assert.assertEquals("x", map.remove(null));
+	}
+
+	@Test
+	public void TestEntrySetWritesThrough() {
+		SWBSoftkHashMap<String, String> map = new SWBSoftkHashMap<String, String>(10);
+		map.put("a", "1");
+		map.put("b", "2");
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			if (entry.getKey().equals("a")) {
+				entry.setValue("3");
+			}
+		}
+		Assert.assertEquals("3", map.get("a"));
+		Iterator<Map.Entry<String, String>> it = map.entrySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().getKey().equals("b")) {
+				it.remove();
+			}
+		}
+		Assert.assertFalse(map.containsKey("b"));
+		Assert.assertEquals(1, map.size());
+	}
+
+	@Test
+	public void TestConcurrentAccess() throws InterruptedException {
+		final SWBSoftkHashMap<Integer, Integer> map = new SWBSoftkHashMap<Integer, Integer>(50);
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(8);
+		for (int t = 0; t < 8; t++) {
+			final int seed = t;
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 20000; i++) {
+							int key = (i * 31 + seed) % 500;
+							if (i % 3 == 0) {
+								map.put(key, key);
+							} else if (i % 7 == 0) {
+								map.remove(key);
+							} else {
+								Integer value = map.get(key);
+								if (value != null && value.intValue() != key) {
+									errors.incrementAndGet();
+								}
+							}
+						}
+					} catch (RuntimeException e) {
+						errors.incrementAndGet();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		done.await();
+		Assert.assertEquals(0, errors.get());
+		Assert.assertTrue(map.size() <= 500);
+	}
+}